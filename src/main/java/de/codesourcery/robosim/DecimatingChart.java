@@ -0,0 +1,471 @@
+package de.codesourcery.robosim;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Line chart for long sample series (millions of samples), optionally overlaying several series that share
+ * the same X values.
+ *
+ * <p>Samples are kept in primitive ring buffers, plus a pyramid of tiers per series holding the min/max of aligned
+ * blocks of 16, 256, 4096, ... samples. Rendering decimates every series to (at most) the min and max of every
+ * pixel column, using the coarsest tier blocks that fit a column, so the cost of a frame depends on the chart's
+ * width and not on the number of samples. Every series gets drawn as a single polyline through
+ * {@link Graphics2D#draw(java.awt.Shape)}.</p>
+ *
+ * <p>X values must not decrease (e.g. simulation time). Not thread-safe, samples written by other threads
+ * should be passed in through a {@link TimeSeriesStore}, see {@link #update(TimeSeriesStore.Reader)}.</p>
+ */
+public class DecimatingChart
+{
+    // log2 of the number of blocks of tier t-1 summarized by a block of tier t
+    private static final int TIER_BITS = 4;
+
+    public final Color axisColor;
+
+    private final int capacity;
+    private final double[] xData;
+    // tier 0 is the raw data
+    private final int tierCount;
+    private final Series[] series;
+
+    private static final class Series
+    {
+        final String name;
+        final float[] yData;
+        // tierMin/tierMax[0] are unused
+        final float[][] tierMin;
+        final float[][] tierMax;
+        Color color = Color.WHITE;
+        double yScaling = 1;
+        boolean visible;
+
+        Series(String name, int capacity, int tierCount)
+        {
+            this.name = name;
+            this.yData = new float[capacity];
+            this.tierMin = new float[tierCount][];
+            this.tierMax = new float[tierCount][];
+            for ( int t = 1; t < tierCount; t++ )
+            {
+                tierMin[t] = new float[capacity >> (t * TIER_BITS)];
+                tierMax[t] = new float[capacity >> (t * TIER_BITS)];
+            }
+        }
+    }
+
+    // total number of samples ever added
+    private long count;
+
+    private final Path2D.Float path = new Path2D.Float();
+    // index of the first sample right of every pixel column
+    private long[] columnEnds = new long[0];
+    private int lastPointCount;
+    private float lastX;
+    private float lastY;
+
+    // result of minMax()
+    private float rangeMin;
+    private float rangeMax;
+
+    /**
+     * Create a chart with a single, visible series.
+     *
+     * @param axisColor axis colour
+     * @param lineColor line colour
+     * @param capacity max. number of samples kept, must be a power of two
+     */
+    public DecimatingChart(Color axisColor, Color lineColor, int capacity)
+    {
+        this( axisColor, capacity, "y" );
+        show( "y", lineColor, 1 );
+    }
+
+    /**
+     * Create a chart with several series, all series are hidden until they get {@link #show(String, Color, double) shown}.
+     *
+     * @param axisColor axis colour
+     * @param capacity max. number of samples kept, must be a power of two
+     * @param seriesNames series names
+     */
+    public DecimatingChart(Color axisColor, int capacity, String... seriesNames)
+    {
+        Validate.isTrue( capacity >= 2 && Integer.bitCount( capacity ) == 1, "capacity must be a power of two >= 2, was %d", capacity );
+        Validate.notEmpty( seriesNames, "at least one series required" );
+        this.axisColor = axisColor;
+        this.capacity = capacity;
+        this.xData = new double[capacity];
+
+        int tiers = 1;
+        while ( tiers * TIER_BITS < 31 && (capacity >> (tiers * TIER_BITS)) > 0 ) {
+            tiers++;
+        }
+        this.tierCount = tiers;
+        this.series = new Series[seriesNames.length];
+        for ( int i = 0; i < seriesNames.length; i++ ) {
+            series[i] = new Series( seriesNames[i], capacity, tiers );
+        }
+    }
+
+    /**
+     * Sets the Y scaling of all series.
+     *
+     * @param factor pixels per unit
+     * @return this instance (for chaining)
+     */
+    public DecimatingChart yScaling(double factor) {
+        for ( Series s : series ) {
+            s.yScaling = factor;
+        }
+        return this;
+    }
+
+    /**
+     * Shows a series.
+     *
+     * @param name series name
+     * @param color line colour
+     * @param yScaling pixels per unit
+     * @return this instance (for chaining)
+     */
+    public DecimatingChart show(String name, Color color, double yScaling)
+    {
+        Validate.notNull( color, "color must not be null" );
+        final Series s = series( name );
+        s.color = color;
+        s.yScaling = yScaling;
+        s.visible = true;
+        return this;
+    }
+
+    /**
+     * Shows or hides a series, keeping its colour and scaling.
+     *
+     * @param name series name
+     * @param visible whether to draw the series
+     * @return this instance (for chaining)
+     */
+    public DecimatingChart visible(String name, boolean visible)
+    {
+        series( name ).visible = visible;
+        return this;
+    }
+
+    public boolean isVisible(String name)
+    {
+        return series( name ).visible;
+    }
+
+    private Series series(String name)
+    {
+        for ( Series s : series )
+        {
+            if ( s.name.equals( name ) ) {
+                return s;
+            }
+        }
+        throw new IllegalArgumentException( "Unknown series: " + name );
+    }
+
+    /**
+     * Adds a sample to a single-series chart, evicting the oldest one if the chart is full.
+     *
+     * @param x X value, must not be less than the previous one
+     * @param y Y value
+     */
+    public void update(double x, double y)
+    {
+        Validate.validState( series.length == 1, "chart has %d series", series.length );
+        appendX( x );
+        appendY( series[0], (float) y );
+        count++;
+    }
+
+    /**
+     * Adds a sample to every series, evicting the oldest one if the chart is full.
+     *
+     * @param x X value, must not be less than the previous one
+     * @param y Y values in the order the series were passed to the constructor
+     */
+    public void update(double x, double[] y)
+    {
+        Validate.isTrue( y.length == series.length, "expected %d values", series.length );
+        appendX( x );
+        for ( int i = 0; i < series.length; i++ ) {
+            appendY( series[i], (float) y[i] );
+        }
+        count++;
+    }
+
+    /**
+     * Adds all rows a reader has not seen yet, store channels are mapped to series by name.
+     *
+     * @param reader reader, store time stamps become X values
+     * @return number of samples added
+     * @throws IllegalArgumentException if the store lacks a channel for a series
+     */
+    public int update(TimeSeriesStore.Reader reader)
+    {
+        final int[] channels = new int[series.length];
+        for ( int i = 0; i < series.length; i++ ) {
+            channels[i] = reader.store().channelIndex( series[i].name );
+        }
+        int added = 0;
+        for ( int rows; (rows = reader.poll()) > 0; added += rows )
+        {
+            for ( int row = 0; row < rows; row++ )
+            {
+                appendX( reader.time( row ) );
+                for ( int i = 0; i < series.length; i++ ) {
+                    appendY( series[i], (float) reader.value( row, channels[i] ) );
+                }
+                count++;
+            }
+        }
+        return added;
+    }
+
+    private void appendX(double x)
+    {
+        if ( count > 0 && x < xData[ (int) ((count - 1) & (capacity - 1)) ] ) {
+            throw new IllegalArgumentException( "X values must not decrease, got " + x );
+        }
+        xData[ (int) (count & (capacity - 1)) ] = x;
+    }
+
+    private void appendY(Series s, float value)
+    {
+        s.yData[ (int) (count & (capacity - 1)) ] = value;
+        for ( int t = 1; t < tierCount; t++ )
+        {
+            final int shift = t * TIER_BITS;
+            final int slot = (int) ((count >> shift) & (s.tierMin[t].length - 1));
+            if ( (count & ((1L << shift) - 1)) == 0 )
+            {
+                // first sample of a new block
+                s.tierMin[t][slot] = value;
+                s.tierMax[t][slot] = value;
+            }
+            else
+            {
+                if ( value < s.tierMin[t][slot] ) {
+                    s.tierMin[t][slot] = value;
+                }
+                if ( value > s.tierMax[t][slot] ) {
+                    s.tierMax[t][slot] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of samples currently kept.
+     *
+     * @return count
+     */
+    public int size()
+    {
+        return (int) Math.min( count, capacity );
+    }
+
+    public void render(int x0, int y0, int x1, int y1, Graphics2D gfx) {
+
+        // render Y axis
+        gfx.setColor( axisColor );
+        gfx.drawLine( x0, y0, x0, y1 );
+
+        final int yMid = y0 + ( y1-y0 ) / 2;
+        gfx.setColor( axisColor );
+        gfx.drawLine( x0, yMid, x1, yMid );
+
+        // legend
+        int legendX = x0 + 5;
+        for ( Series s : series )
+        {
+            if ( s.visible && series.length > 1 )
+            {
+                gfx.setColor( s.color );
+                gfx.drawString( s.name, legendX, y0 + gfx.getFontMetrics().getAscent() );
+                legendX += gfx.getFontMetrics().stringWidth( s.name ) + 10;
+            }
+        }
+
+        lastPointCount = 0;
+        final int columns = x1 - x0;
+        if ( size() < 2 || columns < 1 ) {
+            return;
+        }
+
+        // samples with X values up to every column's right border
+        final long first = count - size();
+        final double xMin = readX( first );
+        final double xDelta = readX( count - 1 ) - xMin;
+        if ( columnEnds.length < columns ) {
+            columnEnds = new long[columns];
+        }
+        long start = first;
+        for ( int column = 0; column < columns; column++ )
+        {
+            start = column == columns - 1 ? count : upperBound( start, xMin + xDelta * (column + 1) / columns );
+            columnEnds[column] = start;
+        }
+
+        for ( Series s : series )
+        {
+            if ( s.visible ) {
+                render( s, x0, yMid, columns, first, gfx );
+            }
+        }
+    }
+
+    private void render(Series s, int x0, int yMid, int columns, long first, Graphics2D gfx)
+    {
+        path.reset();
+        boolean empty = true;
+        long start = first;
+        for ( int column = 0; column < columns; column++ )
+        {
+            final long end = columnEnds[column];
+            if ( end == start ) {
+                continue;
+            }
+            minMax( s, start, end );
+            start = end;
+
+            final float x = x0 + column;
+            final float yLow = (float) (yMid - rangeMin * s.yScaling);
+            final float yHigh = (float) (yMid - rangeMax * s.yScaling);
+            if ( empty )
+            {
+                path.moveTo( x, yLow );
+                lastX = x;
+                lastY = yLow;
+                lastPointCount++;
+                empty = false;
+            }
+            // visit the extreme closer to the previous point first, avoids needless zig-zags
+            final boolean lowFirst = Math.abs( yLow - lastY ) <= Math.abs( yHigh - lastY );
+            lineTo( x, lowFirst ? yLow : yHigh );
+            lineTo( x, lowFirst ? yHigh : yLow );
+        }
+        gfx.setColor( s.color );
+        gfx.draw( path );
+    }
+
+    private void lineTo(float x, float y)
+    {
+        if ( x != lastX || y != lastY )
+        {
+            path.lineTo( x, y );
+            lastX = x;
+            lastY = y;
+            lastPointCount++;
+        }
+    }
+
+    /**
+     * Returns the number of polyline points (of all series) the last {@link #render(int, int, int, int, Graphics2D)} drew.
+     *
+     * @return count
+     */
+    public int lastPointCount()
+    {
+        return lastPointCount;
+    }
+
+    private double readX(long index) {
+        return xData[ (int) (index & (capacity - 1)) ];
+    }
+
+    /*
+     * Returns the index of the first sample in [from,count) with an X value greater than limit.
+     */
+    private long upperBound(long from, double limit)
+    {
+        long lo = from, hi = count;
+        while ( lo < hi )
+        {
+            final long mid = (lo + hi) >>> 1;
+            if ( readX( mid ) <= limit ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /*
+     * Stores min/max of the samples [from,to) in rangeMin/rangeMax, reading the coarsest
+     * aligned tier blocks that fit into the range.
+     */
+    private void minMax(Series s, long from, long to)
+    {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        long i = from;
+        while ( i < to )
+        {
+            int t = 0;
+            while ( t + 1 < tierCount && (i & ((1L << ((t + 1) * TIER_BITS)) - 1)) == 0 && i + (1L << ((t + 1) * TIER_BITS)) <= to ) {
+                t++;
+            }
+            if ( t == 0 )
+            {
+                final float value = s.yData[ (int) (i & (capacity - 1)) ];
+                min = Math.min( min, value );
+                max = Math.max( max, value );
+                i++;
+            }
+            else
+            {
+                final int shift = t * TIER_BITS;
+                final int slot = (int) ((i >> shift) & (s.tierMin[t].length - 1));
+                min = Math.min( min, s.tierMin[t][slot] );
+                max = Math.max( max, s.tierMax[t][slot] );
+                i += 1L << shift;
+            }
+        }
+        rangeMin = min;
+        rangeMax = max;
+    }
+
+    static void main()
+    {
+        final BufferedImage image = new BufferedImage( 800, 200, BufferedImage.TYPE_INT_RGB );
+        final Graphics2D gfx = image.createGraphics();
+        for ( int samples : new int[]{ 1_000, 100_000, 1_000_000, 4_000_000 } )
+        {
+            final DecimatingChart chart = new DecimatingChart( Color.YELLOW, Color.WHITE, Integer.highestOneBit( samples - 1 ) << 1 );
+            final Chart plain = new Chart( Color.YELLOW, Color.WHITE, samples );
+            for ( int i = 0; i < samples; i++ )
+            {
+                final double x = i * 0.001;
+                final double y = Math.sin( x ) * 3 + Math.sin( x * 37 ) * 0.5;
+                chart.update( x, y );
+                plain.update( x, y );
+            }
+
+            final int frames = 20;
+            long start = System.nanoTime();
+            for ( int frame = 0; frame < frames; frame++ ) {
+                chart.render( 10, 10, 790, 190, gfx );
+            }
+            final double decimatingMillis = (System.nanoTime() - start) / 1e6 / frames;
+
+            start = System.nanoTime();
+            final int plainFrames = samples > 100_000 ? 1 : frames;
+            for ( int frame = 0; frame < plainFrames; frame++ ) {
+                plain.render( 10, 10, 790, 190, gfx );
+            }
+            final double plainMillis = (System.nanoTime() - start) / 1e6 / plainFrames;
+            System.out.printf( Locale.ROOT, "%,10d samples: decimating %6.2f ms/frame (%d points), drawLine per sample %8.2f ms/frame%n",
+                samples, decimatingMillis, chart.lastPointCount(), plainMillis );
+        }
+        gfx.dispose();
+    }
+}
@@ -0,0 +1,248 @@
+package de.codesourcery.robosim;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.lang3.Validate;
+import de.codesourcery.robosim.metrics.Histogram;
+
+/**
+ * Runs a task at a fixed wall-clock rate on the calling thread.
+ *
+ * <p>Ticks are scheduled against absolute deadlines (<code>start + n * period</code>), so timing errors do not
+ * accumulate. To hit deadlines precisely, the scheduler parks the thread until shortly before a deadline
+ * and then spin-waits for the remaining {@link #spinNanos(long) spin time}.</p>
+ *
+ * <p>A tick that finishes after the next deadline is an overrun, what happens then depends on the
+ * {@link OverrunPolicy}. Lateness of tick starts (jitter) and tick durations get recorded in histograms.</p>
+ */
+public final class FixedRateScheduler
+{
+    public enum OverrunPolicy
+    {
+        /** run missed ticks back-to-back (up to {@link #maxCatchUpTicks(int)}) to keep the average rate */
+        CATCH_UP,
+        /** skip missed ticks and continue with the next deadline in the future */
+        DROP
+    }
+
+    private final long periodNanos;
+
+    // configuration
+    private OverrunPolicy policy = OverrunPolicy.CATCH_UP;
+    private int maxCatchUpTicks = 10;
+    private long spinNanos = TimeUnit.MICROSECONDS.toNanos( 100 );
+
+    private volatile boolean stopRequested;
+    private volatile Thread runner;
+
+    // statistics
+    private final Histogram jitter = new Histogram();
+    private final Histogram tickDuration = new Histogram();
+    private volatile long ticks;
+    private volatile long overruns;
+    private volatile long droppedTicks;
+
+    /**
+     * Create instance.
+     *
+     * @param ticksPerSecond tick rate in Hz
+     */
+    public FixedRateScheduler(double ticksPerSecond)
+    {
+        Validate.isTrue( ticksPerSecond > 0 && ticksPerSecond <= 1_000_000, "rate must be in range (0,1000000] Hz" );
+        this.periodNanos = Math.round( 1_000_000_000d / ticksPerSecond );
+    }
+
+    public FixedRateScheduler policy(OverrunPolicy policy)
+    {
+        Validate.notNull( policy, "policy must not be null" );
+        this.policy = policy;
+        return this;
+    }
+
+    /**
+     * Sets the max. number of ticks that get run back-to-back when using {@link OverrunPolicy#CATCH_UP},
+     * missed ticks beyond that get dropped.
+     *
+     * @param maxTicks max. number of ticks
+     * @return this instance (for chaining)
+     */
+    public FixedRateScheduler maxCatchUpTicks(int maxTicks)
+    {
+        Validate.isTrue( maxTicks >= 0, "maxTicks must be >= 0" );
+        this.maxCatchUpTicks = maxTicks;
+        return this;
+    }
+
+    /**
+     * Sets how long before a deadline the scheduler stops parking and starts spin-waiting.
+     *
+     * <p>Larger values improve precision at the cost of CPU time, 0 disables spinning.</p>
+     *
+     * @param nanos spin time in nanoseconds
+     * @return this instance (for chaining)
+     */
+    public FixedRateScheduler spinNanos(long nanos)
+    {
+        Validate.isTrue( nanos >= 0, "nanos must be >= 0" );
+        this.spinNanos = nanos;
+        return this;
+    }
+
+    public long spinNanos()
+    {
+        return spinNanos;
+    }
+
+    public double periodSeconds()
+    {
+        return periodNanos / 1_000_000_000d;
+    }
+
+    /**
+     * Runs a task until {@link #stop()} gets called or the thread gets interrupted.
+     *
+     * @param task task, gets passed the period in seconds
+     */
+    public void run(ITickListener task)
+    {
+        Validate.notNull( task, "task must not be null" );
+        runner = Thread.currentThread();
+        try
+        {
+            final double periodSeconds = periodSeconds();
+            long deadline = System.nanoTime() + periodNanos;
+            while ( ! stopRequested && ! Thread.currentThread().isInterrupted() )
+            {
+                waitUntil( deadline );
+                if ( stopRequested ) {
+                    break;
+                }
+
+                final long start = System.nanoTime();
+                jitter.record( start - deadline );
+                task.tick( periodSeconds );
+                final long end = System.nanoTime();
+                tickDuration.record( end - start );
+                ticks++;
+
+                deadline += periodNanos;
+                if ( end > deadline )
+                {
+                    overruns++;
+                    // number of deadlines that already passed, not counting the one we'd run next
+                    final long missed = (end - deadline) / periodNanos;
+                    final long toDrop = switch( policy ) {
+                        case DROP -> missed + 1;
+                        case CATCH_UP -> Math.max( 0, missed + 1 - maxCatchUpTicks );
+                    };
+                    droppedTicks += toDrop;
+                    deadline += toDrop * periodNanos;
+                }
+            }
+        }
+        finally
+        {
+            runner = null;
+        }
+    }
+
+    private void waitUntil(long deadline)
+    {
+        long remaining;
+        while ( (remaining = deadline - System.nanoTime()) > spinNanos && ! stopRequested ) {
+            LockSupport.parkNanos( remaining - spinNanos );
+        }
+        while ( deadline - System.nanoTime() > 0 && ! stopRequested ) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Makes {@link #run(ITickListener)} return after the current tick.
+     */
+    public void stop()
+    {
+        stopRequested = true;
+        final Thread t = runner;
+        if ( t != null ) {
+            LockSupport.unpark( t );
+        }
+    }
+
+    /**
+     * Returns how late ticks started, relative to their deadline.
+     *
+     * @return histogram (in nanoseconds)
+     */
+    public Histogram jitter()
+    {
+        return jitter;
+    }
+
+    /**
+     * Returns how long ticks took.
+     *
+     * @return histogram (in nanoseconds)
+     */
+    public Histogram tickDuration()
+    {
+        return tickDuration;
+    }
+
+    public long ticks()
+    {
+        return ticks;
+    }
+
+    /**
+     * Returns the number of ticks that finished after the next tick's deadline.
+     *
+     * @return count
+     */
+    public long overruns()
+    {
+        return overruns;
+    }
+
+    /**
+     * Returns the number of ticks that got skipped because of overruns.
+     *
+     * @return count
+     */
+    public long droppedTicks()
+    {
+        return droppedTicks;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "%.1f Hz, %s: %d ticks, %d overruns, %d dropped%n  jitter: %s%n  tick: %s".formatted(
+            1_000_000_000d / periodNanos, policy, ticks(), overruns(), droppedTicks(),
+            jitter.summary( "us", 1000 ), tickDuration.summary( "us", 1000 ) );
+    }
+
+    static void main() throws InterruptedException
+    {
+        for ( OverrunPolicy policy : OverrunPolicy.values() )
+        {
+            final FixedRateScheduler scheduler = new FixedRateScheduler( 1000 ).policy( policy );
+            final long[] tickNo = { 0 };
+            final Thread thread = Thread.ofPlatform().name( "scheduler-" + policy ).start( () -> scheduler.run( _ -> {
+                // ~200 µs of work, every 500th tick takes 3 ms
+                final long busyNanos = ++tickNo[0] % 500 == 0 ? 3_000_000 : 200_000;
+                final long end = System.nanoTime() + busyNanos;
+                while ( System.nanoTime() < end ) {
+                    Thread.onSpinWait();
+                }
+            } ) );
+            final long start = System.nanoTime();
+            Thread.sleep( 2000 );
+            scheduler.stop();
+            thread.join();
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf( "%s%n  effective rate: %.1f Hz%n", scheduler, scheduler.ticks() / seconds );
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package de.codesourcery.robosim;
+
+import java.util.Random;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.Validate;
+import de.codesourcery.robosim.kinematic.JointCommandQueue;
+import de.codesourcery.robosim.kinematic.KinematicChain;
+import de.codesourcery.robosim.kinematic.KinematicChainController;
+
+/**
+ * Runs a kinematic chain simulation without a window, GPU or worker thread, as fast as the CPU allows.
+ *
+ * <p>The chain's {@link KinematicChainController} gets stepped synchronously on the calling thread while a
+ * {@link Scenario} submits commands, just like the render loop in {@link RendererTest} does. Results include
+ * the real-time factor (simulated seconds per wall-clock second).</p>
+ */
+public class HeadlessSimulation
+{
+    /**
+     * Script that drives a simulation.
+     */
+    @FunctionalInterface
+    public interface Scenario
+    {
+        /**
+         * Called before every simulation step.
+         *
+         * @param controller controller, submit commands through {@link KinematicChainController#commands()}
+         * @param chain the simulated chain
+         * @param simulatedSeconds simulated time so far
+         */
+        void beforeStep(KinematicChainController controller, KinematicChain chain, double simulatedSeconds);
+    }
+
+    /**
+     * Outcome of a simulation run.
+     *
+     * @param simulatedSeconds simulated time
+     * @param wallSeconds wall-clock time the simulation took
+     * @param steps number of simulation steps
+     * @param destinationsReached number of times all motors arrived at their desired angles
+     */
+    public record Result(double simulatedSeconds, double wallSeconds, long steps, long destinationsReached)
+    {
+        /**
+         * Returns the real-time factor.
+         *
+         * @return simulated seconds per wall-clock second
+         */
+        public double realTimeFactor()
+        {
+            return simulatedSeconds / wallSeconds;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%.0f s simulated in %.3f s (real-time factor: %,.0f), %,d steps (%,.0f steps/s), %d destinations reached"
+                .formatted( simulatedSeconds, wallSeconds, realTimeFactor(), steps, steps / wallSeconds, destinationsReached );
+        }
+    }
+
+    /**
+     * The loop from {@link RendererTest}: whenever the arm has arrived, move all joints to random angles.
+     *
+     * @param rnd random generator
+     * @return scenario
+     */
+    public static Scenario randomAngles(Random rnd)
+    {
+        Validate.notNull( rnd, "rnd must not be null" );
+        return (controller, chain, simulatedSeconds) -> {
+            if ( controller.hasArrivedAtDestinationAngles() )
+            {
+                final double[] angles = chain.randomAngles( rnd );
+                for ( int i = 0; i < angles.length; i++ ) {
+                    controller.commands().offer( i, JointCommandQueue.CommandType.SET_DESIRED_ANGLE, angles[i] );
+                }
+            }
+        };
+    }
+
+    // configuration
+    private Supplier<KinematicChain> chainFactory = KinematicChain::createDefaultArm;
+    private double stepSeconds = KinematicChainController.DEFAULT_STEP_SECONDS;
+
+    public HeadlessSimulation chainFactory(Supplier<KinematicChain> factory)
+    {
+        Validate.notNull( factory, "factory must not be null" );
+        this.chainFactory = factory;
+        return this;
+    }
+
+    public HeadlessSimulation stepSeconds(double stepSeconds)
+    {
+        Validate.isTrue( stepSeconds > 0, "stepSeconds must be > 0" );
+        this.stepSeconds = stepSeconds;
+        return this;
+    }
+
+    /**
+     * Runs a scenario on a freshly created chain.
+     *
+     * @param scenario scenario
+     * @param simulatedSeconds simulated time to run for
+     * @return result
+     */
+    public Result run(Scenario scenario, double simulatedSeconds)
+    {
+        Validate.notNull( scenario, "scenario must not be null" );
+        Validate.isTrue( simulatedSeconds > 0, "simulatedSeconds must be > 0" );
+
+        final KinematicChain chain = chainFactory.get();
+        // the scheduler never runs, the controller's worker thread does not get started
+        final KinematicChainController controller =
+            new KinematicChainController( chain, new FixedRateScheduler( 1 / stepSeconds ), stepSeconds );
+
+        final long steps = (long) Math.ceil( simulatedSeconds / stepSeconds );
+        long destinationsReached = 0;
+        boolean arrived = false;
+        final long start = System.nanoTime();
+        for ( long i = 0; i < steps; i++ )
+        {
+            scenario.beforeStep( controller, chain, i * stepSeconds );
+            final boolean nowArrived = controller.step();
+            if ( nowArrived && ! arrived ) {
+                destinationsReached++;
+            }
+            arrived = nowArrived;
+        }
+        final double wallSeconds = (System.nanoTime() - start) / 1e9;
+        return new Result( steps * stepSeconds, wallSeconds, steps, destinationsReached );
+    }
+
+    static void main()
+    {
+        final double simulatedSeconds = 24 * 60 * 60;
+        for ( double stepSeconds : new double[]{ KinematicChainController.DEFAULT_STEP_SECONDS, 0.1 } )
+        {
+            final HeadlessSimulation sim = new HeadlessSimulation().stepSeconds( stepSeconds );
+            for ( int round = 0; round < 3; round++ )
+            {
+                final Result result = sim.run( randomAngles( new Random( 0xdeadbeef ) ), simulatedSeconds );
+                System.out.printf( "step %.2f s: %s%n", stepSeconds, result );
+            }
+        }
+    }
+}
@@ -2,30 +2,65 @@ package de.codesourcery.robosim;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
 import java.awt.Toolkit;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.lang.reflect.InvocationTargetException;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
+import org.apache.commons.lang3.Validate;
+import de.codesourcery.robosim.metrics.Instrumentation;
 import de.codesourcery.robosim.motor.Motor;
 
 public class Main extends JFrame
 {
     private class MotorPanel extends JPanel
     {
-        private Motion currentMotion;
         private int mouseX, mouseY;
 
-        private final Chart angleChart = new Chart( Color.YELLOW, Color.WHITE,250)
-            .yScaling( 15 ).sampleEvery( 50 );
+        // frame statistics, reset every second
+        private long statsStart = System.nanoTime();
+        private long statsStep;
+        private double statsSimulatedSeconds;
+        private int statsFrames;
+        private long statsPaintNanos;
+        private String simulationStats = "";
+        private String frameStats = "";
+
+        // keeps every simulation step of the last ~87 simulated hours
+        private final DecimatingChart chart = new DecimatingChart( Color.YELLOW, 1 << 20, CHANNELS )
+            .show( "angle", Color.WHITE, 15 )
+            .show( "velocity", Color.CYAN, 1.5 )
+            .show( "torque", Color.MAGENTA, 8 );
+        private final TimeSeriesStore.Reader chartReader = motorChannels.newReader( 1024 );
         {
             setFocusable( true );
             requestFocus();
+            // keys 1-5 toggle channels
+            addKeyListener( new KeyAdapter()
+            {
+                @Override
+                public void keyTyped(KeyEvent e)
+                {
+                    final int channel = e.getKeyChar() - '1';
+                    if ( channel >= 0 && channel < CHANNELS.length )
+                    {
+                        chart.visible( CHANNELS[channel], ! chart.isVisible( CHANNELS[channel] ) );
+                        repaint();
+                    }
+                }
+            } );
             final MouseAdapter mouseListener = new MouseAdapter()
             {
                 @Override
@@ -66,6 +101,8 @@ public class Main extends JFrame
         }
 
         public void startMotion(double angleInRad) {
+            // the motor must only be touched by the simulation thread
+            simulationCommands.add( () -> {
 //            if ( ! motor.isMoving() )
 //            {
                 motor.setDesiredAngle( angleInRad );
@@ -73,11 +110,15 @@ public class Main extends JFrame
 //            } else {
 //                System.out.println("*** Motor is still moving... ***");
 //            }
+            } );
         }
 
         @Override
         protected void paintComponent(Graphics g)
         {
+            final long paintStart = System.nanoTime();
+            final Snapshot state = snapshot;
+
             g.setColor( Color.BLACK );
             g.fillRect(  0, 0, getWidth(), getHeight() );
 
@@ -89,9 +130,9 @@ public class Main extends JFrame
 
             // render circle around motor
             Color motorColor;
-            if ( motor.isBroken() ) {
+            if ( state.broken() ) {
                 motorColor = Color.RED;
-            } else if ( motor.isTooHot() || motor.isCurrentlyStalled() ) {
+            } else if ( state.tooHotOrStalled() ) {
                 motorColor = Color.YELLOW;
             } else {
                 motorColor = Color.GREEN;
@@ -103,15 +144,15 @@ public class Main extends JFrame
 
             // render line indicating the motor's desired angle
             final int rDesired = 150;
-            int px = (int) Math.round( motorX + rDesired * Math.cos( motor.getDesiredAngle()) );
-            int py = (int) Math.round( motorY + rDesired * Math.sin( motor.getDesiredAngle() ) );
+            int px = (int) Math.round( motorX + rDesired * Math.cos( state.desiredAngle() ) );
+            int py = (int) Math.round( motorY + rDesired * Math.sin( state.desiredAngle() ) );
             g.setColor( Color.GREEN );
             g.drawLine( motorX, motorY, px, py );
 
             // render line indicating the motor's current angle
             final int rCurrent = 75;
-            px = (int) Math.round( motorX + rCurrent * Math.cos( motor.currentAngle ) );
-            py = (int) Math.round( motorY + rCurrent * Math.sin( motor.currentAngle ) );
+            px = (int) Math.round( motorX + rCurrent * Math.cos( state.angle() ) );
+            py = (int) Math.round( motorY + rCurrent * Math.sin( state.angle() ) );
             g.setColor( Color.ORANGE);
             g.drawLine( motorX, motorY, px, py );
 
@@ -121,11 +162,37 @@ public class Main extends JFrame
             // render temperature
             final int dx = (int) Math.sqrt( 20*20 + 20*20 );
             g.setColor( Color.WHITE );
-            g.drawString( "%2.2f °C".formatted(motor.currentTemperature), motorX+dx, motorY-dx);
+            g.drawString( "%2.2f °C".formatted(state.temperature()), motorX+dx, motorY-dx);
 
-            angleChart.render( 10,30,400,230 , (Graphics2D) g);
+            chart.update( chartReader );
+            chart.render( 10,30,400,230 , (Graphics2D) g);
+
+            g.setColor( Color.WHITE );
+            g.drawString( simulationStats, 10, getHeight() - 25 );
+            g.drawString( frameStats, 10, getHeight() - 10 );
 
             Toolkit.getDefaultToolkit().sync();
+            updateStats( state, System.nanoTime() - paintStart );
+        }
+
+        private void updateStats(Snapshot state, long paintNanos)
+        {
+            statsFrames++;
+            statsPaintNanos += paintNanos;
+            final long now = System.nanoTime();
+            final double seconds = (now - statsStart) / 1e9;
+            if ( seconds >= 1 )
+            {
+                final double simulatedPerSecond = (state.simulatedSeconds() - statsSimulatedSeconds) / seconds;
+                simulationStats = "simulation: %,.0f steps/s (%.0fx real-time), target %.0f Hz, %d overruns".formatted(
+                    (state.step() - statsStep) / seconds, simulatedPerSecond, simulationRate, simulationScheduler == null ? 0 : simulationScheduler.overruns() );
+                frameStats = "UI: %.2f ms/frame, %.0f fps".formatted( statsPaintNanos / 1e6 / statsFrames, statsFrames / seconds );
+                statsStart = now;
+                statsStep = state.step();
+                statsSimulatedSeconds = state.simulatedSeconds();
+                statsFrames = 0;
+                statsPaintNanos = 0;
+            }
         }
 
 
@@ -137,7 +204,35 @@ public class Main extends JFrame
         }
     }
 
+    /** default simulation rate, simulates 0.3s steps ~200x faster than real-time */
+    public static final double DEFAULT_SIMULATION_RATE = 200 / 0.3;
+
+    private static final double STEP_SECONDS = 0.3;
+
+    /**
+     * Motor state after a simulation step, published by the simulation thread.
+     */
+    private record Snapshot(long step, double simulatedSeconds, double angle, double desiredAngle,
+                            double temperature, boolean broken, boolean tooHotOrStalled) {}
+
+    // only accessed by the simulation thread (after run() got called)
     private final Motor motor = new Motor("base");
+    private Motion currentMotion;
+    private long step;
+
+    private volatile Snapshot snapshot;
+    // actions the simulation thread executes before its next step
+    private final Queue<Runnable> simulationCommands = new ConcurrentLinkedQueue<>();
+
+    // configuration
+    private double simulationRate = DEFAULT_SIMULATION_RATE;
+    private FixedRateScheduler simulationScheduler;
+
+    private static final String[] CHANNELS = { "angle", "velocity", "temperature", "torque", "stall time" };
+
+    // written on every simulation step, read when painting
+    private final TimeSeriesStore motorChannels = new TimeSeriesStore( 1 << 14, CHANNELS );
+    private final double[] channelValues = new double[CHANNELS.length];
 
     private static final class Motion {
         public final long motionStart=System.nanoTime();
@@ -164,6 +259,7 @@ public class Main extends JFrame
 
     public Main() {
         super("RoboSim");
+        publishSnapshot();
 
         getContentPane().add(motorPanel);
         setDefaultCloseOperation( EXIT_ON_CLOSE );
@@ -173,34 +269,77 @@ public class Main extends JFrame
         setVisible(true);
     }
 
-    private void run()
+    /**
+     * Sets how many simulation steps (of 0.3 simulated seconds each) run per wall-clock second.
+     *
+     * @param stepsPerSecond rate in Hz
+     * @return this instance (for chaining)
+     */
+    public Main simulationRate(double stepsPerSecond)
     {
-        motorPanel.startMotion( degToRad(90) );
+        Validate.isTrue( stepsPerSecond > 0, "stepsPerSecond must be > 0" );
+        this.simulationRate = stepsPerSecond;
+        return this;
+    }
 
+    private void run()
+    {
         // FIXME: Remove debug code
         motor.breakOnOverTemperature = false;
 
-        final Timer t = new Timer(16, _ -> {
-            int ticks = 10;
-            do
-            {
-                motor.tick( 0.3f );
-                if ( motorPanel.currentMotion != null && !motorPanel.currentMotion.stopped && !motor.isMoving() )
-                {
-                    motorPanel.currentMotion.stop();
-                    System.out.println( "Motor stopped after " + motorPanel.currentMotion.elapsedSeconds() + " " +
-                                        "seconds" );
-                }
-                motorPanel.angleChart.update( motor.elapsedSeconds, motor.currentAngle );
-            } while (ticks-- > 0);
-            motorPanel.repaint();
-        });
-        t.start();
+        motorPanel.startMotion( degToRad(90) );
+
+        // parking is precise enough at this rate, no need to burn a core spinning
+        simulationScheduler = new FixedRateScheduler( simulationRate ).spinNanos( 0 );
+        Thread.ofPlatform().name( "motor-simulation" ).daemon( true ).start( () -> simulationScheduler.run( _ -> simulationStep() ) );
+
+        // repaint at display rate, painting uses the latest snapshot
+        final DisplayMode mode = GraphicsEnvironment.isHeadless() ? null : getGraphicsConfiguration().getDevice().getDisplayMode();
+        final int refreshRate = mode == null || mode.getRefreshRate() == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : mode.getRefreshRate();
+        new Timer( 1000 / refreshRate, _ -> motorPanel.repaint() ).start();
+    }
+
+    private void simulationStep()
+    {
+        for ( Runnable command; (command = simulationCommands.poll()) != null; ) {
+            command.run();
+        }
+        motor.tick( STEP_SECONDS );
+        step++;
+        if ( currentMotion != null && !currentMotion.stopped && !motor.isMoving() )
+        {
+            currentMotion.stop();
+            System.out.println( "Motor stopped after " + currentMotion.elapsedSeconds() + " " +
+                                "seconds" );
+        }
+        recordChannels();
+        publishSnapshot();
+    }
+
+    private void publishSnapshot()
+    {
+        snapshot = new Snapshot( step, motor.elapsedSeconds, motor.currentAngle, motor.getDesiredAngle(), motor.currentTemperature,
+            motor.isBroken(), motor.isTooHot() || motor.isCurrentlyStalled() );
+    }
+
+    private void recordChannels()
+    {
+        motor.catchUpSleepTime();
+        channelValues[0] = motor.currentAngle;
+        channelValues[1] = motor.currentAngularVelocity;
+        channelValues[2] = motor.currentTemperature;
+        channelValues[3] = motor.currentTorque;
+        channelValues[4] = motor.stallTime;
+        motorChannels.append( motor.elapsedSeconds, channelValues );
     }
 
     static void main() throws InterruptedException, InvocationTargetException
     {
-        SwingUtilities.invokeAndWait( () -> new Main().run() );
+        // no-ops unless started with -Drobosim.instrumentation=true
+        Instrumentation.registerMBeans();
+        Instrumentation.startPeriodicDump( Duration.ofSeconds( 10 ), System.out );
+
+        SwingUtilities.invokeAndWait( () -> new Main().simulationRate( DEFAULT_SIMULATION_RATE ).run() );
     }
 
     private static double degToRad(double deg)
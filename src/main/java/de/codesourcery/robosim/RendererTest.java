@@ -1,30 +1,31 @@
 package de.codesourcery.robosim;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.function.Consumer;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Application;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3ApplicationConfiguration;
-import com.badlogic.gdx.graphics.GL20;
-import com.badlogic.gdx.graphics.VertexAttribute;
-import com.badlogic.gdx.graphics.VertexAttributes;
-import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.Matrix4;
-import com.badlogic.gdx.math.Vector3;
-import de.codesourcery.robosim.kinematic.Joint;
+import de.codesourcery.robosim.kinematic.JointCommandQueue;
 import de.codesourcery.robosim.kinematic.KinematicChain;
 import de.codesourcery.robosim.kinematic.KinematicChainController;
-import de.codesourcery.robosim.kinematic.Link;
 import de.codesourcery.robosim.kinematic.ModelBuilder;
+import de.codesourcery.robosim.metrics.Instrumentation;
 import de.codesourcery.robosim.render.Body;
+import de.codesourcery.robosim.render.MeshCache;
 import de.codesourcery.robosim.render.MeshRenderer;
+import de.codesourcery.robosim.render.SceneGraph;
 
 public class RendererTest
 {
     private static final List<Body> topLevelBodies = new ArrayList<>();
     private static final List<Body> bodiesToRender = new ArrayList<>();
 
+    // shared by all bodies, identical parts use the same mesh
+    private static final MeshCache meshCache = new MeshCache();
+
+    private static KinematicChain chain;
     private static KinematicChainController kinematicChainController;
 
     static void main()
@@ -40,14 +41,24 @@ public class RendererTest
 
         final Random rnd = new Random();
 
-        new Lwjgl3Application(new MeshRenderer( () -> {
-            kinematicChainController = new KinematicChainController(setupBodies());
+        // no-ops unless started with -Drobosim.instrumentation=true
+        Instrumentation.registerMBeans();
+        Instrumentation.startPeriodicDump( Duration.ofSeconds( 10 ), System.out );
+
+        new Lwjgl3Application(MeshRenderer.forSceneGraph( () -> {
+            chain = setupBodies();
+            kinematicChainController = new KinematicChainController(chain);
             kinematicChainController.start();
-            return bodiesToRender;
+            // bodies write their transforms through to the scene graph
+            return SceneGraph.of( topLevelBodies );
         }, elapsedSeconds -> {
             kinematicChainController.tick( elapsedSeconds );
-            if ( kinematicChainController.hasArrivedAtDestinationAngles() ) {
-                kinematicChainController.enqueue( c -> c.assignRandomAngles( rnd ) );
+            if ( kinematicChainController.hasArrivedAtDestinationAngles() )
+            {
+                final double[] angles = chain.randomAngles( rnd );
+                for ( int i = 0; i < angles.length; i++ ) {
+                    kinematicChainController.commands().offer( i, JointCommandQueue.CommandType.SET_DESIRED_ANGLE, angles[i] );
+                }
             }
         } ), config);
     }
@@ -65,25 +76,9 @@ public class RendererTest
 
     private static KinematicChain setupKinematicsChain() {
 
-        final KinematicChain chain = new KinematicChain();
-
-        final float linkLen = 50;
-        final float linkWidth = 5;
-
-        final Joint base = chain.addPart( new Joint( "Base", 5, 30 ) );
-        base.installOrientation.set( 0, 0, 90 );
+        final KinematicChain chain = KinematicChain.createDefaultArm();
 
-        chain.addPart( new Link(  "Link #1" , linkLen, linkWidth ) );
-        chain.addPart( new Joint( "Shoulder", 10, 10 ) );
-        chain.addPart( new Link(  "Link #2" , linkLen, linkWidth ) );
-        chain.addPart( new Joint( "Elbow", 10, 10 ) );
-        chain.addPart( new Link(  "Link #3" , linkLen, linkWidth) );
-        chain.addPart( new Joint( "Wrist #1", 10, 10 ) );
-        chain.addPart( new Link(  "Link #4" , linkLen, linkWidth ) );
-        chain.addPart( new Joint( "Wrist #2", 10, 10 ) );
-        chain.addPart( new Link(  "Gripper" , linkLen, linkWidth ) );
-
-        new ModelBuilder().assignBodies( chain );
+        new ModelBuilder( meshCache ).assignBodies( chain );
 
         topLevelBodies.add( chain.firstJoint.body() );
         System.out.println( "Top-level bodies: " + topLevelBodies.size() );
@@ -114,26 +109,7 @@ public class RendererTest
 
     public static Body createCylinder(String name, float length, float diameter, com.badlogic.gdx.graphics.Color color, Matrix4 transform)
     {
-        final VertexAttributes attributes = new VertexAttributes(
-            new VertexAttribute( VertexAttributes.Usage.Position, 3, ShaderProgram.POSITION_ATTRIBUTE ),
-            new VertexAttribute( VertexAttributes.Usage.Normal, 3, ShaderProgram.NORMAL_ATTRIBUTE ),
-            new VertexAttribute( VertexAttributes.Usage.ColorUnpacked, 4, ShaderProgram.COLOR_ATTRIBUTE )
-        );
-
-        com.badlogic.gdx.graphics.g3d.utils.MeshBuilder builder =
-            new com.badlogic.gdx.graphics.g3d.utils.MeshBuilder();
-        builder.begin(attributes, GL20.GL_TRIANGLES);
-        builder.setColor(color );
-
-        final Matrix4 initialRot = new Matrix4().setToRotation( new Vector3( 0, 0, 1 ), 90 );
-        initialRot.mul( transform );
-
-        builder.setVertexTransformationEnabled( true );
-        builder.setVertexTransform( initialRot );
-
-        builder.cylinder(diameter, length, diameter, 64 );
-
-        return new Body( builder.end() , name );
+        return new Body( MeshCache.createCylinderMesh( length, diameter, color, transform ), name );
     }
 
     public static Body createBox(String name, float length, float width, com.badlogic.gdx.graphics.Color color) {
@@ -143,19 +119,6 @@ public class RendererTest
 
     public static Body createBox(String name, float width, float height, float depth, com.badlogic.gdx.graphics.Color color)
     {
-        final VertexAttributes attributes = new VertexAttributes(
-            new VertexAttribute( VertexAttributes.Usage.Position, 3, ShaderProgram.POSITION_ATTRIBUTE ),
-            new VertexAttribute( VertexAttributes.Usage.Normal, 3, ShaderProgram.NORMAL_ATTRIBUTE ),
-            new VertexAttribute( VertexAttributes.Usage.ColorUnpacked, 4, ShaderProgram.COLOR_ATTRIBUTE )
-        );
-
-        com.badlogic.gdx.graphics.g3d.utils.MeshBuilder builder =
-            new com.badlogic.gdx.graphics.g3d.utils.MeshBuilder();
-
-        builder.begin(attributes, GL20.GL_TRIANGLES);
-        builder.setColor( color );
-        builder.box(width, height, depth);
-
-        return new Body( builder.end() , name );
+        return new Body( MeshCache.createBoxMesh( width, height, depth, color ), name );
     }
-}
\ No newline at end of file
+}
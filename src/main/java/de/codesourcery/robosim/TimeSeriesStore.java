@@ -0,0 +1,321 @@
+package de.codesourcery.robosim;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Ring buffer of samples with several named channels, written by a single thread and read by any number of
+ * threads without locks.
+ *
+ * <p>A sample (row) is a time stamp plus one value per channel. Writing uses seqlock semantics: the writer
+ * announces which row it is about to overwrite, writes the row and then publishes it. A {@link Reader} copies
+ * published rows and afterwards checks whether the writer has started overwriting any of them in the meantime,
+ * retrying if so, so readers only ever see complete rows and never block the writer. Readers that fall behind
+ * by more than the capacity lose the oldest rows (see {@link Reader#lost()}).</p>
+ */
+public final class TimeSeriesStore
+{
+    private final String[] channels;
+    private final int capacity;
+    private final double[] times;
+    // row-major, values of row i start at i*channels.length
+    private final double[] values;
+
+    // index of the row being written + 1
+    private volatile long claimed;
+    // number of rows published
+    private volatile long published;
+
+    /**
+     * Reads rows from a store, every reader must only be used by a single thread.
+     */
+    public final class Reader
+    {
+        private final double[] batchTimes;
+        private final double[] batchValues;
+        private int size;
+        private long next;
+        private long lost;
+
+        private Reader(int batchSize)
+        {
+            this.batchTimes = new double[batchSize];
+            this.batchValues = new double[batchSize * channels.length];
+        }
+
+        /**
+         * Copies the next batch of rows that were published since the last call.
+         *
+         * @return number of rows copied, 0 if there are no new rows
+         */
+        public int poll()
+        {
+            while ( true )
+            {
+                final long available = published;
+                final long from = Math.max( next, available - capacity );
+                final int count = (int) Math.min( available - from, batchTimes.length );
+                copy( from, count );
+
+                // like StampedLock#validate(), the copies must not be reordered after the claimed read
+                VarHandle.loadLoadFence();
+                if ( from >= claimed - capacity )
+                {
+                    lost += from - next;
+                    next = from + count;
+                    size = count;
+                    return count;
+                }
+                // writer overwrote (some of) the rows while copying
+            }
+        }
+
+        private void copy(long from, int count)
+        {
+            final int start = (int) (from & (capacity - 1));
+            final int firstPart = Math.min( count, capacity - start );
+            final int width = channels.length;
+            System.arraycopy( times, start, batchTimes, 0, firstPart );
+            System.arraycopy( values, start * width, batchValues, 0, firstPart * width );
+            if ( firstPart < count )
+            {
+                System.arraycopy( times, 0, batchTimes, firstPart, count - firstPart );
+                System.arraycopy( values, 0, batchValues, firstPart * width, (count - firstPart) * width );
+            }
+        }
+
+        /**
+         * Returns the number of rows copied by the last {@link #poll()}.
+         *
+         * @return count
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * Returns the time stamp of a row of the last batch.
+         *
+         * @param row row in range [0,size())
+         * @return time stamp
+         */
+        public double time(int row)
+        {
+            return batchTimes[row];
+        }
+
+        /**
+         * Returns a value of a row of the last batch.
+         *
+         * @param row row in range [0,size())
+         * @param channel channel index
+         * @return value
+         */
+        public double value(int row, int channel)
+        {
+            return batchValues[row * channels.length + channel];
+        }
+
+        /**
+         * Copies all values of a row of the last batch.
+         *
+         * @param row row in range [0,size())
+         * @param destination array to copy the values to, indexed by channel
+         */
+        public void values(int row, double[] destination)
+        {
+            System.arraycopy( batchValues, row * channels.length, destination, 0, channels.length );
+        }
+
+        /**
+         * Returns the number of rows that got overwritten before this reader could copy them.
+         *
+         * @return count
+         */
+        public long lost()
+        {
+            return lost;
+        }
+
+        public TimeSeriesStore store()
+        {
+            return TimeSeriesStore.this;
+        }
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param capacity max. number of rows kept, must be a power of two
+     * @param channels channel names
+     */
+    public TimeSeriesStore(int capacity, String... channels)
+    {
+        Validate.isTrue( capacity >= 2 && Integer.bitCount( capacity ) == 1, "capacity must be a power of two >= 2, was %d", capacity );
+        Validate.notEmpty( channels, "at least one channel required" );
+        Validate.noNullElements( channels, "channel names must not be null" );
+        Validate.isTrue( Arrays.stream( channels ).distinct().count() == channels.length, "channel names must be unique" );
+        Validate.isTrue( (long) capacity * channels.length <= Integer.MAX_VALUE, "capacity too large" );
+        this.channels = channels.clone();
+        this.capacity = capacity;
+        this.times = new double[capacity];
+        this.values = new double[capacity * channels.length];
+    }
+
+    /**
+     * Appends a row, overwriting the oldest one if the store is full.
+     *
+     * <p>Writer thread only.</p>
+     *
+     * @param time time stamp
+     * @param rowValues one value per channel
+     */
+    public void append(double time, double[] rowValues)
+    {
+        Validate.isTrue( rowValues.length == channels.length, "expected %d values", channels.length );
+        final long index = published; // only this thread writes it
+        claimed = index + 1;
+        // the row must not be overwritten before readers can see the claim
+        VarHandle.storeStoreFence();
+        final int slot = (int) (index & (capacity - 1));
+        times[slot] = time;
+        System.arraycopy( rowValues, 0, values, slot * channels.length, channels.length );
+        published = index + 1;
+    }
+
+    /**
+     * Creates a reader that starts with the oldest row still kept.
+     *
+     * @param batchSize max. number of rows a single {@link Reader#poll()} copies
+     * @return reader
+     */
+    public Reader newReader(int batchSize)
+    {
+        Validate.isTrue( batchSize > 0, "batchSize must be > 0" );
+        return new Reader( batchSize );
+    }
+
+    /**
+     * Returns the total number of rows appended so far.
+     *
+     * @return count
+     */
+    public long publishedCount()
+    {
+        return published;
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    public int channelCount()
+    {
+        return channels.length;
+    }
+
+    public String channelName(int channel)
+    {
+        return channels[channel];
+    }
+
+    public String[] channelNames()
+    {
+        return channels.clone();
+    }
+
+    /**
+     * Returns the index of a channel.
+     *
+     * @param name channel name
+     * @return index
+     * @throws IllegalArgumentException if there is no such channel
+     */
+    public int channelIndex(String name)
+    {
+        for ( int i = 0; i < channels.length; i++ )
+        {
+            if ( channels[i].equals( name ) ) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException( "Unknown channel: " + name );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "%d channels %s, %d rows published, capacity %d".formatted( channels.length, Arrays.toString( channels ), published, capacity );
+    }
+
+    static void main() throws InterruptedException
+    {
+        // writer appends rows whose values are all derived from the time stamp, readers check every row they get
+        final TimeSeriesStore store = new TimeSeriesStore( 1 << 10, "a", "b", "c", "d", "e" );
+        final long rows = 20_000_000;
+        final AtomicLong torn = new AtomicLong();
+        final AtomicLong outOfOrder = new AtomicLong();
+        final Thread[] readers = new Thread[2];
+        final TimeSeriesStore.Reader[] states = new TimeSeriesStore.Reader[readers.length];
+        final long[] received = new long[readers.length];
+        for ( int r = 0; r < readers.length; r++ )
+        {
+            final int id = r;
+            states[r] = store.newReader( 256 );
+            readers[r] = Thread.ofPlatform().name( "reader-" + r ).start( () -> {
+                final TimeSeriesStore.Reader reader = states[id];
+                double last = -1;
+                while ( true )
+                {
+                    final int count = reader.poll();
+                    for ( int row = 0; row < count; row++ )
+                    {
+                        final double time = reader.time( row );
+                        for ( int c = 0; c < store.channelCount(); c++ )
+                        {
+                            if ( reader.value( row, c ) != time * 10 + c ) {
+                                torn.incrementAndGet();
+                            }
+                        }
+                        if ( time <= last ) {
+                            outOfOrder.incrementAndGet();
+                        }
+                        last = time;
+                    }
+                    received[id] += count;
+                    if ( count == 0 )
+                    {
+                        if ( last == rows - 1 ) {
+                            return;
+                        }
+                        Thread.onSpinWait();
+                    }
+                }
+            } );
+        }
+
+        final double[] row = new double[store.channelCount()];
+        final long start = System.nanoTime();
+        for ( long i = 0; i < rows; i++ )
+        {
+            for ( int c = 0; c < row.length; c++ ) {
+                row[c] = i * 10 + c;
+            }
+            store.append( i, row );
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        for ( Thread reader : readers ) {
+            reader.join();
+        }
+        System.out.printf( Locale.ROOT, "%s%n%,.0f rows/s written, torn rows: %d, out of order: %d%n",
+            store, rows / seconds, torn.get(), outOfOrder.get() );
+        for ( int r = 0; r < readers.length; r++ ) {
+            System.out.printf( "reader %d: %,d rows received, %,d lost%n", r, received[r], states[r].lost() );
+        }
+    }
+}
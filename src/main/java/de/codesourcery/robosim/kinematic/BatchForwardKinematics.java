@@ -0,0 +1,373 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Forward kinematics for large numbers of joint configurations.
+ *
+ * <p>Configurations are read from a flat array holding {@link ChainGeometry#jointCount} joint angles
+ * (in rad) per configuration. Results are written to a flat output array, either as full gripper tip
+ * poses ({@link #POSE_STRIDE} values per configuration, column-major 4x4 matrix like
+ * {@link ForwardKinematics#tipPose()}) or as tip positions only ({@link #POSITION_STRIDE} values per
+ * configuration).</p>
+ *
+ * <p>Configurations are processed in blocks of {@link #LANES} with all intermediate values kept in
+ * structure-of-arrays scratch buffers, so every inner loop runs across configurations with
+ * the same instruction sequence and no branches (which the JIT can unroll and vectorize).
+ * Large batches get split across a {@link ForkJoinPool}.</p>
+ *
+ * <p>Instances are immutable and thread-safe.</p>
+ */
+public final class BatchForwardKinematics
+{
+    public static final int POSE_STRIDE = 16;
+    public static final int POSITION_STRIDE = 3;
+
+    /** number of configurations processed together */
+    public static final int LANES = 16;
+
+    /** Batches with less configurations than this are not split */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final ChainGeometry geometry;
+    private final ForkJoinPool pool;
+
+    public BatchForwardKinematics(ChainGeometry geometry)
+    {
+        this( geometry, ForkJoinPool.commonPool() );
+    }
+
+    public BatchForwardKinematics(ChainGeometry geometry, ForkJoinPool pool)
+    {
+        Validate.notNull( geometry, "geometry must not be null" );
+        Validate.notNull( pool, "pool must not be null" );
+        this.geometry = geometry;
+        this.pool = pool;
+    }
+
+    public ChainGeometry geometry()
+    {
+        return geometry;
+    }
+
+    /**
+     * Computes gripper tip poses.
+     *
+     * @param configurations joint angles, {@link ChainGeometry#jointCount} per configuration
+     * @param count number of configurations
+     * @param poses output, {@link #POSE_STRIDE} values per configuration
+     */
+    public void computePoses(double[] configurations, int count, double[] poses)
+    {
+        computePoses( configurations, 0, count, poses );
+    }
+
+    /**
+     * Computes gripper tip poses of a range of configurations.
+     *
+     * <p>Results are written at the same configuration indices, i.e. configuration <code>offset</code>
+     * ends up at <code>poses[offset * POSE_STRIDE]</code>.</p>
+     *
+     * @param configurations joint angles, {@link ChainGeometry#jointCount} per configuration
+     * @param offset index of the first configuration
+     * @param count number of configurations
+     * @param poses output, {@link #POSE_STRIDE} values per configuration
+     */
+    public void computePoses(double[] configurations, int offset, int count, double[] poses)
+    {
+        compute( configurations, null, offset, count, poses, true );
+    }
+
+    /**
+     * Computes gripper tip poses.
+     *
+     * @param configurations joint angles, {@link ChainGeometry#jointCount} per configuration
+     * @param count number of configurations
+     * @param poses output, {@link #POSE_STRIDE} values per configuration
+     */
+    public void computePoses(float[] configurations, int count, double[] poses)
+    {
+        computePoses( configurations, 0, count, poses );
+    }
+
+    /**
+     * Computes gripper tip poses of a range of configurations.
+     *
+     * <p>Results are written at the same configuration indices, i.e. configuration <code>offset</code>
+     * ends up at <code>poses[offset * POSE_STRIDE]</code>.</p>
+     *
+     * @param configurations joint angles, {@link ChainGeometry#jointCount} per configuration
+     * @param offset index of the first configuration
+     * @param count number of configurations
+     * @param poses output, {@link #POSE_STRIDE} values per configuration
+     */
+    public void computePoses(float[] configurations, int offset, int count, double[] poses)
+    {
+        compute( null, configurations, offset, count, poses, true );
+    }
+
+    /**
+     * Computes gripper tip positions.
+     *
+     * @param configurations joint angles, {@link ChainGeometry#jointCount} per configuration
+     * @param count number of configurations
+     * @param positions output, {@link #POSITION_STRIDE} values per configuration
+     */
+    public void computePositions(double[] configurations, int count, double[] positions)
+    {
+        computePositions( configurations, 0, count, positions );
+    }
+
+    /**
+     * Computes gripper tip positions of a range of configurations.
+     *
+     * <p>Results are written at the same configuration indices, i.e. configuration <code>offset</code>
+     * ends up at <code>positions[offset * POSITION_STRIDE]</code>.</p>
+     *
+     * @param configurations joint angles, {@link ChainGeometry#jointCount} per configuration
+     * @param offset index of the first configuration
+     * @param count number of configurations
+     * @param positions output, {@link #POSITION_STRIDE} values per configuration
+     */
+    public void computePositions(double[] configurations, int offset, int count, double[] positions)
+    {
+        compute( configurations, null, offset, count, positions, false );
+    }
+
+    /**
+     * Computes gripper tip positions.
+     *
+     * @param configurations joint angles, {@link ChainGeometry#jointCount} per configuration
+     * @param count number of configurations
+     * @param positions output, {@link #POSITION_STRIDE} values per configuration
+     */
+    public void computePositions(float[] configurations, int count, double[] positions)
+    {
+        computePositions( configurations, 0, count, positions );
+    }
+
+    /**
+     * Computes gripper tip positions of a range of configurations.
+     *
+     * <p>Results are written at the same configuration indices, i.e. configuration <code>offset</code>
+     * ends up at <code>positions[offset * POSITION_STRIDE]</code>.</p>
+     *
+     * @param configurations joint angles, {@link ChainGeometry#jointCount} per configuration
+     * @param offset index of the first configuration
+     * @param count number of configurations
+     * @param positions output, {@link #POSITION_STRIDE} values per configuration
+     */
+    public void computePositions(float[] configurations, int offset, int count, double[] positions)
+    {
+        compute( null, configurations, offset, count, positions, false );
+    }
+
+    private void compute(double[] doubleConfigs, float[] floatConfigs, int offset, int count, double[] out, boolean fullPose)
+    {
+        final int inputLength = doubleConfigs != null ? doubleConfigs.length : floatConfigs.length;
+        Validate.isTrue( offset >= 0, "offset must be >= 0" );
+        Validate.isTrue( count >= 0, "count must be >= 0" );
+        final long end = (long) offset + count;
+        Validate.isTrue( inputLength >= end * geometry.jointCount, "input array too small" );
+        Validate.isTrue( out.length >= end * (fullPose ? POSE_STRIDE : POSITION_STRIDE), "output array too small" );
+
+        if ( count < PARALLEL_THRESHOLD ) {
+            new Block( geometry ).compute( doubleConfigs, floatConfigs, offset, offset + count, out, fullPose );
+        } else {
+            pool.invoke( new Task( doubleConfigs, floatConfigs, offset, offset + count, out, fullPose ) );
+        }
+    }
+
+    private final class Task extends RecursiveAction
+    {
+        private final double[] doubleConfigs;
+        private final float[] floatConfigs;
+        private final int start, end;
+        private final double[] out;
+        private final boolean fullPose;
+
+        private Task(double[] doubleConfigs, float[] floatConfigs, int start, int end, double[] out, boolean fullPose)
+        {
+            this.doubleConfigs = doubleConfigs;
+            this.floatConfigs = floatConfigs;
+            this.start = start;
+            this.end = end;
+            this.out = out;
+            this.fullPose = fullPose;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( end - start <= PARALLEL_THRESHOLD ) {
+                new Block( geometry ).compute( doubleConfigs, floatConfigs, start, end, out, fullPose );
+                return;
+            }
+            // keep split points aligned to whole blocks
+            final int mid = start + (((end - start) / 2 + LANES - 1) / LANES) * LANES;
+            invokeAll( new Task( doubleConfigs, floatConfigs, start, mid, out, fullPose ),
+                new Task( doubleConfigs, floatConfigs, mid, end, out, fullPose ) );
+        }
+    }
+
+    /*
+     * Scratch buffers for one block of LANES configurations, element [component * LANES + lane].
+     */
+    private static final class Block
+    {
+        private final ChainGeometry geometry;
+
+        private final double[] angles;
+        private final double[] rot = new double[9 * LANES];
+        private final double[] trans = new double[3 * LANES];
+        private final double[] cos = new double[LANES];
+        private final double[] sin = new double[LANES];
+
+        private Block(ChainGeometry geometry)
+        {
+            this.geometry = geometry;
+            this.angles = new double[geometry.jointCount * LANES];
+        }
+
+        void compute(double[] doubleConfigs, float[] floatConfigs, int start, int end, double[] out, boolean fullPose)
+        {
+            final int jointCount = geometry.jointCount;
+            for ( int blockStart = start; blockStart < end; blockStart += LANES )
+            {
+                final int lanes = Math.min( LANES, end - blockStart );
+
+                // transpose configurations into lanes, padding unused lanes with zero angles
+                for ( int lane = 0; lane < LANES; lane++ )
+                {
+                    final int src = (blockStart + lane) * jointCount;
+                    for ( int j = 0; j < jointCount; j++ )
+                    {
+                        final double value;
+                        if ( lane >= lanes ) {
+                            value = 0;
+                        } else {
+                            value = doubleConfigs != null ? doubleConfigs[src + j] : floatConfigs[src + j];
+                        }
+                        angles[j * LANES + lane] = value;
+                    }
+                }
+
+                computeBlock();
+
+                if ( fullPose ) {
+                    writePoses( out, blockStart, lanes );
+                } else {
+                    writePositions( out, blockStart, lanes );
+                }
+            }
+        }
+
+        private void computeBlock()
+        {
+            final double[] r = rot;
+            final double[] t = trans;
+            final double[] offsets = geometry.offsets;
+            final double[] axes = geometry.axes;
+            final double[] tip = geometry.tipOffset;
+
+            // identity
+            Arrays.fill( r, 0 );
+            Arrays.fill( t, 0 );
+            for ( int lane = 0; lane < LANES; lane++ ) {
+                r[lane] = 1;
+                r[4 * LANES + lane] = 1;
+                r[8 * LANES + lane] = 1;
+            }
+
+            for ( int part = 0; part < geometry.partCount; part++ )
+            {
+                translate( r, t, offsets[part * 3], offsets[part * 3 + 1], offsets[part * 3 + 2] );
+
+                final int joint = geometry.jointIndex[part];
+                if ( joint == -1 ) {
+                    continue;
+                }
+                final double ax = axes[joint * 3], ay = axes[joint * 3 + 1], az = axes[joint * 3 + 2];
+                final int angleOffset = joint * LANES;
+                for ( int lane = 0; lane < LANES; lane++ )
+                {
+                    final double angle = angles[angleOffset + lane];
+                    cos[lane] = Math.cos( angle );
+                    sin[lane] = Math.sin( angle );
+                }
+                for ( int lane = 0; lane < LANES; lane++ )
+                {
+                    final double c = cos[lane], s = sin[lane], k = 1 - c;
+
+                    final double j00 = k * ax * ax + c, j01 = k * ax * ay - s * az, j02 = k * ax * az + s * ay;
+                    final double j10 = k * ax * ay + s * az, j11 = k * ay * ay + c, j12 = k * ay * az - s * ax;
+                    final double j20 = k * ax * az - s * ay, j21 = k * ay * az + s * ax, j22 = k * az * az + c;
+
+                    final double p00 = r[lane], p01 = r[LANES + lane], p02 = r[2 * LANES + lane];
+                    final double p10 = r[3 * LANES + lane], p11 = r[4 * LANES + lane], p12 = r[5 * LANES + lane];
+                    final double p20 = r[6 * LANES + lane], p21 = r[7 * LANES + lane], p22 = r[8 * LANES + lane];
+
+                    r[lane] = p00 * j00 + p01 * j10 + p02 * j20;
+                    r[LANES + lane] = p00 * j01 + p01 * j11 + p02 * j21;
+                    r[2 * LANES + lane] = p00 * j02 + p01 * j12 + p02 * j22;
+                    r[3 * LANES + lane] = p10 * j00 + p11 * j10 + p12 * j20;
+                    r[4 * LANES + lane] = p10 * j01 + p11 * j11 + p12 * j21;
+                    r[5 * LANES + lane] = p10 * j02 + p11 * j12 + p12 * j22;
+                    r[6 * LANES + lane] = p20 * j00 + p21 * j10 + p22 * j20;
+                    r[7 * LANES + lane] = p20 * j01 + p21 * j11 + p22 * j21;
+                    r[8 * LANES + lane] = p20 * j02 + p21 * j12 + p22 * j22;
+                }
+            }
+            translate( r, t, tip[0], tip[1], tip[2] );
+        }
+
+        private static void translate(double[] r, double[] t, double ox, double oy, double oz)
+        {
+            for ( int lane = 0; lane < LANES; lane++ )
+            {
+                t[lane] += r[lane] * ox + r[LANES + lane] * oy + r[2 * LANES + lane] * oz;
+                t[LANES + lane] += r[3 * LANES + lane] * ox + r[4 * LANES + lane] * oy + r[5 * LANES + lane] * oz;
+                t[2 * LANES + lane] += r[6 * LANES + lane] * ox + r[7 * LANES + lane] * oy + r[8 * LANES + lane] * oz;
+            }
+        }
+
+        private void writePoses(double[] out, int blockStart, int lanes)
+        {
+            for ( int lane = 0; lane < lanes; lane++ )
+            {
+                final int o = (blockStart + lane) * POSE_STRIDE;
+                // column-major, see ForwardKinematics
+                out[o] = rot[lane];
+                out[o + 1] = rot[3 * LANES + lane];
+                out[o + 2] = rot[6 * LANES + lane];
+                out[o + 3] = 0;
+                out[o + 4] = rot[LANES + lane];
+                out[o + 5] = rot[4 * LANES + lane];
+                out[o + 6] = rot[7 * LANES + lane];
+                out[o + 7] = 0;
+                out[o + 8] = rot[2 * LANES + lane];
+                out[o + 9] = rot[5 * LANES + lane];
+                out[o + 10] = rot[8 * LANES + lane];
+                out[o + 11] = 0;
+                out[o + 12] = trans[lane];
+                out[o + 13] = trans[LANES + lane];
+                out[o + 14] = trans[2 * LANES + lane];
+                out[o + 15] = 1;
+            }
+        }
+
+        private void writePositions(double[] out, int blockStart, int lanes)
+        {
+            for ( int lane = 0; lane < lanes; lane++ )
+            {
+                final int o = (blockStart + lane) * POSITION_STRIDE;
+                out[o] = trans[lane];
+                out[o + 1] = trans[LANES + lane];
+                out[o + 2] = trans[2 * LANES + lane];
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import de.codesourcery.robosim.Utils;
+import de.codesourcery.robosim.render.MeshCache;
+
+/**
+ * Immutable, flattened description of a {@link KinematicChain}'s geometry.
+ *
+ * <p>Parts are stored in chain order (base first). For every part this holds the translation relative
+ * to the previous part and, for joints, the (normalized) rotation axis in the joint's local
+ * coordinate system. Part placement follows {@link ModelBuilder}: each part sits on top of the previous
+ * one along the Y axis, separated by half the heights of both parts' bounding boxes. The bounding box
+ * heights are derived from the same primitives {@link ModelBuilder} generates meshes for, so no GPU
+ * resources are needed.</p>
+ */
+public final class ChainGeometry
+{
+    public final int partCount;
+    public final int jointCount;
+
+    /** translation relative to the previous part (3 values per part) */
+    final double[] offsets;
+
+    /** joint index for each part, -1 for links */
+    final int[] jointIndex;
+
+    /** part index for each joint */
+    final int[] jointPart;
+
+    /** normalized rotation axis for each joint (3 values per joint) */
+    final double[] axes;
+
+    /** whether a joint's angles are limited */
+    final boolean[] limited;
+
+    /** min./max. angle in rad for each joint, only valid if the joint is {@link #limited} */
+    final double[] minAngles, maxAngles;
+
+    /** offset of the gripper tip relative to the last part (3 values) */
+    final double[] tipOffset;
+
+    private final String[] partNames;
+
+    private final long fingerprint;
+
+    private ChainGeometry(List<Part> parts)
+    {
+        this.partCount = parts.size();
+        this.offsets = new double[partCount * 3];
+        this.jointIndex = new int[partCount];
+        this.partNames = new String[partCount];
+
+        final List<Joint> joints = new ArrayList<>();
+        final Vector3 axis = new Vector3();
+        double previousHeight = 0;
+        for ( int i = 0; i < partCount; i++ )
+        {
+            final Part part = parts.get( i );
+            partNames[i] = part.name();
+
+            final double height = boundingBoxHeight( part );
+            if ( i > 0 ) {
+                offsets[i * 3 + 1] = previousHeight / 2 + height / 2;
+            }
+            previousHeight = height;
+
+            if ( part instanceof Joint j ) {
+                jointIndex[i] = joints.size();
+                joints.add( j );
+            } else {
+                jointIndex[i] = -1;
+            }
+        }
+        this.tipOffset = new double[]{ 0, previousHeight / 2, 0 };
+
+        this.jointCount = joints.size();
+        this.axes = new double[jointCount * 3];
+        this.jointPart = new int[jointCount];
+        this.limited = new boolean[jointCount];
+        this.minAngles = new double[jointCount];
+        this.maxAngles = new double[jointCount];
+        for ( int i = 0, jointNo = 0; i < partCount; i++ )
+        {
+            if ( jointIndex[i] != -1 )
+            {
+                jointPart[jointNo] = i;
+                final Joint joint = joints.get( jointNo );
+                limited[jointNo] = joint.isAnglesLimited();
+                minAngles[jointNo] = joint.minAngle;
+                maxAngles[jointNo] = joint.maxAngle;
+                joint.getInstalledRotationAxis( axis );
+                final double len = Math.sqrt( axis.x * axis.x + axis.y * axis.y + axis.z * axis.z );
+                Validate.isTrue( len > 0, "Joint " + partNames[i] + " has no rotation axis" );
+                axes[jointNo * 3] = axis.x / len;
+                axes[jointNo * 3 + 1] = axis.y / len;
+                axes[jointNo * 3 + 2] = axis.z / len;
+                jointNo++;
+            }
+        }
+        this.fingerprint = computeFingerprint();
+    }
+
+    /*
+     * 64-bit hash over everything that affects kinematics (FNV-1a over the values' bits).
+     */
+    private long computeFingerprint()
+    {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix( hash, partCount );
+        hash = mix( hash, jointCount );
+        for ( int i = 0; i < partCount; i++ ) {
+            hash = mix( hash, jointIndex[i] );
+        }
+        for ( double[] values : new double[][]{ offsets, axes, tipOffset, minAngles, maxAngles } )
+        {
+            for ( double v : values ) {
+                hash = mix( hash, Double.doubleToLongBits( v ) );
+            }
+        }
+        for ( boolean b : limited ) {
+            hash = mix( hash, b ? 1 : 0 );
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value)
+    {
+        for ( int i = 0; i < 8; i++ )
+        {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Flattens a kinematic chain.
+     *
+     * @param chain chain
+     * @return geometry
+     */
+    public static ChainGeometry of(KinematicChain chain)
+    {
+        Validate.notNull( chain, "chain must not be null" );
+        Validate.notNull( chain.firstJoint, "chain must not be empty" );
+
+        final List<Part> parts = new ArrayList<>();
+        Part current = chain.firstJoint;
+        while ( current != null ) {
+            parts.add( current );
+            current = current.next();
+        }
+        return new ChainGeometry( parts );
+    }
+
+    /*
+     * Height (Y extent) of the axis-aligned bounding box of the mesh ModelBuilder creates for a part.
+     */
+    private static double boundingBoxHeight(Part part)
+    {
+        return switch( part )
+        {
+            case Link link -> link.length();
+            case Joint joint -> {
+                // see MeshCache#createCylinderMesh(): cylinder along the Y axis, rotated by 90° around Z
+                // and the joint's install orientation
+                final Matrix4 transform = new Matrix4().setToRotation( new Vector3( 0, 0, 1 ), 90 );
+                if ( ! joint.installOrientation.isZero() ) {
+                    transform.mul( Utils.createRotationMatrix( joint.installOrientation ) );
+                }
+                final float radius = joint.diameter() / 2;
+                final float halfHeight = joint.length() / 2;
+                final Vector3 v = new Vector3();
+                double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+                for ( int i = 0; i < MeshCache.CYLINDER_DIVISIONS; i++ )
+                {
+                    final double angle = 2 * Math.PI * i / MeshCache.CYLINDER_DIVISIONS;
+                    for ( float y : new float[]{ -halfHeight, halfHeight } )
+                    {
+                        v.set( (float) (Math.cos( angle ) * radius), y, (float) (Math.sin( angle ) * radius) ).mul( transform );
+                        minY = Math.min( minY, v.y );
+                        maxY = Math.max( maxY, v.y );
+                    }
+                }
+                yield maxY - minY;
+            }
+        };
+    }
+
+    /**
+     * Returns a hash over the chain's kinematic properties (part placement, joint axes and limits).
+     *
+     * <p>Chains with equal fingerprints behave the same, part names are not included.</p>
+     *
+     * @return fingerprint
+     */
+    public long fingerprint()
+    {
+        return fingerprint;
+    }
+
+    /**
+     * Returns whether a joint's angles are limited.
+     *
+     * @param jointIndex joint index (0 = joint closest to the base)
+     * @return <code>true</code> if {@link #minAngle(int)} and {@link #maxAngle(int)} apply
+     */
+    public boolean isLimited(int jointIndex)
+    {
+        return limited[jointIndex];
+    }
+
+    public double minAngle(int jointIndex)
+    {
+        return minAngles[jointIndex];
+    }
+
+    public double maxAngle(int jointIndex)
+    {
+        return maxAngles[jointIndex];
+    }
+
+    public String partName(int partIndex)
+    {
+        return partNames[partIndex];
+    }
+
+    /**
+     * Returns the index of the part that is the given joint.
+     *
+     * @param jointIndex joint index (0 = joint closest to the base)
+     * @return part index
+     */
+    public int jointPart(int jointIndex)
+    {
+        return jointPart[jointIndex];
+    }
+}
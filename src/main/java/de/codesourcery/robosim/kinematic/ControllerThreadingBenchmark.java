@@ -0,0 +1,135 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import de.codesourcery.robosim.FixedRateScheduler;
+import de.codesourcery.robosim.HeadlessSimulation;
+import de.codesourcery.robosim.metrics.Histogram;
+
+/**
+ * Runs many independently paced {@link KinematicChainController}s, once with a platform thread per controller and
+ * once with a virtual thread per controller.
+ *
+ * <p>Every controller gets fed by its own producer thread (of the same kind) that submits random target angles
+ * whenever the arm arrived, so there are two wait points per robot: the scheduler's park until the next tick and
+ * the producer's sleep between polls. Reports throughput, tick jitter, the number of platform threads (for
+ * virtual threads: their carriers) and CPU time used.</p>
+ */
+public class ControllerThreadingBenchmark
+{
+    private static final double TICKS_PER_SECOND = 50;
+    private static final long RUN_MILLIS = 3_000;
+    private static final int POLL_MILLIS = 100;
+
+    private record Stats(long steps, double wallSeconds, Histogram jitter, long overruns, int peakPlatformThreads, double cpuSeconds)
+    {
+        @Override
+        public String toString()
+        {
+            return "%,.0f steps/s, %d overruns, %d platform threads (peak), %.2f s CPU%n    jitter: %s".formatted(
+                steps / wallSeconds, overruns, peakPlatformThreads, cpuSeconds, jitter.summary( "us", 1000 ) );
+        }
+    }
+
+    private static Stats run(int robotCount, KinematicChainController.ExecutionMode mode) throws InterruptedException
+    {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final List<KinematicChain> chains = new ArrayList<>( robotCount );
+        final List<KinematicChainController> controllers = new ArrayList<>( robotCount );
+        for ( int i = 0; i < robotCount; i++ )
+        {
+            chains.add( KinematicChain.createDefaultArm() );
+            // no spin-waiting in either mode, with thousands of threads on a few cores it only burns CPU
+            final FixedRateScheduler scheduler = new FixedRateScheduler( TICKS_PER_SECOND ).spinNanos( 0 );
+            controllers.add( new KinematicChainController( chains.get( i ), scheduler,
+                KinematicChainController.DEFAULT_STEP_SECONDS ).executionMode( mode ) );
+        }
+
+        final Thread.Builder producerBuilder = switch( mode ) {
+            case PLATFORM_THREAD -> Thread.ofPlatform().daemon( true );
+            case VIRTUAL_THREAD -> Thread.ofVirtual();
+        };
+        final List<Thread> producers = new ArrayList<>( robotCount );
+        final long cpuStart = threads.getCurrentThreadCpuTime();
+        final double processCpuStart = processCpuSeconds();
+        threads.resetPeakThreadCount();
+        final long start = System.nanoTime();
+        for ( int i = 0; i < robotCount; i++ )
+        {
+            final KinematicChainController controller = controllers.get( i );
+            final KinematicChain chain = chains.get( i );
+            final HeadlessSimulation.Scenario scenario = HeadlessSimulation.randomAngles( new Random( i ) );
+            controller.start();
+            producers.add( producerBuilder.name( "producer-" + i ).start( () -> {
+                try
+                {
+                    // spread polls so producers don't all wake up at once
+                    Thread.sleep( ThreadLocalRandom.current().nextInt( POLL_MILLIS ) );
+                    while ( ! Thread.currentThread().isInterrupted() )
+                    {
+                        scenario.beforeStep( controller, chain, 0 );
+                        Thread.sleep( POLL_MILLIS );
+                    }
+                }
+                catch (InterruptedException e) {
+                    // stopped
+                }
+            } ) );
+        }
+        Thread.sleep( RUN_MILLIS );
+        final int peakThreads = threads.getPeakThreadCount();
+        final double wallSeconds = (System.nanoTime() - start) / 1e9;
+
+        long steps = 0;
+        long overruns = 0;
+        final Histogram jitter = new Histogram();
+        for ( KinematicChainController controller : controllers )
+        {
+            final FixedRateScheduler scheduler = controller.getScheduler();
+            steps += scheduler.ticks();
+            overruns += scheduler.overruns();
+            // p99 per robot, the worst robots are what matters
+            jitter.record( scheduler.jitter().percentile( 99 ) );
+        }
+        final double cpuSeconds = processCpuSeconds() - processCpuStart - (threads.getCurrentThreadCpuTime() - cpuStart) / 1e9;
+
+        for ( Thread producer : producers ) {
+            producer.interrupt();
+        }
+        for ( KinematicChainController controller : controllers ) {
+            controller.stop();
+        }
+        for ( Thread producer : producers ) {
+            producer.join();
+        }
+        return new Stats( steps, wallSeconds, jitter, overruns, peakThreads, cpuSeconds );
+    }
+
+    private static double processCpuSeconds()
+    {
+        if ( ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os ) {
+            return os.getProcessCpuTime() / 1e9;
+        }
+        return Double.NaN;
+    }
+
+    static void main() throws InterruptedException
+    {
+        System.out.printf( "%d cores, %.0f ticks/s per robot, %d ms per run%n",
+            Runtime.getRuntime().availableProcessors(), TICKS_PER_SECOND, RUN_MILLIS );
+        final int cores = Runtime.getRuntime().availableProcessors();
+        for ( int robotCount : new int[]{ 100, 250 * cores, 1000 * cores } )
+        {
+            for ( KinematicChainController.ExecutionMode mode : KinematicChainController.ExecutionMode.values() )
+            {
+                final Stats stats = run( robotCount, mode );
+                System.out.printf( "%d robots, %s (expected %,.0f steps/s): %s%n",
+                    robotCount, mode, robotCount * TICKS_PER_SECOND, stats );
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.apache.commons.lang3.Validate;
+import de.codesourcery.robosim.FixedRateScheduler;
+import de.codesourcery.robosim.HeadlessSimulation;
+import de.codesourcery.robosim.metrics.Histogram;
+
+/**
+ * Simulates many kinematic chains on a shared {@link ForkJoinPool} instead of a thread per chain.
+ *
+ * <p>Every robot is driven by its own {@link KinematicChainController} (stepped synchronously, its worker thread
+ * never gets started) and an optional {@link HeadlessSimulation.Scenario}. Robots only ever get stepped by one
+ * thread at a time and always in tick order, so results are deterministic no matter how work gets distributed
+ * across threads.</p>
+ *
+ * <p>Robots are independent of each other unless an {@link Interaction} is set: without one, every worker
+ * thread simulates all requested ticks for its robots without ever waiting for the others. With an interaction,
+ * all robots get stepped in parallel, then the interaction runs on the calling thread (a barrier) before the
+ * next tick starts.</p>
+ *
+ * <p>Instances are not thread-safe, {@link #run(long)} must not be called concurrently.</p>
+ */
+public final class FleetController
+{
+    /**
+     * Logic that needs to see all robots at the same point in simulated time (collision checks, hand-overs, ...).
+     */
+    @FunctionalInterface
+    public interface Interaction
+    {
+        /**
+         * Called on the thread invoking {@link FleetController#run(long)} after all robots completed a tick.
+         *
+         * @param fleet fleet
+         * @param tick number of the tick that just completed (starting with 0)
+         */
+        void afterTick(FleetController fleet, long tick);
+    }
+
+    private static final class Robot
+    {
+        final KinematicChain chain;
+        final KinematicChainController controller;
+        final HeadlessSimulation.Scenario scenario;
+        final Histogram stepTime = new Histogram();
+        double simulatedSeconds;
+
+        private Robot(KinematicChain chain, KinematicChainController controller, HeadlessSimulation.Scenario scenario)
+        {
+            this.chain = chain;
+            this.controller = controller;
+            this.scenario = scenario;
+        }
+
+        void step()
+        {
+            final long start = System.nanoTime();
+            if ( scenario != null ) {
+                scenario.beforeStep( controller, chain, simulatedSeconds );
+            }
+            controller.step();
+            simulatedSeconds += controller.getStepSeconds();
+            stepTime.record( System.nanoTime() - start );
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final double stepSeconds;
+    private final List<Robot> robots = new ArrayList<>();
+    private Interaction interaction;
+
+    private long ticks;
+    private final Histogram batchTime = new Histogram();
+    private long busyNanos;
+
+    public FleetController(ForkJoinPool pool, double stepSeconds)
+    {
+        Validate.notNull( pool, "pool must not be null" );
+        Validate.isTrue( stepSeconds > 0, "stepSeconds must be > 0" );
+        this.pool = pool;
+        this.stepSeconds = stepSeconds;
+    }
+
+    /**
+     * Adds a robot.
+     *
+     * @param chain chain to simulate
+     * @param scenario scenario that drives the robot, may be <code>null</code>
+     * @return robot index
+     */
+    public int addRobot(KinematicChain chain, HeadlessSimulation.Scenario scenario)
+    {
+        Validate.notNull( chain, "chain must not be null" );
+        // the scheduler never runs, stepping is done by the pool
+        final KinematicChainController controller =
+            new KinematicChainController( chain, new FixedRateScheduler( 1 / stepSeconds ), stepSeconds );
+        robots.add( new Robot( chain, controller, scenario ) );
+        return robots.size() - 1;
+    }
+
+    /**
+     * Sets logic that runs after every tick, after all robots completed it.
+     *
+     * @param interaction interaction, <code>null</code> to let robots run independently
+     * @return this instance (for chaining)
+     */
+    public FleetController interaction(Interaction interaction)
+    {
+        this.interaction = interaction;
+        return this;
+    }
+
+    public int size()
+    {
+        return robots.size();
+    }
+
+    public KinematicChain chain(int robot)
+    {
+        return robots.get( robot ).chain;
+    }
+
+    public KinematicChainController controller(int robot)
+    {
+        return robots.get( robot ).controller;
+    }
+
+    /**
+     * Simulates ticks.
+     *
+     * @param tickCount number of ticks (steps per robot)
+     */
+    public void run(long tickCount)
+    {
+        Validate.isTrue( tickCount >= 0, "tickCount must be >= 0" );
+        if ( robots.isEmpty() || tickCount == 0 ) {
+            return;
+        }
+        final int grainSize = Math.max( 1, robots.size() / (pool.getParallelism() * 4) );
+        if ( interaction == null )
+        {
+            final long start = System.nanoTime();
+            pool.invoke( new StepRange( 0, robots.size(), grainSize, tickCount ) );
+            final long elapsed = System.nanoTime() - start;
+            busyNanos += elapsed;
+            // no per-tick barrier, so the only thing that can be timed is the batch as a whole
+            batchTime.record( elapsed );
+            ticks += tickCount;
+            return;
+        }
+        for ( long i = 0; i < tickCount; i++ )
+        {
+            final long start = System.nanoTime();
+            pool.invoke( new StepRange( 0, robots.size(), grainSize, 1 ) );
+            interaction.afterTick( this, ticks );
+            final long elapsed = System.nanoTime() - start;
+            busyNanos += elapsed;
+            batchTime.record( elapsed );
+            ticks++;
+        }
+    }
+
+    /*
+     * Steps a range of robots a number of times.
+     */
+    private final class StepRange extends RecursiveAction
+    {
+        private final int start, end, grainSize;
+        private final long tickCount;
+
+        private StepRange(int start, int end, int grainSize, long tickCount)
+        {
+            this.start = start;
+            this.end = end;
+            this.grainSize = grainSize;
+            this.tickCount = tickCount;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( end - start > grainSize )
+            {
+                final int mid = (start + end) >>> 1;
+                invokeAll( new StepRange( start, mid, grainSize, tickCount ), new StepRange( mid, end, grainSize, tickCount ) );
+                return;
+            }
+            for ( int i = start; i < end; i++ )
+            {
+                final Robot robot = robots.get( i );
+                for ( long t = 0; t < tickCount; t++ ) {
+                    robot.step();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how long single steps of a robot took (including its scenario).
+     *
+     * @param robot robot index
+     * @return histogram (in nanoseconds)
+     */
+    public Histogram stepTime(int robot)
+    {
+        return robots.get( robot ).stepTime;
+    }
+
+    /**
+     * Returns how long batches of ticks of the whole fleet took, one sample per batch.
+     *
+     * <p>With an {@link Interaction} every tick is a batch of its own (including the interaction). Without one
+     * there is no per-tick barrier and a batch is a whole call to {@link #run(long)}, use
+     * {@link #stepTime(int)} for the distribution of single steps then.</p>
+     *
+     * @return histogram (in nanoseconds)
+     */
+    public Histogram batchTime()
+    {
+        return batchTime;
+    }
+
+    public long ticks()
+    {
+        return ticks;
+    }
+
+    public double simulatedSeconds()
+    {
+        return ticks * stepSeconds;
+    }
+
+    /**
+     * Returns the number of robot steps per wall-clock second, averaged over all calls to {@link #run(long)}.
+     *
+     * @return steps per second
+     */
+    public double stepsPerSecond()
+    {
+        return busyNanos == 0 ? 0 : ticks * (double) robots.size() / (busyNanos / 1e9);
+    }
+
+    @Override
+    public String toString()
+    {
+        long maxP99 = 0;
+        for ( Robot robot : robots ) {
+            maxP99 = Math.max( maxP99, robot.stepTime.percentile( 99 ) );
+        }
+        return "%d robots, %d ticks, %,.0f steps/s, batch: %s, worst robot p99 step time: %.1fus".formatted(
+            robots.size(), ticks, stepsPerSecond(), batchTime.summary( "us", 1000 ), maxP99 / 1000d );
+    }
+
+    static void main()
+    {
+        final int robotCount = 200;
+        final long ticks = 20_000;
+        final int cores = Runtime.getRuntime().availableProcessors();
+        double baseline = 0;
+        for ( int threads = 1; threads <= cores; threads *= 2 )
+        {
+            final ForkJoinPool pool = new ForkJoinPool( threads );
+            for ( boolean withBarrier : new boolean[]{ false, true } )
+            {
+                final FleetController fleet = new FleetController( pool, KinematicChainController.DEFAULT_STEP_SECONDS );
+                for ( int i = 0; i < robotCount; i++ ) {
+                    fleet.addRobot( KinematicChain.createDefaultArm(), HeadlessSimulation.randomAngles( new Random( i ) ) );
+                }
+                if ( withBarrier ) {
+                    fleet.interaction( (f, tick) -> {} );
+                }
+                fleet.run( ticks / 10 ); // warm-up
+                fleet.run( ticks );
+                if ( threads == 1 && ! withBarrier ) {
+                    baseline = fleet.stepsPerSecond();
+                }
+                System.out.printf( "%d thread(s), %s: %s (speed-up: %.2f)%n", threads,
+                    withBarrier ? "barrier per tick" : "no barrier", fleet, fleet.stepsPerSecond() / baseline );
+            }
+            pool.shutdown();
+        }
+    }
+}
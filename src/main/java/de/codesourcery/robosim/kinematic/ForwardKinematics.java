@@ -0,0 +1,187 @@
+package de.codesourcery.robosim.kinematic;
+
+import org.apache.commons.lang3.Validate;
+import com.badlogic.gdx.math.Matrix4;
+
+/**
+ * Allocation-free forward kinematics for a {@link ChainGeometry}.
+ *
+ * <p>Computes the world transform of every part of a chain plus the pose of the gripper tip in a single
+ * pass over primitive arrays. Transforms are 4x4 matrices stored as 16 doubles in column-major order
+ * (same layout as {@link Matrix4#val}), the world transform of a part is
+ * <code>parent * translation * rotation</code>, just like {@link de.codesourcery.robosim.render.Body}
+ * computes it.</p>
+ *
+ * <p>Instances are not thread-safe, use one instance per thread.</p>
+ */
+public final class ForwardKinematics
+{
+    private final ChainGeometry geometry;
+
+    // world transform of each part (16 values per part)
+    private final double[] frames;
+
+    // world transform of the gripper tip
+    private final double[] tipPose = new double[16];
+
+    // joint angles read from the chain's motors
+    private final double[] motorAngles;
+
+    public ForwardKinematics(ChainGeometry geometry)
+    {
+        Validate.notNull( geometry, "geometry must not be null" );
+        this.geometry = geometry;
+        this.frames = new double[geometry.partCount * 16];
+        this.motorAngles = new double[geometry.jointCount];
+    }
+
+    public ChainGeometry geometry()
+    {
+        return geometry;
+    }
+
+    /**
+     * Computes all frames using the current angles of a chain's motors.
+     *
+     * @param chain chain, must match this engine's geometry
+     */
+    public void compute(KinematicChain chain)
+    {
+        int idx = 0;
+        Part part = chain.firstJoint;
+        while ( part != null )
+        {
+            if ( part instanceof Joint j ) {
+                motorAngles[idx++] = j.motor.currentAngle;
+            }
+            part = part.next();
+        }
+        Validate.isTrue( idx == geometry.jointCount, "Chain does not match geometry" );
+        compute( motorAngles, 0 );
+    }
+
+    /**
+     * Computes all frames.
+     *
+     * @param jointAngles joint angles in rad
+     * @param offset offset of the first joint angle in <code>jointAngles</code>
+     */
+    public void compute(double[] jointAngles, int offset)
+    {
+        final double[] offsets = geometry.offsets;
+        final double[] axes = geometry.axes;
+        final int[] jointIndex = geometry.jointIndex;
+        final double[] f = frames;
+
+        // parent rotation (r00..r22) and translation (tx,ty,tz), starts as identity
+        double p00 = 1, p01 = 0, p02 = 0;
+        double p10 = 0, p11 = 1, p12 = 0;
+        double p20 = 0, p21 = 0, p22 = 1;
+        double tx = 0, ty = 0, tz = 0;
+
+        for ( int i = 0, o = 0; i < geometry.partCount; i++, o += 16 )
+        {
+            // translation relative to parent
+            final double ox = offsets[i * 3], oy = offsets[i * 3 + 1], oz = offsets[i * 3 + 2];
+            tx += p00 * ox + p01 * oy + p02 * oz;
+            ty += p10 * ox + p11 * oy + p12 * oz;
+            tz += p20 * ox + p21 * oy + p22 * oz;
+
+            final int joint = jointIndex[i];
+            if ( joint != -1 )
+            {
+                // Rodrigues rotation around the joint's axis
+                final double ax = axes[joint * 3], ay = axes[joint * 3 + 1], az = axes[joint * 3 + 2];
+                final double angle = jointAngles[offset + joint];
+                final double c = Math.cos( angle ), s = Math.sin( angle ), t = 1 - c;
+
+                final double r00 = t * ax * ax + c, r01 = t * ax * ay - s * az, r02 = t * ax * az + s * ay;
+                final double r10 = t * ax * ay + s * az, r11 = t * ay * ay + c, r12 = t * ay * az - s * ax;
+                final double r20 = t * ax * az - s * ay, r21 = t * ay * az + s * ax, r22 = t * az * az + c;
+
+                final double n00 = p00 * r00 + p01 * r10 + p02 * r20;
+                final double n01 = p00 * r01 + p01 * r11 + p02 * r21;
+                final double n02 = p00 * r02 + p01 * r12 + p02 * r22;
+                final double n10 = p10 * r00 + p11 * r10 + p12 * r20;
+                final double n11 = p10 * r01 + p11 * r11 + p12 * r21;
+                final double n12 = p10 * r02 + p11 * r12 + p12 * r22;
+                final double n20 = p20 * r00 + p21 * r10 + p22 * r20;
+                final double n21 = p20 * r01 + p21 * r11 + p22 * r21;
+                final double n22 = p20 * r02 + p21 * r12 + p22 * r22;
+                p00 = n00; p01 = n01; p02 = n02;
+                p10 = n10; p11 = n11; p12 = n12;
+                p20 = n20; p21 = n21; p22 = n22;
+            }
+            store( f, o, p00, p01, p02, p10, p11, p12, p20, p21, p22, tx, ty, tz );
+        }
+
+        final double[] tip = geometry.tipOffset;
+        store( tipPose, 0, p00, p01, p02, p10, p11, p12, p20, p21, p22,
+            tx + p00 * tip[0] + p01 * tip[1] + p02 * tip[2],
+            ty + p10 * tip[0] + p11 * tip[1] + p12 * tip[2],
+            tz + p20 * tip[0] + p21 * tip[1] + p22 * tip[2] );
+    }
+
+    // column-major, see Matrix4
+    private static void store(double[] dst, int o,
+                              double m00, double m01, double m02,
+                              double m10, double m11, double m12,
+                              double m20, double m21, double m22,
+                              double tx, double ty, double tz)
+    {
+        dst[o] = m00;       dst[o + 1] = m10;   dst[o + 2] = m20;   dst[o + 3] = 0;
+        dst[o + 4] = m01;   dst[o + 5] = m11;   dst[o + 6] = m21;   dst[o + 7] = 0;
+        dst[o + 8] = m02;   dst[o + 9] = m12;   dst[o + 10] = m22;  dst[o + 11] = 0;
+        dst[o + 12] = tx;   dst[o + 13] = ty;   dst[o + 14] = tz;   dst[o + 15] = 1;
+    }
+
+    /**
+     * Returns the world transforms of all parts computed by the last call to <code>compute()</code>.
+     *
+     * @return 16 values per part (column-major), must not be modified
+     */
+    public double[] frames()
+    {
+        return frames;
+    }
+
+    /**
+     * Returns the world transform of the gripper tip computed by the last call to <code>compute()</code>.
+     *
+     * @return 16 values (column-major), must not be modified
+     */
+    public double[] tipPose()
+    {
+        return tipPose;
+    }
+
+    /**
+     * Copies the world transform of a part into a matrix.
+     *
+     * @param partIndex part index
+     * @param result matrix to store the result in
+     * @return <code>result</code>
+     */
+    public Matrix4 getFrame(int partIndex, Matrix4 result)
+    {
+        final int o = partIndex * 16;
+        for ( int i = 0; i < 16; i++ ) {
+            result.val[i] = (float) frames[o + i];
+        }
+        return result;
+    }
+
+    /**
+     * Copies the world transform of the gripper tip into a matrix.
+     *
+     * @param result matrix to store the result in
+     * @return <code>result</code>
+     */
+    public Matrix4 getTipPose(Matrix4 result)
+    {
+        for ( int i = 0; i < 16; i++ ) {
+            result.val[i] = (float) tipPose[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,132 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.util.Arrays;
+import java.util.Random;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import de.codesourcery.robosim.Utils;
+
+/**
+ * Compares forward kinematics throughput of a naive per-configuration loop over
+ * {@link Joint}/{@link Link} objects with {@link ForwardKinematics} and {@link BatchForwardKinematics}.
+ */
+public class ForwardKinematicsBenchmark
+{
+    private static final int CONFIGURATIONS = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    // naive implementation, computes world matrices the same way render.Body does
+    private static void naive(KinematicChain chain, ChainGeometry geometry, double[] configs, int count, double[] positions)
+    {
+        final Vector3 tip = new Vector3();
+        for ( int c = 0; c < count; c++ )
+        {
+            Matrix4 world = new Matrix4();
+            int partIdx = 0;
+            int jointIdx = 0;
+            Part part = chain.firstJoint;
+            while ( part != null )
+            {
+                final Matrix4 local = new Matrix4().setTranslation(
+                    (float) geometry.offsets[partIdx * 3],
+                    (float) geometry.offsets[partIdx * 3 + 1],
+                    (float) geometry.offsets[partIdx * 3 + 2] );
+                if ( part instanceof Joint j )
+                {
+                    j.motor.currentAngle = configs[c * geometry.jointCount + jointIdx++];
+                    final Vector3 axis = j.getInstalledRotationAxis( new Vector3() );
+                    local.mul( new Matrix4().rotate( axis, Utils.radToDeg( (float) j.motor.currentAngle ) ) );
+                }
+                world = new Matrix4( world ).mul( local );
+                part = part.next();
+                partIdx++;
+            }
+            tip.set( (float) geometry.tipOffset[0], (float) geometry.tipOffset[1], (float) geometry.tipOffset[2] ).mul( world );
+            positions[c * 3] = tip.x;
+            positions[c * 3 + 1] = tip.y;
+            positions[c * 3 + 2] = tip.z;
+        }
+    }
+
+    private static void single(ForwardKinematics fk, double[] configs, int count, double[] positions)
+    {
+        final int jointCount = fk.geometry().jointCount;
+        for ( int c = 0; c < count; c++ )
+        {
+            fk.compute( configs, c * jointCount );
+            final double[] pose = fk.tipPose();
+            positions[c * 3] = pose[12];
+            positions[c * 3 + 1] = pose[13];
+            positions[c * 3 + 2] = pose[14];
+        }
+    }
+
+    private static double maxDeviation(double[] a, double[] b)
+    {
+        double max = 0;
+        for ( int i = 0; i < a.length; i++ ) {
+            max = Math.max( max, Math.abs( a[i] - b[i] ) );
+        }
+        return max;
+    }
+
+    private static void report(String name, long bestNanos, int count)
+    {
+        System.out.printf( "%-35s %,15.0f poses/s%n", name, count / (bestNanos / 1e9) );
+    }
+
+    static void main()
+    {
+        final KinematicChain chain = KinematicChain.createDefaultArm();
+        final ChainGeometry geometry = ChainGeometry.of( chain );
+
+        final Random rnd = new Random( 0xdeadbeef );
+        final double[] configs = new double[CONFIGURATIONS * geometry.jointCount];
+        for ( int i = 0; i < configs.length; i++ ) {
+            configs[i] = rnd.nextDouble() * 2 * Math.PI;
+        }
+
+        final ForwardKinematics fk = new ForwardKinematics( geometry );
+        final BatchForwardKinematics batch = new BatchForwardKinematics( geometry );
+        final int naiveCount = CONFIGURATIONS / 10;
+
+        final double[] naiveResult = new double[CONFIGURATIONS * 3];
+        final double[] singleResult = new double[CONFIGURATIONS * 3];
+        final double[] batchResult = new double[CONFIGURATIONS * 3];
+
+        long naiveNanos = Long.MAX_VALUE, singleNanos = Long.MAX_VALUE;
+        long batchSequentialNanos = Long.MAX_VALUE, batchParallelNanos = Long.MAX_VALUE;
+        for ( int round = 0; round < ROUNDS; round++ )
+        {
+            long start = System.nanoTime();
+            naive( chain, geometry, configs, naiveCount, naiveResult );
+            naiveNanos = Math.min( naiveNanos, System.nanoTime() - start );
+
+            start = System.nanoTime();
+            single( fk, configs, CONFIGURATIONS, singleResult );
+            singleNanos = Math.min( singleNanos, System.nanoTime() - start );
+
+            // less than the parallel threshold per call => runs on the calling thread
+            start = System.nanoTime();
+            final int chunk = 4096;
+            for ( int offset = 0; offset < CONFIGURATIONS; offset += chunk )
+            {
+                final int count = Math.min( chunk, CONFIGURATIONS - offset );
+                batch.computePositions( configs, offset, count, batchResult );
+            }
+            batchSequentialNanos = Math.min( batchSequentialNanos, System.nanoTime() - start );
+
+            start = System.nanoTime();
+            batch.computePositions( configs, CONFIGURATIONS, batchResult );
+            batchParallelNanos = Math.min( batchParallelNanos, System.nanoTime() - start );
+        }
+
+        report( "naive (Joint/Link + Matrix4)", naiveNanos, naiveCount );
+        report( "ForwardKinematics (per config)", singleNanos, CONFIGURATIONS );
+        report( "BatchForwardKinematics (1 thread)", batchSequentialNanos, CONFIGURATIONS );
+        report( "BatchForwardKinematics (fork/join)", batchParallelNanos, CONFIGURATIONS );
+        System.out.printf( "Max. deviation from naive: %e, from ForwardKinematics: %e%n",
+            maxDeviation( Arrays.copyOf( batchResult, naiveCount * 3 ), Arrays.copyOf( naiveResult, naiveCount * 3 ) ),
+            maxDeviation( batchResult, singleResult ) );
+    }
+}
@@ -0,0 +1,275 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.lang3.Validate;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * LRU cache of converged {@link InverseKinematicsSolver} solutions.
+ *
+ * <p>Targets are quantized to a grid of {@link #quantum()} world units. Together with the chain's
+ * {@link ChainGeometry#fingerprint() fingerprint} this makes up the cache key. A cached solution is never
+ * returned as-is, it is used as the solver's starting point instead (so a hit usually needs zero or
+ * one iteration and the result is always exact for the requested target). If starting from the cached
+ * solution fails, the entry gets removed (counted as a miss and a {@link #seedFailures() seed failure}) and
+ * the solver falls back to the caller's starting angles.</p>
+ *
+ * <p>Instances are not thread-safe, use one instance per thread.</p>
+ */
+public final class InverseKinematicsCache
+{
+    private record Key(long fingerprint, long x, long y, long z) {}
+
+    private final InverseKinematicsSolver solver;
+    private final int capacity;
+    private final double quantum;
+    private final Map<Key, double[]> entries;
+
+    private long hits;
+    private long misses;
+    private long seedFailures;
+    private long evictions;
+
+    /**
+     * Create instance.
+     *
+     * @param solver solver to use
+     * @param capacity max. number of cached solutions
+     * @param quantum grid spacing (in world units) targets get quantized to
+     */
+    public InverseKinematicsCache(InverseKinematicsSolver solver, int capacity, double quantum)
+    {
+        Validate.notNull( solver, "solver must not be null" );
+        Validate.isTrue( capacity > 0, "capacity must be > 0" );
+        Validate.isTrue( quantum > 0, "quantum must be > 0" );
+        this.solver = solver;
+        this.capacity = capacity;
+        this.quantum = quantum;
+        this.entries = new LinkedHashMap<>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest)
+            {
+                if ( size() > InverseKinematicsCache.this.capacity ) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Solves for a target position, starting from a cached solution or the current angles of the chain's motors.
+     *
+     * @param chain chain, must match the solver's geometry
+     * @param target target position of the gripper tip
+     * @return <code>true</code> if the solver converged
+     * @see InverseKinematicsSolver#solve(KinematicChain, Vector3)
+     */
+    public boolean solve(KinematicChain chain, Vector3 target)
+    {
+        final Key key = key( target.x, target.y, target.z );
+        if ( solveFromCache( key, target.x, target.y, target.z ) ) {
+            return true;
+        }
+        return store( key, solver.solve( chain, target ) );
+    }
+
+    /**
+     * Solves for a target position, starting from a cached solution or the given angles.
+     *
+     * @param initialAngles joint angles (in rad) to start from on a cache miss
+     * @param offset offset of the first joint angle in <code>initialAngles</code>
+     * @param x target X coordinate
+     * @param y target Y coordinate
+     * @param z target Z coordinate
+     * @return <code>true</code> if the solver converged
+     * @see InverseKinematicsSolver#solve(double[], int, double, double, double)
+     */
+    public boolean solve(double[] initialAngles, int offset, double x, double y, double z)
+    {
+        final Key key = key( x, y, z );
+        if ( solveFromCache( key, x, y, z ) ) {
+            return true;
+        }
+        return store( key, solver.solve( initialAngles, offset, x, y, z ) );
+    }
+
+    /*
+     * Returns true on a hit. A cached solution the solver doesn't converge from counts
+     * as a miss and gets removed, the caller's fallback solve stores a fresh one.
+     */
+    private boolean solveFromCache(Key key, double x, double y, double z)
+    {
+        final double[] cached = entries.get( key );
+        if ( cached != null )
+        {
+            if ( solver.solve( cached, 0, x, y, z ) )
+            {
+                hits++;
+                System.arraycopy( solver.solution(), 0, cached, 0, cached.length );
+                return true;
+            }
+            seedFailures++;
+            entries.remove( key );
+        }
+        misses++;
+        return false;
+    }
+
+    private boolean store(Key key, boolean converged)
+    {
+        if ( converged )
+        {
+            final double[] existing = entries.get( key );
+            if ( existing != null ) {
+                System.arraycopy( solver.solution(), 0, existing, 0, existing.length );
+            } else {
+                entries.put( key, solver.solution().clone() );
+            }
+        }
+        return converged;
+    }
+
+    private Key key(double x, double y, double z)
+    {
+        return new Key( solver.geometry().fingerprint(),
+            Math.round( x / quantum ), Math.round( y / quantum ), Math.round( z / quantum ) );
+    }
+
+    public InverseKinematicsSolver solver()
+    {
+        return solver;
+    }
+
+    /**
+     * Returns the joint angles found by the last call to <code>solve()</code>.
+     *
+     * @return joint angles in rad, must not be modified
+     */
+    public double[] solution()
+    {
+        return solver.solution();
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    public double quantum()
+    {
+        return quantum;
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public long hits()
+    {
+        return hits;
+    }
+
+    public long misses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of cached solutions the solver did not converge from.
+     *
+     * <p>These are included in {@link #misses()}.</p>
+     *
+     * @return count
+     */
+    public long seedFailures()
+    {
+        return seedFailures;
+    }
+
+    public long evictions()
+    {
+        return evictions;
+    }
+
+    public double hitRate()
+    {
+        final long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    public void resetStatistics()
+    {
+        hits = misses = seedFailures = evictions = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "IK cache: %d/%d entries, %d hits, %d misses (%.1f %%), %d seed failures, %d evictions"
+            .formatted( size(), capacity, hits, misses, hitRate() * 100, seedFailures, evictions );
+    }
+
+    static void main()
+    {
+        final ChainGeometry geometry = ChainGeometry.of( KinematicChain.createDefaultArm() );
+        final InverseKinematicsSolver solver = new InverseKinematicsSolver( geometry );
+        final InverseKinematicsCache cache = new InverseKinematicsCache( new InverseKinematicsSolver( geometry ), 256, 0.5 );
+        final ForwardKinematics fk = new ForwardKinematics( geometry );
+        final int n = geometry.jointCount;
+
+        // a few hundred pick/place positions, visited in random order
+        final Random rnd = new Random( 0xdeadbeef );
+        final double[] positions = new double[300 * 3];
+        final double[] angles = new double[n];
+        for ( int i = 0; i < positions.length / 3; i++ )
+        {
+            for ( int j = 0; j < n; j++ ) {
+                angles[j] = rnd.nextDouble() * 2 * Math.PI;
+            }
+            fk.compute( angles, 0 );
+            System.arraycopy( fk.tipPose(), 12, positions, i * 3, 3 );
+        }
+        final int count = 200_000;
+        final int[] sequence = new int[count];
+        for ( int i = 0; i < count; i++ ) {
+            sequence[i] = rnd.nextInt( positions.length / 3 );
+        }
+
+        for ( int round = 0; round < 5; round++ )
+        {
+            final double[] seed = new double[n];
+            long start = System.nanoTime();
+            for ( int target : sequence )
+            {
+                solver.solve( seed, 0, positions[target * 3], positions[target * 3 + 1], positions[target * 3 + 2] );
+                System.arraycopy( solver.solution(), 0, seed, 0, n );
+            }
+            final long uncached = System.nanoTime() - start;
+
+            Arrays.fill( seed, 0 );
+            cache.clear();
+            cache.resetStatistics();
+            start = System.nanoTime();
+            for ( int target : sequence )
+            {
+                cache.solve( seed, 0, positions[target * 3], positions[target * 3 + 1], positions[target * 3 + 2] );
+                System.arraycopy( cache.solution(), 0, seed, 0, n );
+            }
+            final long cached = System.nanoTime() - start;
+            System.out.printf( "uncached: %,10.0f solves/s, cached: %,10.0f solves/s - %s%n",
+                count / (uncached / 1e9), count / (cached / 1e9), cache );
+        }
+    }
+}
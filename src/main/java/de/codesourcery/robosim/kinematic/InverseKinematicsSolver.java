@@ -0,0 +1,392 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.util.Random;
+import org.apache.commons.lang3.Validate;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Damped least squares (Levenberg-Marquardt) inverse kinematics for the gripper tip position.
+ *
+ * <p>Every iteration computes the analytic 3xN Jacobian from the world-space joint axes
+ * (column <code>i</code> is <code>axis_i x (tip - pivot_i)</code>) and solves
+ * <code>delta = J^T (J J^T + lambda^2 I)^-1 error</code>. The damping factor gets lowered after every
+ * successful step and raised when a step does not reduce the error, which keeps the solver stable
+ * close to singular configurations and for out-of-reach targets. Joints with
+ * {@link Joint#isAnglesLimited() limited angles} get clamped to their limits after every step.</p>
+ *
+ * <p>Solving starts from the chain's current motor angles (or caller-supplied angles), so streaming
+ * targets that are close to each other usually converges in a few iterations. The iteration loop
+ * does not allocate.</p>
+ *
+ * <p>Instances are not thread-safe, use one instance per thread.</p>
+ */
+public final class InverseKinematicsSolver
+{
+    private static final double MIN_DAMPING = 1e-3;
+    private static final double MAX_DAMPING = 1e6;
+
+    private final ChainGeometry geometry;
+    private final ForwardKinematics fk;
+
+    // configuration
+    private int maxIterations = 100;
+    private double tolerance = 0.01;
+    private double initialDamping = 1;
+    private double maxStepLength = 20;
+
+    // state
+    private final double[] angles;
+    private final double[] candidate;
+    private final double[] jacobian; // 3 rows, jointCount columns, row-major
+    private double residual;
+    private int iterations;
+
+    public InverseKinematicsSolver(ChainGeometry geometry)
+    {
+        Validate.notNull( geometry, "geometry must not be null" );
+        Validate.isTrue( geometry.jointCount > 0, "chain has no joints" );
+        this.geometry = geometry;
+        this.fk = new ForwardKinematics( geometry );
+        this.angles = new double[geometry.jointCount];
+        this.candidate = new double[geometry.jointCount];
+        this.jacobian = new double[3 * geometry.jointCount];
+    }
+
+    public ChainGeometry geometry()
+    {
+        return geometry;
+    }
+
+    public InverseKinematicsSolver maxIterations(int maxIterations)
+    {
+        Validate.isTrue( maxIterations > 0, "maxIterations must be > 0" );
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    /**
+     * Sets the max. distance between gripper tip and target for a solution to count as converged.
+     *
+     * @param tolerance distance in world units
+     * @return this instance (for chaining)
+     */
+    public InverseKinematicsSolver tolerance(double tolerance)
+    {
+        Validate.isTrue( tolerance > 0, "tolerance must be > 0" );
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    public InverseKinematicsSolver damping(double initialDamping)
+    {
+        Validate.isTrue( initialDamping >= MIN_DAMPING && initialDamping <= MAX_DAMPING,
+            "damping must be in range [" + MIN_DAMPING + "," + MAX_DAMPING + "]" );
+        this.initialDamping = initialDamping;
+        return this;
+    }
+
+    /**
+     * Sets the max. length of the error vector the solver tries to correct in a single iteration.
+     *
+     * @param maxStepLength max. length in world units
+     * @return this instance (for chaining)
+     */
+    public InverseKinematicsSolver maxStepLength(double maxStepLength)
+    {
+        Validate.isTrue( maxStepLength > 0, "maxStepLength must be > 0" );
+        this.maxStepLength = maxStepLength;
+        return this;
+    }
+
+    /**
+     * Solves for a target position, starting from the current angles of the chain's motors.
+     *
+     * <p>The chain does not get modified, use {@link #applyTo(KinematicChain)} to move it.</p>
+     *
+     * @param chain chain, must match this solver's geometry
+     * @param target target position of the gripper tip
+     * @return <code>true</code> if the solver converged
+     */
+    public boolean solve(KinematicChain chain, Vector3 target)
+    {
+        int idx = 0;
+        Part part = chain.firstJoint;
+        while ( part != null )
+        {
+            if ( part instanceof Joint j ) {
+                angles[idx++] = j.motor.currentAngle;
+            }
+            part = part.next();
+        }
+        Validate.isTrue( idx == geometry.jointCount, "Chain does not match geometry" );
+        return solve( target.x, target.y, target.z );
+    }
+
+    /**
+     * Solves for a target position.
+     *
+     * @param initialAngles joint angles (in rad) to start from
+     * @param offset offset of the first joint angle in <code>initialAngles</code>
+     * @param x target X coordinate
+     * @param y target Y coordinate
+     * @param z target Z coordinate
+     * @return <code>true</code> if the solver converged
+     */
+    public boolean solve(double[] initialAngles, int offset, double x, double y, double z)
+    {
+        System.arraycopy( initialAngles, offset, angles, 0, geometry.jointCount );
+        return solve( x, y, z );
+    }
+
+    private boolean solve(double x, double y, double z)
+    {
+        final int n = geometry.jointCount;
+        clampToLimits( angles );
+
+        double error = computeError( angles, x, y, z );
+        double damping = initialDamping;
+        iterations = 0;
+        while ( error > tolerance && iterations < maxIterations )
+        {
+            iterations++;
+
+            // error vector and Jacobian at the current angles (computeError() left the FK result for them)
+            final double[] tip = fk.tipPose();
+            double ex = x - tip[12], ey = y - tip[13], ez = z - tip[14];
+            if ( error > maxStepLength )
+            {
+                final double scale = maxStepLength / error;
+                ex *= scale;
+                ey *= scale;
+                ez *= scale;
+            }
+            computeJacobian();
+
+            double newError;
+            do
+            {
+                // A = J*J^T + lambda^2 * I (symmetric 3x3)
+                final double[] j = jacobian;
+                double a00 = 0, a01 = 0, a02 = 0, a11 = 0, a12 = 0, a22 = 0;
+                for ( int i = 0; i < n; i++ )
+                {
+                    final double j0 = j[i], j1 = j[n + i], j2 = j[2 * n + i];
+                    a00 += j0 * j0;
+                    a01 += j0 * j1;
+                    a02 += j0 * j2;
+                    a11 += j1 * j1;
+                    a12 += j1 * j2;
+                    a22 += j2 * j2;
+                }
+                final double lambda2 = damping * damping;
+                a00 += lambda2;
+                a11 += lambda2;
+                a22 += lambda2;
+
+                // f = A^-1 * e (Cramer's rule, A is positive definite)
+                final double c00 = a11 * a22 - a12 * a12;
+                final double c01 = a02 * a12 - a01 * a22;
+                final double c02 = a01 * a12 - a02 * a11;
+                final double det = a00 * c00 + a01 * c01 + a02 * c02;
+                final double c11 = a00 * a22 - a02 * a02;
+                final double c12 = a01 * a02 - a00 * a12;
+                final double c22 = a00 * a11 - a01 * a01;
+                final double fx = (c00 * ex + c01 * ey + c02 * ez) / det;
+                final double fy = (c01 * ex + c11 * ey + c12 * ez) / det;
+                final double fz = (c02 * ex + c12 * ey + c22 * ez) / det;
+
+                // delta = J^T * f
+                for ( int i = 0; i < n; i++ ) {
+                    candidate[i] = angles[i] + j[i] * fx + j[n + i] * fy + j[2 * n + i] * fz;
+                }
+                clampToLimits( candidate );
+
+                newError = computeError( candidate, x, y, z );
+                if ( newError < error ) {
+                    damping = Math.max( MIN_DAMPING, damping * 0.5 );
+                    break;
+                }
+                damping *= 4;
+            } while ( damping < MAX_DAMPING );
+
+            if ( newError >= error ) {
+                // no step reduces the error any more, we're stuck in a local minimum or at a joint limit
+                computeError( angles, x, y, z );
+                break;
+            }
+            System.arraycopy( candidate, 0, angles, 0, n );
+            error = newError;
+        }
+        residual = error;
+        return error <= tolerance;
+    }
+
+    /*
+     * Runs forward kinematics and returns the distance between gripper tip and target.
+     */
+    private double computeError(double[] jointAngles, double x, double y, double z)
+    {
+        fk.compute( jointAngles, 0 );
+        final double[] tip = fk.tipPose();
+        final double dx = x - tip[12], dy = y - tip[13], dz = z - tip[14];
+        return Math.sqrt( dx * dx + dy * dy + dz * dz );
+    }
+
+    /*
+     * Jacobian of the tip position using the frames of the last FK run.
+     */
+    private void computeJacobian()
+    {
+        final int n = geometry.jointCount;
+        final double[] frames = fk.frames();
+        final double[] tip = fk.tipPose();
+        final double[] axes = geometry.axes;
+        for ( int i = 0; i < n; i++ )
+        {
+            final int o = geometry.jointPart[i] * 16;
+            final double lx = axes[i * 3], ly = axes[i * 3 + 1], lz = axes[i * 3 + 2];
+
+            // local axis to world (column-major rotation), the joint's own rotation does not change it
+            final double ax = frames[o] * lx + frames[o + 4] * ly + frames[o + 8] * lz;
+            final double ay = frames[o + 1] * lx + frames[o + 5] * ly + frames[o + 9] * lz;
+            final double az = frames[o + 2] * lx + frames[o + 6] * ly + frames[o + 10] * lz;
+
+            final double rx = tip[12] - frames[o + 12];
+            final double ry = tip[13] - frames[o + 13];
+            final double rz = tip[14] - frames[o + 14];
+
+            jacobian[i] = ay * rz - az * ry;
+            jacobian[n + i] = az * rx - ax * rz;
+            jacobian[2 * n + i] = ax * ry - ay * rx;
+        }
+    }
+
+    private void clampToLimits(double[] jointAngles)
+    {
+        for ( int i = 0; i < geometry.jointCount; i++ )
+        {
+            if ( geometry.limited[i] ) {
+                jointAngles[i] = Math.max( geometry.minAngles[i], Math.min( geometry.maxAngles[i], jointAngles[i] ) );
+            }
+        }
+    }
+
+    /**
+     * Returns the joint angles found by the last call to <code>solve()</code>.
+     *
+     * @return joint angles in rad, must not be modified
+     */
+    public double[] solution()
+    {
+        return angles;
+    }
+
+    /**
+     * Returns the distance between gripper tip and target after the last call to <code>solve()</code>.
+     *
+     * @return distance in world units
+     */
+    public double residual()
+    {
+        return residual;
+    }
+
+    /**
+     * Returns the number of iterations used by the last call to <code>solve()</code>.
+     *
+     * @return iterations
+     */
+    public int iterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * Sets the desired angle of every joint's motor to the last solution.
+     *
+     * <p>Angles are not normalized: joints with {@link Joint#isAnglesLimited() limited angles} get the
+     * (already clamped) solution as is, all other joints the equivalent angle closest to their current angle
+     * so they take the shortest way.</p>
+     *
+     * @param chain chain, must match this solver's geometry
+     */
+    public void applyTo(KinematicChain chain)
+    {
+        final int[] idx = { 0 };
+        chain.forEachJoint( j -> {
+            final int i = idx[0]++;
+            double angle = angles[i];
+            if ( ! geometry.limited[i] )
+            {
+                final double turns = Math.rint( (j.motor.currentAngle - angle) / (2 * Math.PI) );
+                angle += turns * 2 * Math.PI;
+            }
+            j.motor.setDesiredAngleExact( angle );
+        } );
+    }
+
+    static void main()
+    {
+        final KinematicChain chain = KinematicChain.createDefaultArm();
+        final ChainGeometry geometry = ChainGeometry.of( chain );
+        final InverseKinematicsSolver solver = new InverseKinematicsSolver( geometry );
+        final ForwardKinematics fk = new ForwardKinematics( geometry );
+        final int n = geometry.jointCount;
+
+        final int count = 200_000;
+        final Random rnd = new Random( 0xdeadbeef );
+
+        // reachable targets along a random walk through joint space
+        final double[] streamed = new double[count * 3];
+        final double[] walk = new double[n];
+        for ( int i = 0; i < n; i++ ) {
+            walk[i] = rnd.nextDouble() * 2 * Math.PI;
+        }
+        for ( int i = 0; i < count; i++ )
+        {
+            for ( int j = 0; j < n; j++ ) {
+                walk[j] += (rnd.nextDouble() - 0.5) * 0.02;
+            }
+            fk.compute( walk, 0 );
+            System.arraycopy( fk.tipPose(), 12, streamed, i * 3, 3 );
+        }
+
+        // unrelated reachable targets
+        final double[] scattered = new double[count * 3];
+        for ( int i = 0; i < count; i++ )
+        {
+            for ( int j = 0; j < n; j++ ) {
+                walk[j] = rnd.nextDouble() * 2 * Math.PI;
+            }
+            fk.compute( walk, 0 );
+            System.arraycopy( fk.tipPose(), 12, scattered, i * 3, 3 );
+        }
+
+        for ( int round = 0; round < 5; round++ )
+        {
+            benchmark( "streamed", solver, streamed, count );
+            benchmark( "scattered", solver, scattered, count );
+        }
+    }
+
+    // every target gets solved starting from the previous solution
+    private static void benchmark(String name, InverseKinematicsSolver solver, double[] targets, int count)
+    {
+        final int n = solver.geometry().jointCount;
+        final double[] seed = new double[n];
+        int converged = 0;
+        long totalIterations = 0;
+        final long start = System.nanoTime();
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( solver.solve( seed, 0, targets[i * 3], targets[i * 3 + 1], targets[i * 3 + 2] ) ) {
+                converged++;
+            }
+            totalIterations += solver.iterations();
+            System.arraycopy( solver.solution(), 0, seed, 0, n );
+        }
+        final long nanos = System.nanoTime() - start;
+        System.out.printf( "%-10s %,10.0f solves/s, converged: %d / %d, avg. iterations: %.2f%n",
+            name, count / (nanos / 1e9), converged, count, totalIterations / (double) count );
+    }
+}
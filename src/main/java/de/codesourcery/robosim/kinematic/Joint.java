@@ -1,5 +1,6 @@
 package de.codesourcery.robosim.kinematic;
 
+import org.apache.commons.lang3.Validate;
 import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Quaternion;
 import com.badlogic.gdx.math.Vector3;
@@ -27,6 +28,7 @@ public final class Joint implements Part, ITickListener
     private final Vector3 extent  = new Vector3(0,0,0);
 
     private boolean anglesLimited = false;
+    // angle limits in rad, only used when anglesLimited is set
     public float minAngle,maxAngle;
 
     public Body body;
@@ -40,22 +42,80 @@ public final class Joint implements Part, ITickListener
         this.name = name;
     }
 
+    // scratch objects so that updating the rotation does not allocate, only to be used by updateRotation()
+    private final Vector3 tmpAxis = new Vector3();
+    private final Matrix4 tmpMatrix = new Matrix4();
+
     public void updateRotationFromMotor()
     {
-        final Vector3 rot;
-        if ( installOrientation.isZero() )
-        {
-            rot = rotationAxis;
-        }
-        else
+        updateRotation( motor.currentAngle );
+    }
+
+    /**
+     * Rotates this joint's body.
+     *
+     * @param angleInRad rotation angle around this joint's axis
+     */
+    public void updateRotation(double angleInRad)
+    {
+        if ( body != null )
         {
-            rot = rotationAxis.cpy().mul( Utils.createRotationMatrix( installOrientation ) );
+            final Vector3 rot = installedRotationAxis( tmpAxis, tmpMatrix );
+            body.setRotation( tmpMatrix.idt().rotate( rot, Utils.radToDeg( (float) angleInRad ) ) );
         }
+    }
 
-        if ( body != null )
+    /**
+     * Returns the axis this joint rotates around, in the joint's local coordinate
+     * system and with the install orientation applied.
+     *
+     * <p>Does not touch any state shared with {@link #updateRotation(double)}, so it may be called from
+     * any thread.</p>
+     *
+     * @param result vector to store the result in
+     * @return <code>result</code>
+     */
+    public Vector3 getInstalledRotationAxis(Vector3 result)
+    {
+        return installedRotationAxis( result, new Matrix4() );
+    }
+
+    private Vector3 installedRotationAxis(Vector3 result, Matrix4 tmpMatrix)
+    {
+        result.set( rotationAxis );
+        if ( ! installOrientation.isZero() )
         {
-            body.setRotation( new Matrix4().rotate( rot, Utils.radToDeg( (float) motor.currentAngle ) ) );
+            // same as Utils#createRotationMatrix( installOrientation )
+            tmpMatrix.setToRotation( 0, 0, 1, installOrientation.z )
+                .rotate( 0, 1, 0, installOrientation.y )
+                .rotate( 1, 0, 0, installOrientation.x );
+            result.mul( tmpMatrix );
         }
+        return result;
+    }
+
+    public boolean isAnglesLimited()
+    {
+        return anglesLimited;
+    }
+
+    /**
+     * Restricts the angles this joint may move to.
+     *
+     * @param minAngle min. angle in rad (inclusive)
+     * @param maxAngle max. angle in rad (inclusive)
+     */
+    public void setAngleLimits(float minAngle, float maxAngle)
+    {
+        Validate.isTrue( minAngle <= maxAngle, "minAngle must be <= maxAngle" );
+        this.minAngle = minAngle;
+        this.maxAngle = maxAngle;
+        this.anglesLimited = true;
+    }
+
+    public void clearAngleLimits()
+    {
+        this.anglesLimited = false;
     }
 
     @Override
@@ -75,7 +135,7 @@ public final class Joint implements Part, ITickListener
     @Override
     public void tick(double elapsedSeconds)
     {
-        motor.tick(elapsedSeconds);
+        motor.tick(elapsedSeconds, minAngle, maxAngle, anglesLimited);
     }
 
     @Override
@@ -0,0 +1,383 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Bounded, preallocated multi-producer/single-consumer queue of joint commands.
+ *
+ * <p>Commands are stored in parallel primitive arrays of a ring buffer, so offering and draining commands
+ * does not allocate. Slots are claimed by producers with a CAS on the tail counter and published through a
+ * per-slot sequence number (D. Vyukov's bounded queue), the single consumer never uses CAS.</p>
+ *
+ * <p>Producers choose how to deal with a full queue: {@link #offer(int, CommandType, double) fail},
+ * {@link #offer(int, CommandType, double, long, TimeUnit) wait for a limited time} or
+ * {@link #put(int, CommandType, double) wait until there is room}.</p>
+ *
+ * <p>The consumer {@link #drain(CommandHandler, int) drains} commands in batches. Within a batch, only the
+ * last command of each type for each joint is handed to the handler (later commands supersede earlier ones).</p>
+ */
+public final class JointCommandQueue
+{
+    public enum CommandType
+    {
+        SET_DESIRED_ANGLE,
+        SET_EXTERNAL_TORQUE
+    }
+
+    private static final CommandType[] TYPES = CommandType.values();
+
+    /**
+     * Receives drained commands.
+     */
+    @FunctionalInterface
+    public interface CommandHandler
+    {
+        void apply(int jointIndex, CommandType type, double value);
+    }
+
+    // max. time a waiting producer parks before checking again
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+    private final int capacity;
+    private final int mask;
+    private final int jointCount;
+
+    // ring buffer
+    private final AtomicLongArray sequences;
+    private final int[] joints;
+    private final byte[] types;
+    private final double[] values;
+
+    private final AtomicLong tail = new AtomicLong();
+    // only written by consumer
+    private volatile long head;
+
+    // consumer scratch buffers for coalescing
+    private int[] batchJoints = new int[0];
+    private byte[] batchTypes = new byte[0];
+    private double[] batchValues = new double[0];
+    private final int[] keyStamps;
+    private int stamp;
+
+    // statistics
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong contention = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private volatile long coalesced;
+    private volatile long applied;
+
+    /**
+     * Create instance.
+     *
+     * @param capacity max. number of queued commands, rounded up to the next power of two
+     * @param jointCount number of joints, joint indices are in range [0,jointCount)
+     */
+    public JointCommandQueue(int capacity, int jointCount)
+    {
+        Validate.isTrue( capacity > 0 && capacity <= (1 << 30), "capacity must be in range [1,2^30]" );
+        Validate.isTrue( jointCount >= 0, "jointCount must be >= 0" );
+        this.capacity = Integer.highestOneBit( capacity ) == capacity ? capacity : Integer.highestOneBit( capacity ) << 1;
+        this.mask = this.capacity - 1;
+        this.jointCount = jointCount;
+        this.sequences = new AtomicLongArray( this.capacity );
+        for ( int i = 0; i < this.capacity; i++ ) {
+            sequences.set( i, i );
+        }
+        this.joints = new int[this.capacity];
+        this.types = new byte[this.capacity];
+        this.values = new double[this.capacity];
+        this.keyStamps = new int[jointCount * TYPES.length];
+    }
+
+    /**
+     * Enqueues a command if there is room.
+     *
+     * @param jointIndex joint index
+     * @param type command type
+     * @param value command argument
+     * @return <code>false</code> if the queue was full
+     */
+    public boolean offer(int jointIndex, CommandType type, double value)
+    {
+        checkArguments( jointIndex, type );
+        if ( tryOffer( jointIndex, type, value ) ) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Enqueues a command, waiting up to a given time for room to become available.
+     *
+     * @param jointIndex joint index
+     * @param type command type
+     * @param value command argument
+     * @param timeout max. time to wait
+     * @param unit unit of <code>timeout</code>
+     * @return <code>false</code> if the queue was still full after the timeout
+     * @throws InterruptedException
+     */
+    public boolean offer(int jointIndex, CommandType type, double value, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        checkArguments( jointIndex, type );
+        if ( tryOffer( jointIndex, type, value ) ) {
+            return true;
+        }
+        blocked.incrementAndGet();
+        final long deadline = System.nanoTime() + unit.toNanos( timeout );
+        long parkNanos = 1_000;
+        while ( ! tryOffer( jointIndex, type, value ) )
+        {
+            final long remaining = deadline - System.nanoTime();
+            if ( remaining <= 0 ) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            parkNanos = await( parkNanos, remaining );
+        }
+        return true;
+    }
+
+    /**
+     * Enqueues a command, waiting for room to become available if necessary.
+     *
+     * @param jointIndex joint index
+     * @param type command type
+     * @param value command argument
+     * @throws InterruptedException
+     */
+    public void put(int jointIndex, CommandType type, double value) throws InterruptedException
+    {
+        checkArguments( jointIndex, type );
+        if ( tryOffer( jointIndex, type, value ) ) {
+            return;
+        }
+        blocked.incrementAndGet();
+        long parkNanos = 1_000;
+        while ( ! tryOffer( jointIndex, type, value ) ) {
+            parkNanos = await( parkNanos, Long.MAX_VALUE );
+        }
+    }
+
+    // no Validate here, building the message would allocate on every call
+    private void checkArguments(int jointIndex, CommandType type)
+    {
+        if ( jointIndex < 0 || jointIndex >= jointCount ) {
+            throw new IllegalArgumentException( "joint index out of range: " + jointIndex );
+        }
+        if ( type == null ) {
+            throw new NullPointerException( "type must not be null" );
+        }
+    }
+
+    /*
+     * Parks with exponential back-off (the consumer never signals producers).
+     */
+    private static long await(long parkNanos, long remainingNanos) throws InterruptedException
+    {
+        LockSupport.parkNanos( Math.min( parkNanos, remainingNanos ) );
+        if ( Thread.interrupted() ) {
+            throw new InterruptedException();
+        }
+        return Math.min( parkNanos * 2, MAX_PARK_NANOS );
+    }
+
+    private boolean tryOffer(int jointIndex, CommandType type, double value)
+    {
+        long pos = tail.get();
+        while ( true )
+        {
+            final int idx = (int) (pos & mask);
+            final long diff = sequences.getAcquire( idx ) - pos;
+            if ( diff == 0 )
+            {
+                if ( tail.compareAndSet( pos, pos + 1 ) )
+                {
+                    joints[idx] = jointIndex;
+                    types[idx] = (byte) type.ordinal();
+                    values[idx] = value;
+                    sequences.setRelease( idx, pos + 1 );
+                    return true;
+                }
+                contention.incrementAndGet();
+                pos = tail.get();
+            }
+            else if ( diff < 0 )
+            {
+                // slot still holds a command from the previous lap => full
+                return false;
+            }
+            else
+            {
+                // another producer claimed this slot
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Drains up to <code>maxBatchSize</code> commands.
+     *
+     * <p>Consumer thread only.</p>
+     *
+     * @param handler receives the commands (in queue order), superseded commands are skipped
+     * @param maxBatchSize max. number of commands to remove from the queue
+     * @return number of commands removed from the queue (including superseded ones)
+     */
+    public int drain(CommandHandler handler, int maxBatchSize)
+    {
+        Validate.isTrue( maxBatchSize > 0, "maxBatchSize must be > 0" );
+        if ( batchJoints.length < maxBatchSize )
+        {
+            batchJoints = new int[maxBatchSize];
+            batchTypes = new byte[maxBatchSize];
+            batchValues = new double[maxBatchSize];
+        }
+
+        long pos = head;
+        int count = 0;
+        while ( count < maxBatchSize )
+        {
+            final int idx = (int) (pos & mask);
+            if ( sequences.getAcquire( idx ) != pos + 1 ) {
+                break;
+            }
+            batchJoints[count] = joints[idx];
+            batchTypes[count] = types[idx];
+            batchValues[count] = values[idx];
+            count++;
+            sequences.setRelease( idx, pos + capacity );
+            pos++;
+        }
+        head = pos;
+        if ( count == 0 ) {
+            return 0;
+        }
+
+        // walk backwards so the last command for each (joint,type) wins
+        if ( ++stamp == 0 )
+        {
+            Arrays.fill( keyStamps, 0 );
+            stamp = 1;
+        }
+        int skipped = 0;
+        for ( int i = count - 1; i >= 0; i-- )
+        {
+            final int key = batchJoints[i] * TYPES.length + batchTypes[i];
+            if ( keyStamps[key] == stamp ) {
+                batchTypes[i] = -1;
+                skipped++;
+            } else {
+                keyStamps[key] = stamp;
+            }
+        }
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( batchTypes[i] != -1 ) {
+                handler.apply( batchJoints[i], TYPES[batchTypes[i]], batchValues[i] );
+            }
+        }
+        coalesced += skipped;
+        applied += count - skipped;
+        return count;
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of queued commands.
+     *
+     * @return number of commands (only a snapshot while producers are active)
+     */
+    public int size()
+    {
+        return (int) Math.max( 0, tail.get() - head );
+    }
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of commands ever enqueued.
+     *
+     * @return count
+     */
+    public long enqueuedCount()
+    {
+        return tail.get();
+    }
+
+    /**
+     * Returns the number of commands ever removed from the queue by {@link #drain(CommandHandler, int)}.
+     *
+     * @return count
+     */
+    public long drainedCount()
+    {
+        return head;
+    }
+
+    /**
+     * Returns the number of commands that could not be enqueued because the queue was full.
+     *
+     * @return count
+     */
+    public long rejectedCount()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the number of times a producer had to wait for room.
+     *
+     * @return count
+     */
+    public long blockedCount()
+    {
+        return blocked.get();
+    }
+
+    /**
+     * Returns the number of times producers competed for the same slot.
+     *
+     * @return count
+     */
+    public long contentionCount()
+    {
+        return contention.get();
+    }
+
+    /**
+     * Returns the number of commands that got skipped because a later command superseded them.
+     *
+     * @return count
+     */
+    public long coalescedCount()
+    {
+        return coalesced;
+    }
+
+    public long appliedCount()
+    {
+        return applied;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "queued: %d/%d, enqueued: %d, applied: %d, coalesced: %d, rejected: %d, blocked: %d, contention: %d"
+            .formatted( size(), capacity, enqueuedCount(), appliedCount(), coalescedCount(), rejectedCount(),
+                blockedCount(), contentionCount() );
+    }
+}
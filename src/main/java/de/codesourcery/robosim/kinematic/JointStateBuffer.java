@@ -0,0 +1,217 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Lock-free triple buffer that hands joint angle snapshots from a single writer (the simulation thread)
+ * to a single reader (the render thread).
+ *
+ * <p>The writer fills its private back buffer and then swaps it with the shared middle buffer, the reader
+ * swaps its private front buffer with the middle buffer whenever a newer snapshot is available. Neither
+ * side ever blocks or waits for the other: the writer may publish many snapshots per frame (snapshots
+ * the reader never saw get counted as dropped) and the reader always gets the newest complete snapshot.
+ * A swap is a single CAS, failed CAS attempts (both sides swapping at the same time) are counted as
+ * contention.</p>
+ */
+public final class JointStateBuffer
+{
+    private static final int INDEX_MASK = 0b011;
+    // set if the middle buffer holds a snapshot the reader has not seen yet
+    private static final int FRESH = 0b100;
+
+    /**
+     * Joint angles at a point in simulated time.
+     */
+    public static final class Snapshot
+    {
+        private final double[] angles;
+        private long sequence;
+        private double simulatedSeconds;
+        private boolean arrivedAtDestination;
+
+        private Snapshot(int jointCount)
+        {
+            this.angles = new double[jointCount];
+        }
+
+        /**
+         * Returns the joint angles.
+         *
+         * @return angles in rad (joint closest to the base first), must not be modified
+         */
+        public double[] angles()
+        {
+            return angles;
+        }
+
+        /**
+         * Returns the sequence number of this snapshot, starting with 1 for the first published snapshot.
+         *
+         * @return sequence number, 0 if nothing got published yet
+         */
+        public long sequence()
+        {
+            return sequence;
+        }
+
+        public double simulatedSeconds()
+        {
+            return simulatedSeconds;
+        }
+
+        public boolean arrivedAtDestination()
+        {
+            return arrivedAtDestination;
+        }
+    }
+
+    private final Snapshot[] buffers;
+
+    // index of middle buffer | FRESH
+    private final AtomicInteger middle = new AtomicInteger( 1 );
+
+    // only accessed by writer
+    private int back = 0;
+    private long nextSequence = 1;
+
+    // only accessed by reader
+    private int front = 2;
+
+    // statistics, every counter only gets written by one thread
+    private volatile long published;
+    private volatile long dropped;
+    private volatile long writerContention;
+    private volatile long consumed;
+    private volatile long readerContention;
+
+    public JointStateBuffer(int jointCount)
+    {
+        Validate.isTrue( jointCount >= 0, "jointCount must be >= 0" );
+        this.buffers = new Snapshot[]{ new Snapshot( jointCount ), new Snapshot( jointCount ), new Snapshot( jointCount ) };
+    }
+
+    /**
+     * Returns the writer's back buffer that {@link #publish(double, boolean)} will publish.
+     *
+     * <p>Writer thread only.</p>
+     *
+     * @return angles to fill in
+     */
+    public double[] backBuffer()
+    {
+        return buffers[back].angles;
+    }
+
+    /**
+     * Publishes the back buffer.
+     *
+     * <p>Writer thread only.</p>
+     *
+     * @param simulatedSeconds simulated time of the snapshot
+     * @param arrivedAtDestination whether all motors have reached their desired angles
+     */
+    public void publish(double simulatedSeconds, boolean arrivedAtDestination)
+    {
+        final Snapshot snapshot = buffers[back];
+        snapshot.sequence = nextSequence++;
+        snapshot.simulatedSeconds = simulatedSeconds;
+        snapshot.arrivedAtDestination = arrivedAtDestination;
+
+        int current;
+        while ( ! middle.compareAndSet( current = middle.get(), back | FRESH ) ) {
+            writerContention++;
+        }
+        if ( (current & FRESH) != 0 ) {
+            dropped++;
+        }
+        back = current & INDEX_MASK;
+        published++;
+    }
+
+    /**
+     * Makes the newest published snapshot available through {@link #front()}.
+     *
+     * <p>Reader thread only.</p>
+     *
+     * @return <code>true</code> if a newer snapshot became available, <code>false</code> if
+     * {@link #front()} is still the newest one
+     */
+    public boolean acquire()
+    {
+        int current;
+        do
+        {
+            current = middle.get();
+            if ( (current & FRESH) == 0 ) {
+                return false;
+            }
+            if ( middle.compareAndSet( current, front ) ) {
+                break;
+            }
+            readerContention++;
+        } while ( true );
+        front = current & INDEX_MASK;
+        consumed++;
+        return true;
+    }
+
+    /**
+     * Returns the snapshot acquired by the last successful call to {@link #acquire()}.
+     *
+     * <p>Reader thread only.</p>
+     *
+     * @return snapshot, stays unchanged until the next call to {@link #acquire()}
+     */
+    public Snapshot front()
+    {
+        return buffers[front];
+    }
+
+    /**
+     * Returns the number of snapshots published by the writer.
+     *
+     * @return count
+     */
+    public long publishedCount()
+    {
+        return published;
+    }
+
+    /**
+     * Returns the number of snapshots that got replaced by a newer one before the reader acquired them.
+     *
+     * @return count
+     */
+    public long droppedCount()
+    {
+        return dropped;
+    }
+
+    /**
+     * Returns the number of snapshots acquired by the reader.
+     *
+     * @return count
+     */
+    public long consumedCount()
+    {
+        return consumed;
+    }
+
+    /**
+     * Returns the number of swaps that had to be retried because writer and reader swapped at the same time.
+     *
+     * @return count
+     */
+    public long contentionCount()
+    {
+        return writerContention + readerContention;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "published: %d, consumed: %d, dropped: %d, contention: %d"
+            .formatted( publishedCount(), consumedCount(), droppedCount(), contentionCount() );
+    }
+}
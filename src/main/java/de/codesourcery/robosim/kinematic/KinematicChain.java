@@ -1,5 +1,7 @@
 package de.codesourcery.robosim.kinematic;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.function.Consumer;
 import org.apache.commons.lang3.Validate;
@@ -9,13 +11,68 @@ public class KinematicChain
 {
     public Joint firstJoint;
 
+    /**
+     * Creates the default 5-axis arm (base, shoulder, elbow and two wrist joints).
+     *
+     * <p>No bodies get assigned, use {@link ModelBuilder} for that.</p>
+     *
+     * @return chain
+     */
+    public static KinematicChain createDefaultArm() {
+
+        final KinematicChain chain = new KinematicChain();
+
+        final float linkLen = 50;
+        final float linkWidth = 5;
+
+        final Joint base = chain.addPart( new Joint( "Base", 5, 30 ) );
+        base.installOrientation.set( 0, 0, 90 );
+
+        chain.addPart( new Link(  "Link #1" , linkLen, linkWidth ) );
+        chain.addPart( new Joint( "Shoulder", 10, 10 ) );
+        chain.addPart( new Link(  "Link #2" , linkLen, linkWidth ) );
+        chain.addPart( new Joint( "Elbow", 10, 10 ) );
+        chain.addPart( new Link(  "Link #3" , linkLen, linkWidth) );
+        chain.addPart( new Joint( "Wrist #1", 10, 10 ) );
+        chain.addPart( new Link(  "Link #4" , linkLen, linkWidth ) );
+        chain.addPart( new Joint( "Wrist #2", 10, 10 ) );
+        chain.addPart( new Link(  "Gripper" , linkLen, linkWidth ) );
+        return chain;
+    }
+
     public void assignRandomAngles(Random rnd) {
-        forEachJoint( j -> {
-            final float maxAngle = "Base".equals( j.name ) ? 360 : 80;
+        final double[] angles = randomAngles( rnd );
+        final int[] idx = { 0 };
+        forEachJoint( j -> j.motor.setDesiredAngle( angles[idx[0]++] ) );
+    }
+
+    /**
+     * Picks random joint angles.
+     *
+     * @param rnd random generator
+     * @return angles in rad (joint closest to the base first)
+     */
+    public double[] randomAngles(Random rnd) {
+        final List<Joint> joints = getJoints();
+        final double[] result = new double[joints.size()];
+        for ( int i = 0; i < result.length; i++ )
+        {
+            final float maxAngle = "Base".equals( joints.get( i ).name ) ? 360 : 80;
             final float angleInDeg = maxAngle * rnd.nextFloat();
-            j.motor.setDesiredAngle( Utils.degToRad( angleInDeg ) );
-            j.updateRotationFromMotor();
-        } );
+            result[i] = Utils.degToRad( angleInDeg );
+        }
+        return result;
+    }
+
+    /**
+     * Returns all joints.
+     *
+     * @return joints, closest to the base first
+     */
+    public List<Joint> getJoints() {
+        final List<Joint> result = new ArrayList<>();
+        forEachJoint( result::add );
+        return result;
     }
 
     public void forEachJoint(Consumer<Joint> visitor) {
@@ -1,155 +1,303 @@
 package de.codesourcery.robosim.kinematic;
 
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.lang3.Validate;
+import de.codesourcery.robosim.FixedRateScheduler;
 import de.codesourcery.robosim.ITickListener;
+import de.codesourcery.robosim.metrics.Instrumentation;
 
+/**
+ * Simulates a chain's motors on a worker thread (a platform or a virtual thread, see {@link ExecutionMode}).
+ *
+ * <p>The worker advances the simulation by a fixed step at a fixed wall-clock rate (driven by a
+ * {@link FixedRateScheduler}) and publishes the joint angles after every step through a {@link JointStateBuffer}, the render
+ * thread applies the newest snapshot to the bodies in {@link #tick(double)}. Neither thread ever waits for
+ * the other.</p>
+ */
 public class KinematicChainController implements ITickListener
 {
+    /**
+     * Execution mode for the worker that runs the simulation loop.
+     */
+    public enum ExecutionMode
+    {
+        /** dedicated platform (OS) thread */
+        PLATFORM_THREAD,
+        /**
+         * virtual thread, only occupies a carrier thread while actually simulating. Use this to run
+         * large numbers of independently paced controllers.
+         */
+        VIRTUAL_THREAD
+    }
+
+    /** Default simulation step size in seconds */
+    public static final double DEFAULT_STEP_SECONDS = 0.3;
+
+    /** Default speed-up of simulated time relative to wall-clock time */
+    public static final double DEFAULT_TIME_SCALE = 18;
+
+    /** Default capacity of the command queue */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    // max. number of commands applied per simulation step
+    private static final int MAX_COMMAND_BATCH = 256;
+
+    private static final String SPINNING_SCHEDULER = "Virtual threads require a scheduler with spinNanos( 0 )";
+
     private final KinematicChain chain;
 
-    private final Object motorSimulationFinishedLock = new Object();
+    private final FixedRateScheduler scheduler;
+    private final double stepSeconds;
 
-    // @GuardedBy( motorSimulationFinishedLock )
-    public boolean motorSimulationFinished = false;
+    // only accessed by worker thread
+    private double simulatedSeconds;
+
+    // hands joint angles from worker to render thread
+    private final JointStateBuffer stateBuffer;
 
     private volatile boolean hasArrivedAtDestinationAngles;
 
-    private boolean shutdownStarted;
+    // number of commands the worker has drained from the queue
+    private volatile long drainedCommands;
+
+    private volatile boolean shutdownStarted;
     private final CountDownLatch stopped = new CountDownLatch(1);
 
-    private final Object threadLock = new Object();
+    // no synchronized/wait(), these would pin virtual threads to their carrier
+    private final ReentrantLock threadLock = new ReentrantLock();
+    // @GuardedBy( threadLock )
+    private Thread worker;
     // @GuardedBy( threadLock )
-    private MyThread worker;
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM_THREAD;
 
-    private final LinkedBlockingQueue<Consumer<KinematicChain>> workQueue = new LinkedBlockingQueue<>(10);
+    private final Joint[] joints;
+    private final JointCommandQueue commands;
+    private final JointCommandQueue.CommandHandler commandHandler = this::applyCommand;
 
     public KinematicChainController(KinematicChain chain)
+    {
+        this( chain, new FixedRateScheduler( DEFAULT_TIME_SCALE / DEFAULT_STEP_SECONDS ), DEFAULT_STEP_SECONDS );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param chain chain to control
+     * @param scheduler runs simulation steps at a fixed wall-clock rate
+     * @param stepSeconds simulated time per step
+     */
+    public KinematicChainController(KinematicChain chain, FixedRateScheduler scheduler, double stepSeconds)
     {
         Validate.notNull( chain, "chain must not be null" );
+        Validate.notNull( scheduler, "scheduler must not be null" );
+        Validate.isTrue( stepSeconds > 0, "stepSeconds must be > 0" );
         this.chain = chain;
+        this.scheduler = scheduler;
+        this.stepSeconds = stepSeconds;
+        this.joints = chain.getJoints().toArray( Joint[]::new );
+        this.stateBuffer = new JointStateBuffer( joints.length );
+        this.commands = new JointCommandQueue( DEFAULT_QUEUE_CAPACITY, joints.length );
+    }
+
+    /**
+     * Sets how the simulation loop gets run, must be called before {@link #start()}.
+     *
+     * <p>Virtual threads require a scheduler with {@link FixedRateScheduler#spinNanos(long) spin-waiting}
+     * disabled, as spinning would block the carrier thread.</p>
+     *
+     * @param mode execution mode
+     * @return this instance (for chaining)
+     * @throws IllegalArgumentException if virtual threads are requested and the scheduler spins
+     * @see #start()
+     */
+    public KinematicChainController executionMode(ExecutionMode mode)
+    {
+        Validate.notNull( mode, "mode must not be null" );
+        threadLock.lock();
+        try
+        {
+            if ( worker != null ) {
+                throw new IllegalStateException( "Already started" );
+            }
+            Validate.isTrue( isSchedulerSuitable( mode ), SPINNING_SCHEDULER );
+            this.executionMode = mode;
+        }
+        finally
+        {
+            threadLock.unlock();
+        }
+        return this;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
     }
 
     public void stop() throws InterruptedException
     {
         boolean waitForShutdown;
-        synchronized(  threadLock ) {
+        final Thread thread;
+        threadLock.lock();
+        try
+        {
+            thread = worker;
             if ( shutdownStarted ) {
                 waitForShutdown = false;
             }
             else
             {
-                waitForShutdown = worker != null && worker.isAlive();
+                waitForShutdown = thread != null && thread.isAlive();
                 shutdownStarted = true;
+                scheduler.stop();
             }
         }
+        finally
+        {
+            threadLock.unlock();
+        }
         if ( waitForShutdown ) {
             while (!stopped.await( 1, TimeUnit.SECONDS ))
             {
-                System.out.println( "Waiting for " + worker.getName() + " to stop..." );
+                System.out.println( "Waiting for " + thread.getName() + " to stop..." );
             }
         }
     }
 
+    /**
+     * Starts the worker thread, does nothing if it is running already.
+     *
+     * @throws IllegalStateException if shutting down, or running on virtual threads with a spinning scheduler
+     */
     public void start() {
-        synchronized(  threadLock ) {
+        threadLock.lock();
+        try
+        {
             if ( shutdownStarted ) {
                 throw new IllegalStateException( "Shutting down" );
             }
             if ( worker == null || ! worker.isAlive() )
             {
-                worker = new MyThread();
-                worker.start();
+                // spin time may have been changed after setting the execution mode
+                Validate.validState( isSchedulerSuitable( executionMode ), SPINNING_SCHEDULER );
+                final Thread.Builder builder = switch( executionMode ) {
+                    case PLATFORM_THREAD -> Thread.ofPlatform().daemon( true );
+                    case VIRTUAL_THREAD -> Thread.ofVirtual();
+                };
+                worker = builder.name( "kinematic-chain-controller" ).start( this::runWorker );
             }
         }
+        finally
+        {
+            threadLock.unlock();
+        }
     }
 
-    private class MyThread extends Thread
+    private boolean isSchedulerSuitable(ExecutionMode mode)
     {
+        return mode != ExecutionMode.VIRTUAL_THREAD || scheduler.spinNanos() == 0;
+    }
 
-        private MyThread()
+    private void runWorker()
+    {
+        publishSnapshot();
+        try
         {
-            setName("kinematic-chain-controller");
-            setDaemon( true );
+            if ( ! shutdownStarted ) {
+                scheduler.run( _ -> step() );
+            }
+        } finally {
+            if ( shutdownStarted ) {
+                stopped.countDown();
+            }
         }
+    }
 
-        private boolean doOneTick(double elapsedSeconds) {
+    private boolean doOneTick(double elapsedSeconds) {
 
-            boolean arrivedAtDestinationAngles = true;
-            Part part = chain.firstJoint;
-            while ( part != null )
-            {
-                if ( part instanceof Joint j) {
-                    j.motor.tick( elapsedSeconds );
-                    arrivedAtDestinationAngles &= j.motor.hasArrivedAtDestinationAngle();
-                }
-                part = part.next();
+        final long start = Instrumentation.start();
+        boolean arrivedAtDestinationAngles = true;
+        Part part = chain.firstJoint;
+        while ( part != null )
+        {
+            if ( part instanceof Joint j) {
+                j.tick( elapsedSeconds );
+                arrivedAtDestinationAngles &= j.motor.hasArrivedAtDestinationAngle();
             }
-            return arrivedAtDestinationAngles;
+            part = part.next();
         }
+        Instrumentation.stop( Instrumentation.Stage.CONTROLLER_TICK, start );
+        return arrivedAtDestinationAngles;
+    }
 
-        @Override
-        public void run()
+    /**
+     * Applies pending commands and advances the simulation by one step on the calling thread.
+     *
+     * <p>This is what the worker thread does on every tick. Use it directly to run a simulation without the
+     * worker thread (as fast as possible, see {@link de.codesourcery.robosim.HeadlessSimulation}), it must
+     * not be called while the worker thread is running.</p>
+     *
+     * @return <code>true</code> if all motors have arrived at their desired angles
+     */
+    public boolean step()
+    {
+        int drained;
+        while ( (drained = commands.drain( commandHandler, MAX_COMMAND_BATCH )) > 0 )
         {
-            try
-            {
-                while ( ! shutdownStarted )
-                {
-                    // update motor angles
-                    synchronized( motorSimulationFinishedLock )
-                    {
-                        while (!shutdownStarted && motorSimulationFinished)
-                        {
-                            try
-                            {
-                                motorSimulationFinishedLock.wait( 1000 );
-                            }
-                            catch( Exception e )
-                            {
-                                // can't help it
-                            }
-                        }
-                    }
-                    if ( ! shutdownStarted )
-                    {
-                        Consumer<KinematicChain> worker;
-                        while( (worker = workQueue.poll()) != null )
-                        {
-                            worker.accept( chain );
-                        }
-
-                        boolean arrivedAtDestination = true;
-                        for ( int i = 0; i < 1; i++ )
-                        {
-                            arrivedAtDestination &= doOneTick( 0.3 );
-                        }
-                        synchronized( motorSimulationFinishedLock )
-                        {
-                            hasArrivedAtDestinationAngles = arrivedAtDestination;
-                            motorSimulationFinished = true;
-                        }
-                    }
-                }
-            } finally {
-                if ( shutdownStarted ) {
-                    stopped.countDown();
-                }
+            // motors have new desired angles now
+            hasArrivedAtDestinationAngles = false;
+            drainedCommands += drained;
+        }
+        hasArrivedAtDestinationAngles = doOneTick( stepSeconds );
+        simulatedSeconds += stepSeconds;
+        publishSnapshot();
+        return hasArrivedAtDestinationAngles;
+    }
+
+    private void publishSnapshot()
+    {
+        final double[] angles = stateBuffer.backBuffer();
+        int idx = 0;
+        Part part = chain.firstJoint;
+        while ( part != null )
+        {
+            if ( part instanceof Joint j ) {
+                angles[idx++] = j.motor.currentAngle;
             }
+            part = part.next();
         }
+        stateBuffer.publish( simulatedSeconds, hasArrivedAtDestinationAngles );
     }
 
-    public void enqueue(Consumer<KinematicChain> work) {
-        if ( workQueue.size() >= 10 ) {
-            throw new IllegalStateException( "Worker queue full" );
+    private void applyCommand(int jointIndex, JointCommandQueue.CommandType type, double value)
+    {
+        final Joint joint = joints[jointIndex];
+        switch( type )
+        {
+            case SET_DESIRED_ANGLE -> joint.motor.setDesiredAngle( value );
+            case SET_EXTERNAL_TORQUE -> joint.motor.externalTorque = value;
         }
-        workQueue.add(work);
     }
 
+    /**
+     * Returns the queue commands for the worker thread get submitted through.
+     *
+     * <p>Joint indices are the order of joints in the chain, starting with 0 for the joint closest to the base.</p>
+     *
+     * @return queue
+     */
+    public JointCommandQueue commands() {
+        return commands;
+    }
+
+    /**
+     * Applies the current angles of all motors to the bodies.
+     *
+     * <p>Must not be called while the worker thread is running, use {@link #tick(double)} then.</p>
+     */
     public void applyMotorRotationsToBodies() {
+        final long start = Instrumentation.start();
         // apply motor rotation angle to body
         Part part = chain.firstJoint;
         while ( part != null )
@@ -159,32 +307,70 @@ public class KinematicChainController implements ITickListener
             }
             part = part.next();
         }
+        Instrumentation.stop( Instrumentation.Stage.APPLY_MOTOR_ROTATIONS, start );
     }
 
     /**
      * Called by render loop before a frame gets rendered.
+     *
+     * <p>Applies the newest joint angles published by the worker thread (if any) to the bodies.</p>
+     *
      * @param elapsedSeconds
      */
     @Override
     public void tick(double elapsedSeconds)
     {
-        final boolean updateBodies;
-        synchronized( motorSimulationFinishedLock )
+        if ( stateBuffer.acquire() )
         {
-            updateBodies = motorSimulationFinished;
-        }
-        if ( updateBodies )
-        {
-            applyMotorRotationsToBodies();
-            synchronized( motorSimulationFinishedLock )
+            // same stage as applyMotorRotationsToBodies(), just with the angles from the snapshot
+            final long start = Instrumentation.start();
+            final double[] angles = stateBuffer.front().angles();
+            int idx = 0;
+            Part part = chain.firstJoint;
+            while ( part != null )
             {
-                motorSimulationFinished = false;
-                motorSimulationFinishedLock.notifyAll();
+                if ( part instanceof Joint j) {
+                    j.updateRotation( angles[idx++] );
+                }
+                part = part.next();
             }
+            Instrumentation.stop( Instrumentation.Stage.APPLY_MOTOR_ROTATIONS, start );
         }
     }
 
+    /**
+     * Returns the simulated time {@link #step()} advances by.
+     *
+     * @return step size in seconds
+     */
+    public double getStepSeconds() {
+        return stepSeconds;
+    }
+
+    /**
+     * Returns the scheduler driving the worker thread.
+     *
+     * @return scheduler (use for statistics only)
+     */
+    public FixedRateScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Returns the buffer joint angles get handed from the worker to the render thread with.
+     *
+     * @return buffer (use for statistics only)
+     */
+    public JointStateBuffer getStateBuffer() {
+        return stateBuffer;
+    }
+
+    /**
+     * Returns whether all motors have reached their desired angles and no submitted commands are pending.
+     *
+     * @return <code>true</code> if the chain is at rest
+     */
     public boolean hasArrivedAtDestinationAngles() {
-        return hasArrivedAtDestinationAngles;
+        return commands.enqueuedCount() == drainedCommands && hasArrivedAtDestinationAngles;
     }
-}
\ No newline at end of file
+}
@@ -1,14 +1,36 @@
 package de.codesourcery.robosim.kinematic;
 
+import org.apache.commons.lang3.Validate;
 import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.collision.BoundingBox;
-import de.codesourcery.robosim.RendererTest;
 import de.codesourcery.robosim.Utils;
 import de.codesourcery.robosim.render.Body;
+import de.codesourcery.robosim.render.LevelOfDetail;
+import de.codesourcery.robosim.render.MeshCache;
 
 public class ModelBuilder
 {
+    private final MeshCache meshCache;
+
+    public ModelBuilder()
+    {
+        this( new MeshCache() );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param meshCache cache to acquire meshes from, share it between builders so identical parts of different
+     *                  chains use the same mesh
+     */
+    public ModelBuilder(MeshCache meshCache)
+    {
+        Validate.notNull( meshCache, "meshCache must not be null" );
+        this.meshCache = meshCache;
+    }
+
     public void assignBodies(KinematicChain chain) {
 
         Part part = chain.firstJoint;
@@ -26,9 +48,17 @@ public class ModelBuilder
                     {
                         transform = Utils.createRotationMatrix( joint.installOrientation );
                     }
-                    yield RendererTest.createCylinder( "", joint.length(), joint.diameter(), Color.BLUE, transform );
+                    final int[] divisions = LevelOfDetail.CYLINDER_DIVISIONS;
+                    final Body body = new Body( meshCache.acquireCylinder( joint.length(), joint.diameter(), Color.BLUE, transform, divisions[0] ), "", meshCache );
+                    final Mesh[] coarser = new Mesh[divisions.length - 1];
+                    for ( int i = 1; i < divisions.length; i++ ) {
+                        coarser[i - 1] = meshCache.acquireCylinder( joint.length(), joint.diameter(), Color.BLUE, transform, divisions[i] );
+                    }
+                    body.setLevelsOfDetail( coarser );
+                    yield body;
                 }
-                case Link link -> RendererTest.createBox( "", link.length(), link.depth(), Color.RED );
+                // boxes have 24 vertices, nothing to reduce
+                case Link link -> new Body( meshCache.acquireBox( link.depth(), link.length(), link.depth(), Color.RED ), "", meshCache );
             };
             part.setBody( newBody );
             if ( part.previous() != null )
@@ -0,0 +1,444 @@
+package de.codesourcery.robosim.kinematic;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Voxel map of the positions the gripper tip of a chain can reach.
+ *
+ * <p>The map is a cube of <code>resolution^3</code> voxels centered on the chain's base that is large
+ * enough to contain the whole workspace. Each voxel holds a dexterity value (0-255): the number of
+ * sampled joint configurations that placed the gripper tip inside the voxel (saturating), 0 meaning
+ * unreachable. Joint space gets sampled uniformly (within joint limits, if set) in parallel using
+ * {@link BatchForwardKinematics}.</p>
+ *
+ * <p>Maps get persisted as a header followed by the voxel bytes, the file name contains the
+ * {@link ChainGeometry#fingerprint() geometry fingerprint} so a map is only rebuilt if the chain
+ * changes. Loaded maps are memory-mapped read-only, lookups are O(1).</p>
+ *
+ * <p>Instances are immutable and thread-safe.</p>
+ */
+public final class ReachabilityMap
+{
+    private static final int MAGIC = 0x524d4150; // 'RMAP'
+    private static final int VERSION = 1;
+    // magic, version, fingerprint, resolution, sample count, min. x/y/z, voxel size
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8 + 3 * 8 + 8;
+
+    // number of configurations a leaf task computes FK for at once
+    private static final int BATCH_SIZE = 4096;
+
+    // all sampler tasks increment the same voxel grid
+    private static final VarHandle VOXEL = MethodHandles.arrayElementVarHandle( byte[].class );
+
+    private final long fingerprint;
+    private final int resolution;
+    private final long sampleCount;
+    private final double minX, minY, minZ;
+    private final double voxelSize;
+    private final ByteBuffer voxels;
+
+    private ReachabilityMap(long fingerprint, int resolution, long sampleCount,
+                            double minX, double minY, double minZ, double voxelSize, ByteBuffer voxels)
+    {
+        this.fingerprint = fingerprint;
+        this.resolution = resolution;
+        this.sampleCount = sampleCount;
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.voxelSize = voxelSize;
+        this.voxels = voxels;
+    }
+
+    /*
+     * Thrown by load() for files that are no (complete) map of the current format.
+     */
+    private static final class InvalidMapException extends IOException
+    {
+        private InvalidMapException(String message)
+        {
+            super( message );
+        }
+    }
+
+    /**
+     * Loads the map for a chain from a directory, building and storing it first if there is none.
+     *
+     * <p>An existing file gets replaced if it doesn't match the chain, resolution or sample count, or
+     * is no valid map file (e.g. truncated or written in an older format).</p>
+     *
+     * @param directory directory to store maps in
+     * @param geometry chain geometry
+     * @param resolution number of voxels along each axis
+     * @param sampleCount number of joint configurations to sample when building
+     * @return memory-mapped map
+     * @throws IOException
+     */
+    public static ReachabilityMap loadOrBuild(Path directory, ChainGeometry geometry, int resolution, long sampleCount) throws IOException
+    {
+        Validate.notNull( directory, "directory must not be null" );
+        final Path file = directory.resolve( fileName( geometry, resolution ) );
+        if ( Files.exists( file ) )
+        {
+            try
+            {
+                final ReachabilityMap existing = load( file );
+                if ( existing.fingerprint == geometry.fingerprint() && existing.resolution == resolution
+                    && existing.sampleCount >= sampleCount )
+                {
+                    return existing;
+                }
+            }
+            catch( InvalidMapException e )
+            {
+                // rebuilt below, just like a map of some other chain
+            }
+        }
+        Files.createDirectories( directory );
+        build( geometry, resolution, sampleCount, ForkJoinPool.commonPool() ).save( file );
+        return load( file );
+    }
+
+    /**
+     * Returns the name of the file a map gets stored in.
+     *
+     * <p>The name includes the file format version, so maps written in another format are never picked up.</p>
+     *
+     * @param geometry chain geometry
+     * @param resolution number of voxels along each axis
+     * @return file name
+     */
+    public static String fileName(ChainGeometry geometry, int resolution)
+    {
+        return "reachability-v%d-%016x-%d.map".formatted( VERSION, geometry.fingerprint(), resolution );
+    }
+
+    /**
+     * Builds a map by sampling joint space.
+     *
+     * @param geometry chain geometry
+     * @param resolution number of voxels along each axis
+     * @param sampleCount number of joint configurations to sample
+     * @param pool pool to sample on
+     * @return map (kept on the heap)
+     */
+    public static ReachabilityMap build(ChainGeometry geometry, int resolution, long sampleCount, ForkJoinPool pool)
+    {
+        Validate.notNull( geometry, "geometry must not be null" );
+        Validate.notNull( pool, "pool must not be null" );
+        Validate.isTrue( resolution > 0 && resolution <= 1024, "resolution must be in range [1,1024]" );
+        Validate.isTrue( sampleCount > 0, "sampleCount must be > 0" );
+
+        // the tip can't get further away from the base than the sum of all offsets
+        double reach = Math.sqrt( sq( geometry.tipOffset[0] ) + sq( geometry.tipOffset[1] ) + sq( geometry.tipOffset[2] ) );
+        for ( int i = 1; i < geometry.partCount; i++ ) {
+            reach += Math.sqrt( sq( geometry.offsets[i * 3] ) + sq( geometry.offsets[i * 3 + 1] ) + sq( geometry.offsets[i * 3 + 2] ) );
+        }
+        reach *= 1.01;
+        final double voxelSize = 2 * reach / resolution;
+        final double minX = geometry.offsets[0] - reach;
+        final double minY = geometry.offsets[1] - reach;
+        final double minZ = geometry.offsets[2] - reach;
+
+        final int leaves = pool.getParallelism() * 4;
+        final byte[] voxels = new byte[resolution * resolution * resolution];
+        pool.invoke( new Sampler( geometry, resolution, minX, minY, minZ, voxelSize,
+            new SplittableRandom( geometry.fingerprint() ), 0, leaves, leaves, sampleCount, voxels ) );
+        return new ReachabilityMap( geometry.fingerprint(), resolution, sampleCount, minX, minY, minZ, voxelSize, ByteBuffer.wrap( voxels ) );
+    }
+
+    /*
+     * Increments a voxel unless it is saturated already.
+     */
+    private static void increment(byte[] voxels, int index)
+    {
+        int current = (byte) VOXEL.getOpaque( voxels, index ) & 0xff;
+        while ( current < 255 )
+        {
+            final int witness = (byte) VOXEL.compareAndExchange( voxels, index, (byte) current, (byte) (current + 1) ) & 0xff;
+            if ( witness == current ) {
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    private static double sq(double v)
+    {
+        return v * v;
+    }
+
+    /*
+     * Samples a range of leaves, adding the hits to the shared voxel grid.
+     */
+    private static final class Sampler extends RecursiveAction
+    {
+        private final ChainGeometry geometry;
+        private final int resolution;
+        private final double minX, minY, minZ, voxelSize;
+        private final SplittableRandom rnd;
+        private final int firstLeaf, lastLeaf, leafCount;
+        private final long totalSamples;
+        private final byte[] voxels;
+
+        private Sampler(ChainGeometry geometry, int resolution, double minX, double minY, double minZ, double voxelSize,
+                        SplittableRandom rnd, int firstLeaf, int lastLeaf, int leafCount, long totalSamples, byte[] voxels)
+        {
+            this.geometry = geometry;
+            this.resolution = resolution;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.voxelSize = voxelSize;
+            this.rnd = rnd;
+            this.firstLeaf = firstLeaf;
+            this.lastLeaf = lastLeaf;
+            this.leafCount = leafCount;
+            this.totalSamples = totalSamples;
+            this.voxels = voxels;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( lastLeaf - firstLeaf > 1 )
+            {
+                // split() gives both halves independent, deterministic random sequences
+                final int mid = (firstLeaf + lastLeaf) / 2;
+                invokeAll( new Sampler( geometry, resolution, minX, minY, minZ, voxelSize, rnd.split(), firstLeaf, mid, leafCount, totalSamples, voxels ),
+                    new Sampler( geometry, resolution, minX, minY, minZ, voxelSize, rnd.split(), mid, lastLeaf, leafCount, totalSamples, voxels ) );
+                return;
+            }
+            sample();
+        }
+
+        private void sample()
+        {
+            final int n = geometry.jointCount;
+            final long samples = totalSamples * (firstLeaf + 1) / leafCount - totalSamples * firstLeaf / leafCount;
+
+            final double[] min = new double[n];
+            final double[] range = new double[n];
+            for ( int j = 0; j < n; j++ )
+            {
+                min[j] = geometry.limited[j] ? geometry.minAngles[j] : 0;
+                range[j] = geometry.limited[j] ? geometry.maxAngles[j] - geometry.minAngles[j] : 2 * Math.PI;
+            }
+
+            // pool is only used for batches above its parallel threshold, which BATCH_SIZE is not
+            final BatchForwardKinematics fk = new BatchForwardKinematics( geometry );
+            final double[] configs = new double[BATCH_SIZE * n];
+            final double[] positions = new double[BATCH_SIZE * BatchForwardKinematics.POSITION_STRIDE];
+            final double scale = 1 / voxelSize;
+            for ( long done = 0; done < samples; )
+            {
+                final int count = (int) Math.min( BATCH_SIZE, samples - done );
+                for ( int i = 0; i < count; i++ )
+                {
+                    for ( int j = 0; j < n; j++ ) {
+                        configs[i * n + j] = min[j] + rnd.nextDouble() * range[j];
+                    }
+                }
+                fk.computePositions( configs, count, positions );
+                for ( int i = 0; i < count; i++ )
+                {
+                    final int x = (int) ((positions[i * 3] - minX) * scale);
+                    final int y = (int) ((positions[i * 3 + 1] - minY) * scale);
+                    final int z = (int) ((positions[i * 3 + 2] - minZ) * scale);
+                    if ( x >= 0 && x < resolution && y >= 0 && y < resolution && z >= 0 && z < resolution ) {
+                        increment( voxels, (z * resolution + y) * resolution + x );
+                    }
+                }
+                done += count;
+            }
+        }
+    }
+
+    /**
+     * Writes this map to a file.
+     *
+     * <p>The map is written to a temporary file first that then gets renamed, so concurrent readers
+     * never see a partially written map.</p>
+     *
+     * @param file file to write to
+     * @throws IOException
+     */
+    public void save(Path file) throws IOException
+    {
+        final Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        try ( FileChannel channel = FileChannel.open( tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            header.putInt( MAGIC ).putInt( VERSION ).putLong( fingerprint ).putInt( resolution ).putLong( sampleCount );
+            header.putDouble( minX ).putDouble( minY ).putDouble( minZ ).putDouble( voxelSize );
+            header.flip();
+            while ( header.hasRemaining() ) {
+                channel.write( header );
+            }
+            final ByteBuffer data = voxels.duplicate().clear();
+            while ( data.hasRemaining() ) {
+                channel.write( data );
+            }
+        }
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Memory-maps a map file.
+     *
+     * @param file file to load
+     * @return map
+     * @throws IOException if the file could not be read or is no valid map file
+     */
+    public static ReachabilityMap load(Path file) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+        {
+            final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+            if ( buffer.capacity() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION ) {
+                throw new InvalidMapException( "Not a reachability map: " + file );
+            }
+            final long fingerprint = buffer.getLong();
+            final int resolution = buffer.getInt();
+            final long sampleCount = buffer.getLong();
+            final double minX = buffer.getDouble();
+            final double minY = buffer.getDouble();
+            final double minZ = buffer.getDouble();
+            final double voxelSize = buffer.getDouble();
+            if ( resolution <= 0 || buffer.capacity() != HEADER_SIZE + (long) resolution * resolution * resolution ) {
+                throw new InvalidMapException( "Truncated reachability map: " + file );
+            }
+            // the mapping stays valid after the channel got closed
+            final ByteBuffer voxels = buffer.position( HEADER_SIZE ).slice();
+            return new ReachabilityMap( fingerprint, resolution, sampleCount, minX, minY, minZ, voxelSize, voxels );
+        }
+    }
+
+    /**
+     * Returns the dexterity at a position.
+     *
+     * @return number of sampled configurations that reached the voxel containing the position (0-255),
+     * 0 if the position is unreachable or outside of the map
+     */
+    public int dexterity(double x, double y, double z)
+    {
+        final int ix = (int) Math.floor( (x - minX) / voxelSize );
+        final int iy = (int) Math.floor( (y - minY) / voxelSize );
+        final int iz = (int) Math.floor( (z - minZ) / voxelSize );
+        if ( ix < 0 || ix >= resolution || iy < 0 || iy >= resolution || iz < 0 || iz >= resolution ) {
+            return 0;
+        }
+        return voxels.get( (iz * resolution + iy) * resolution + ix ) & 0xff;
+    }
+
+    /**
+     * Returns whether the gripper tip can reach a position.
+     *
+     * <p>This is an approximation at voxel resolution: a position counts as reachable if any sampled
+     * configuration reached the voxel containing it.</p>
+     */
+    public boolean isReachable(double x, double y, double z)
+    {
+        return dexterity( x, y, z ) > 0;
+    }
+
+    public long fingerprint()
+    {
+        return fingerprint;
+    }
+
+    public int resolution()
+    {
+        return resolution;
+    }
+
+    public long sampleCount()
+    {
+        return sampleCount;
+    }
+
+    public double voxelSize()
+    {
+        return voxelSize;
+    }
+
+    /**
+     * Returns the number of reachable voxels.
+     *
+     * @return count
+     */
+    public int reachableVoxels()
+    {
+        int result = 0;
+        for ( int i = 0, len = resolution * resolution * resolution; i < len; i++ )
+        {
+            if ( voxels.get( i ) != 0 ) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    static void main() throws IOException
+    {
+        final ChainGeometry geometry = ChainGeometry.of( KinematicChain.createDefaultArm() );
+        final Path directory = Path.of( System.getProperty( "java.io.tmpdir" ), "robosim" );
+        final int resolution = 64;
+        final long samples = 10_000_000;
+
+        long start = System.nanoTime();
+        final ReachabilityMap map = loadOrBuild( directory, geometry, resolution, samples );
+        System.out.printf( "Build/load of %s took %d ms%n", directory.resolve( fileName( geometry, resolution ) ),
+            (System.nanoTime() - start) / 1_000_000 );
+
+        start = System.nanoTime();
+        final ReachabilityMap reloaded = loadOrBuild( directory, geometry, resolution, samples );
+        System.out.printf( "Reload took %d ms, %d of %d voxels reachable (voxel size: %.2f)%n",
+            (System.nanoTime() - start) / 1_000_000, reloaded.reachableVoxels(), resolution * resolution * resolution, map.voxelSize() );
+
+        // compare against positions the arm can definitely reach
+        final ForwardKinematics fk = new ForwardKinematics( geometry );
+        final SplittableRandom rnd = new SplittableRandom( 42 );
+        final double[] angles = new double[geometry.jointCount];
+        final int queries = 1_000_000;
+        final double[] points = new double[queries * 3];
+        for ( int i = 0; i < queries; i++ )
+        {
+            for ( int j = 0; j < angles.length; j++ ) {
+                angles[j] = rnd.nextDouble() * 2 * Math.PI;
+            }
+            fk.compute( angles, 0 );
+            System.arraycopy( fk.tipPose(), 12, points, i * 3, 3 );
+        }
+        for ( int round = 0; round < 3; round++ )
+        {
+            int reachable = 0;
+            start = System.nanoTime();
+            for ( int i = 0; i < queries; i++ )
+            {
+                if ( reloaded.isReachable( points[i * 3], points[i * 3 + 1], points[i * 3 + 2] ) ) {
+                    reachable++;
+                }
+            }
+            final long nanos = System.nanoTime() - start;
+            System.out.printf( "%.1f ns/lookup, %.3f %% of reachable positions found%n",
+                nanos / (double) queries, 100.0 * reachable / queries );
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package de.codesourcery.robosim.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Lock-free histogram of non-negative long values (usually durations in nanoseconds).
+ *
+ * <p>Buckets are log-linear like in HdrHistogram: values below 32 get a bucket each, every power of two
+ * above that is split into 32 equally sized buckets. This keeps the relative error of reported percentiles
+ * below ~3% over the whole value range with a fixed number of buckets (less than 2000) and makes
+ * {@link #record(long)} a handful of instructions plus an atomic increment. Any number of threads may record
+ * and read concurrently; readers see a consistent-enough view for monitoring, not an atomic snapshot.</p>
+ */
+public final class Histogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = bucketIndex( Long.MAX_VALUE ) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong( Long.MAX_VALUE );
+    private final AtomicLong max = new AtomicLong( Long.MIN_VALUE );
+
+    static int bucketIndex(long value)
+    {
+        if ( value < SUB_BUCKETS ) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /*
+     * Smallest value that falls into a bucket.
+     */
+    static long bucketLowerBound(int index)
+    {
+        if ( index < SUB_BUCKETS ) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return ((long) (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+    }
+
+    /*
+     * Largest value that falls into a bucket.
+     */
+    static long bucketUpperBound(int index)
+    {
+        if ( index < SUB_BUCKETS ) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return bucketLowerBound( index ) + (1L << shift) - 1;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value value, negative values are recorded as 0
+     */
+    public void record(long value)
+    {
+        final long v = Math.max( 0, value );
+        counts.incrementAndGet( bucketIndex( v ) );
+        count.incrementAndGet();
+        sum.addAndGet( v );
+
+        long current;
+        while ( v < (current = min.get()) && ! min.compareAndSet( current, v ) ) {
+            // retry
+        }
+        while ( v > (current = max.get()) && ! max.compareAndSet( current, v ) ) {
+            // retry
+        }
+    }
+
+    public long count()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the smallest recorded value.
+     *
+     * @return value, 0 if nothing got recorded
+     */
+    public long min()
+    {
+        return count() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return value, 0 if nothing got recorded
+     */
+    public long max()
+    {
+        return count() == 0 ? 0 : max.get();
+    }
+
+    public double mean()
+    {
+        final long n = count();
+        return n == 0 ? 0 : sum.get() / (double) n;
+    }
+
+    /**
+     * Returns a percentile.
+     *
+     * @param percentile percentile in range [0,100]
+     * @return upper bound of the bucket containing the percentile (never more than {@link #max()}),
+     * 0 if nothing got recorded
+     */
+    public long percentile(double percentile)
+    {
+        Validate.isTrue( percentile >= 0 && percentile <= 100, "percentile must be in range [0,100]" );
+        final long n = count();
+        if ( n == 0 ) {
+            return 0;
+        }
+        final long rank = Math.max( 1, (long) Math.ceil( percentile / 100 * n ) );
+        long seen = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            seen += counts.get( i );
+            if ( seen >= rank ) {
+                return Math.min( bucketUpperBound( i ), max() );
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Clears all recorded values.
+     *
+     * <p>Values recorded concurrently with a reset may or may not survive it.</p>
+     */
+    public void reset()
+    {
+        for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+            counts.set( i, 0 );
+        }
+        count.set( 0 );
+        sum.set( 0 );
+        min.set( Long.MAX_VALUE );
+        max.set( Long.MIN_VALUE );
+    }
+
+    /**
+     * Returns a one-line summary.
+     *
+     * @param unit name of the unit values get printed in
+     * @param divisor divisor that converts recorded values to <code>unit</code> (1000 for nanoseconds to microseconds)
+     * @return summary
+     */
+    public String summary(String unit, double divisor)
+    {
+        return "n=%d, mean=%.1f%s, p50=%.1f%s, p90=%.1f%s, p99=%.1f%s, p99.9=%.1f%s, max=%.1f%s".formatted(
+            count(),
+            mean() / divisor, unit,
+            percentile( 50 ) / divisor, unit,
+            percentile( 90 ) / divisor, unit,
+            percentile( 99 ) / divisor, unit,
+            percentile( 99.9 ) / divisor, unit,
+            max() / divisor, unit );
+    }
+
+    @Override
+    public String toString()
+    {
+        return summary( "", 1 );
+    }
+}
@@ -0,0 +1,310 @@
+package de.codesourcery.robosim.metrics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.lang3.Validate;
+import de.codesourcery.robosim.HeadlessSimulation;
+
+/**
+ * Records how long the stages of a simulation/render tick take.
+ *
+ * <p>Instrumented code brackets a stage like this:</p>
+ * <pre>
+ * final long start = Instrumentation.start();
+ * ...
+ * Instrumentation.stop( Stage.MOTOR_TICK, start );
+ * </pre>
+ *
+ * <p>Durations (in nanoseconds) go into one lock-free {@link Histogram} per {@link Stage}. Instrumentation is
+ * switched on with the system property <code>robosim.instrumentation=true</code>. {@link #ENABLED} is a
+ * <code>static final</code> constant, so when disabled the JIT removes the timing code altogether. Statistics
+ * can be published as MBeans (see {@link #registerMBeans()}) and printed periodically
+ * (see {@link #startPeriodicDump(Duration, PrintStream)}).</p>
+ */
+public final class Instrumentation
+{
+    /** whether stages get timed, read once from the system property <code>robosim.instrumentation</code> */
+    public static final boolean ENABLED = Boolean.getBoolean( "robosim.instrumentation" );
+
+    /** domain of the MBeans' object names */
+    public static final String JMX_DOMAIN = "de.codesourcery.robosim";
+
+    public enum Stage
+    {
+        /** {@link de.codesourcery.robosim.motor.Motor#tick(double, double, double, boolean)} */
+        MOTOR_TICK("motorTick"),
+        /** one simulation step of all motors of a chain */
+        CONTROLLER_TICK("controllerTick"),
+        /** copying motor angles to bodies */
+        APPLY_MOTOR_ROTATIONS("applyMotorRotations"),
+        /**
+         * recomputing world transforms, by {@link de.codesourcery.robosim.render.SceneGraph#updateWorldMatrices()}
+         * or lazily by a {@link de.codesourcery.robosim.render.Body} (one sample per body and its outdated ancestors)
+         */
+        WORLD_TRANSFORMS("worldTransforms"),
+        /** {@link de.codesourcery.robosim.render.MeshRenderer#render()}, after the tick listener and camera update */
+        MESH_RENDER("meshRender");
+
+        public final String displayName;
+
+        Stage(String displayName)
+        {
+            this.displayName = displayName;
+        }
+    }
+
+    /**
+     * Statistics of a single stage as exposed through JMX, all durations are in nanoseconds.
+     */
+    public interface StageStatsMXBean
+    {
+        long getCount();
+
+        double getMean();
+
+        long getMin();
+
+        long getMax();
+
+        long getP50();
+
+        long getP90();
+
+        long getP99();
+
+        long getP999();
+
+        /**
+         * Clears the statistics, e.g. to get percentiles of a monitoring interval.
+         */
+        void reset();
+    }
+
+    private record StageStats(Histogram histogram) implements StageStatsMXBean
+    {
+        @Override
+        public long getCount()
+        {
+            return histogram.count();
+        }
+
+        @Override
+        public double getMean()
+        {
+            return histogram.mean();
+        }
+
+        @Override
+        public long getMin()
+        {
+            return histogram.min();
+        }
+
+        @Override
+        public long getMax()
+        {
+            return histogram.max();
+        }
+
+        @Override
+        public long getP50()
+        {
+            return histogram.percentile( 50 );
+        }
+
+        @Override
+        public long getP90()
+        {
+            return histogram.percentile( 90 );
+        }
+
+        @Override
+        public long getP99()
+        {
+            return histogram.percentile( 99 );
+        }
+
+        @Override
+        public long getP999()
+        {
+            return histogram.percentile( 99.9 );
+        }
+
+        @Override
+        public void reset()
+        {
+            histogram.reset();
+        }
+    }
+
+    private static final Map<Stage, Histogram> HISTOGRAMS = new EnumMap<>( Stage.class );
+    // indexed by Stage#ordinal(), avoids the map lookup when recording
+    private static final Histogram[] BY_ORDINAL;
+
+    private static boolean mbeansRegistered;
+    private static ScheduledExecutorService dumper;
+
+    static
+    {
+        BY_ORDINAL = new Histogram[Stage.values().length];
+        for ( Stage stage : Stage.values() )
+        {
+            BY_ORDINAL[stage.ordinal()] = new Histogram();
+            HISTOGRAMS.put( stage, BY_ORDINAL[stage.ordinal()] );
+        }
+    }
+
+    private Instrumentation()
+    {
+    }
+
+    /**
+     * Returns the start time of a stage.
+     *
+     * @return {@link System#nanoTime()}, 0 if disabled
+     */
+    public static long start()
+    {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the duration of a stage.
+     *
+     * @param stage stage
+     * @param start value returned by {@link #start()} when the stage began
+     */
+    public static void stop(Stage stage, long start)
+    {
+        if ( ENABLED ) {
+            BY_ORDINAL[stage.ordinal()].record( System.nanoTime() - start );
+        }
+    }
+
+    /**
+     * Returns the durations recorded for a stage.
+     *
+     * @param stage stage
+     * @return histogram (in nanoseconds)
+     */
+    public static Histogram histogram(Stage stage)
+    {
+        return HISTOGRAMS.get( stage );
+    }
+
+    /**
+     * Clears the statistics of all stages.
+     */
+    public static void reset()
+    {
+        HISTOGRAMS.values().forEach( Histogram::reset );
+    }
+
+    /**
+     * Returns the statistics of all stages that got recorded at least once, one line per stage.
+     *
+     * @return text
+     */
+    public static String dump()
+    {
+        final StringBuilder result = new StringBuilder();
+        HISTOGRAMS.forEach( (stage, histogram) -> {
+            if ( histogram.count() > 0 ) {
+                result.append( String.format( Locale.ROOT, "%-20s %s%n", stage.displayName, histogram.summary( "us", 1000 ) ) );
+            }
+        } );
+        return result.toString();
+    }
+
+    /**
+     * Registers an MBean per stage, named <code>de.codesourcery.robosim:type=Instrumentation,stage=&lt;name&gt;</code>.
+     *
+     * <p>Does nothing if instrumentation is disabled or the MBeans already got registered.</p>
+     */
+    public static synchronized void registerMBeans()
+    {
+        if ( ! ENABLED || mbeansRegistered ) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            for ( Map.Entry<Stage, Histogram> entry : HISTOGRAMS.entrySet() )
+            {
+                final ObjectName name = new ObjectName( JMX_DOMAIN + ":type=Instrumentation,stage=" + entry.getKey().displayName );
+                server.registerMBean( new StageStats( entry.getValue() ), name );
+            }
+        }
+        catch( JMException e )
+        {
+            throw new IllegalStateException( "Failed to register MBeans", e );
+        }
+        mbeansRegistered = true;
+    }
+
+    /**
+     * Prints {@link #dump()} periodically on a daemon thread.
+     *
+     * <p>Does nothing if instrumentation is disabled or dumping already got started.</p>
+     *
+     * @param interval interval
+     * @param out stream to print to
+     */
+    public static synchronized void startPeriodicDump(Duration interval, PrintStream out)
+    {
+        Validate.isTrue( interval.toMillis() > 0, "interval must be at least 1 ms" );
+        Validate.notNull( out, "out must not be null" );
+        if ( ! ENABLED || dumper != null ) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor( Thread.ofPlatform().name( "instrumentation-dump" ).daemon( true ).factory() );
+        dumper.scheduleAtFixedRate( () -> {
+            final String text = dump();
+            if ( ! text.isEmpty() ) {
+                out.print( text );
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Stops printing statistics.
+     */
+    public static synchronized void stopPeriodicDump()
+    {
+        if ( dumper != null )
+        {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    static void main() throws JMException
+    {
+        // run with and without -Drobosim.instrumentation=true to see the overhead
+        System.out.println( "instrumentation enabled: " + ENABLED );
+        registerMBeans();
+        final HeadlessSimulation sim = new HeadlessSimulation();
+        for ( int round = 0; round < 3; round++ )
+        {
+            reset();
+            System.out.println( sim.run( HeadlessSimulation.randomAngles( new Random( 0xdeadbeef ) ), 24 * 60 * 60 ) );
+        }
+        System.out.print( dump() );
+        if ( ENABLED )
+        {
+            final ObjectName name = new ObjectName( JMX_DOMAIN + ":type=Instrumentation,stage=" + Stage.MOTOR_TICK.displayName );
+            System.out.println( "JMX " + name + ": p99=" + ManagementFactory.getPlatformMBeanServer().getAttribute( name, "P99" ) + " ns" );
+        }
+    }
+}
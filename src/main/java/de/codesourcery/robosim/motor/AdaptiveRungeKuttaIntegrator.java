@@ -0,0 +1,97 @@
+package de.codesourcery.robosim.motor;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Error-controlled RK4 using step doubling.
+ *
+ * <p>Each step of the outer time step is taken once as a full RK4 step and once as two half steps,
+ * the difference between both serves as error estimate. Steps whose error exceeds the tolerance are
+ * retried with a smaller step size, the step size that worked is remembered for the next call.</p>
+ *
+ * <p>Instances carry state and must not be shared between motors, use {@link #newInstance()}.</p>
+ */
+public final class AdaptiveRungeKuttaIntegrator implements Integrator
+{
+    private static final double SAFETY = 0.9;
+
+    /** max. tolerated local error of the angle (in rad) per step */
+    private final double tolerance;
+    private final double minStep;
+
+    private final State full = new State();
+    private final State half = new State();
+
+    private double suggestedStep = Double.MAX_VALUE;
+
+    /** number of RK4 steps taken (including rejected ones) since construction */
+    public long evaluatedSteps;
+
+    public AdaptiveRungeKuttaIntegrator(double tolerance)
+    {
+        this( tolerance, 1e-6 );
+    }
+
+    public AdaptiveRungeKuttaIntegrator(double tolerance, double minStep)
+    {
+        Validate.isTrue( tolerance > 0, "tolerance must be > 0" );
+        Validate.isTrue( minStep > 0, "min step must be > 0" );
+        this.tolerance = tolerance;
+        this.minStep = minStep;
+    }
+
+    @Override
+    public void integrate(Dynamics dynamics, State state, double initialAcceleration, double dt)
+    {
+        double remaining = dt;
+        double acceleration = initialAcceleration;
+        while ( remaining > 0 )
+        {
+            final boolean truncated = remaining < suggestedStep;
+            final double h = truncated ? remaining : suggestedStep;
+
+            full.set( state.angle, state.angularVelocity );
+            RungeKutta4Integrator.step( dynamics, full, acceleration, h );
+
+            half.set( state.angle, state.angularVelocity );
+            RungeKutta4Integrator.step( dynamics, half, acceleration, h / 2 );
+            RungeKutta4Integrator.step( dynamics, half,
+                dynamics.angularAcceleration( half.angle, half.angularVelocity ), h / 2 );
+            evaluatedSteps += 3;
+
+            final double error = Math.abs( half.angle - full.angle );
+            if ( error <= tolerance || h <= minStep )
+            {
+                // accept, use Richardson extrapolation of both results
+                state.angle = half.angle + (half.angle - full.angle) / 15;
+                state.angularVelocity = dynamics.limitVelocity( half.angularVelocity + (half.angularVelocity - full.angularVelocity) / 15 );
+                remaining -= h;
+                if ( remaining > 0 ) {
+                    acceleration = dynamics.angularAcceleration( state.angle, state.angularVelocity );
+                }
+                // RK4 local error scales with h^5
+                final double grow = error == 0 ? 4 : Math.min( 4, SAFETY * Math.pow( tolerance / error, 0.2 ) );
+                if ( ! truncated ) {
+                    suggestedStep = Math.max( minStep, h * grow );
+                }
+            }
+            else
+            {
+                final double shrink = Math.max( 0.1, SAFETY * Math.pow( tolerance / error, 0.25 ) );
+                suggestedStep = Math.max( minStep, h * shrink );
+            }
+        }
+    }
+
+    @Override
+    public Integrator newInstance()
+    {
+        return new AdaptiveRungeKuttaIntegrator( tolerance, minStep );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "adaptive RK4 (tolerance: " + tolerance + ")";
+    }
+}
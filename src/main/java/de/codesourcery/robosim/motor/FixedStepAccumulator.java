@@ -0,0 +1,112 @@
+package de.codesourcery.robosim.motor;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Converts (wall-clock) elapsed time into a number of fixed-size simulation sub-steps.
+ *
+ * <p>Elapsed time gets scaled by {@link #timeScale(double)} and added to an accumulator,
+ * {@link #advance(double)} then returns how many whole sub-steps of {@link #fixedStep()} seconds
+ * fit into it. Time that does not fill a whole sub-step is carried over to the next call.
+ * To avoid a spiral of death when the simulation can't keep up, at most {@link #maxSubSteps()}
+ * sub-steps are returned per call and any excess time is dropped.</p>
+ *
+ * <p>The interactive simulation loops don't use this class, they get paced by a
+ * {@link de.codesourcery.robosim.FixedRateScheduler} that runs one fixed step per tick and handles catching up
+ * itself. It is meant for offline runs that need to turn a span of (simulated) time into fixed steps, like
+ * {@link IntegratorComparison}.</p>
+ *
+ * <p>Instances are not thread-safe.</p>
+ */
+public final class FixedStepAccumulator
+{
+    private final double fixedStep;
+    private final int maxSubSteps;
+
+    private double timeScale = 1;
+    private double accumulator;
+
+    /** Simulated seconds that got dropped because the max. number of sub-steps was exceeded */
+    private double droppedSeconds;
+
+    public FixedStepAccumulator(double fixedStep, int maxSubSteps)
+    {
+        Validate.isTrue( fixedStep > 0, "fixed step must be > 0" );
+        Validate.isTrue( maxSubSteps > 0, "max. sub-steps must be > 0" );
+        this.fixedStep = fixedStep;
+        this.maxSubSteps = maxSubSteps;
+    }
+
+    /**
+     * Sets the factor by which elapsed time gets multiplied before being turned into simulation steps.
+     *
+     * @param factor factor, 1 means real-time
+     * @return this instance (for chaining)
+     */
+    public FixedStepAccumulator timeScale(double factor)
+    {
+        Validate.isTrue( factor > 0, "time scale must be > 0" );
+        this.timeScale = factor;
+        return this;
+    }
+
+    /**
+     * Adds elapsed time.
+     *
+     * @param elapsedSeconds elapsed time in seconds
+     * @return number of fixed sub-steps to simulate now
+     */
+    public int advance(double elapsedSeconds)
+    {
+        accumulator += Math.max( 0, elapsedSeconds ) * timeScale;
+        int steps = (int) (accumulator / fixedStep);
+        if ( steps > maxSubSteps )
+        {
+            droppedSeconds += (steps - maxSubSteps) * fixedStep;
+            steps = maxSubSteps;
+            accumulator -= (long) (accumulator / fixedStep) * fixedStep;
+        }
+        else
+        {
+            accumulator -= steps * fixedStep;
+        }
+        return steps;
+    }
+
+    /**
+     * Returns how far the simulation is between the last and the next sub-step,
+     * useful for interpolating rendered state.
+     *
+     * @return value in [0,1)
+     */
+    public double alpha()
+    {
+        return accumulator / fixedStep;
+    }
+
+    public double fixedStep()
+    {
+        return fixedStep;
+    }
+
+    public int maxSubSteps()
+    {
+        return maxSubSteps;
+    }
+
+    public double timeScale()
+    {
+        return timeScale;
+    }
+
+    public double droppedSeconds()
+    {
+        return droppedSeconds;
+    }
+
+    public void reset()
+    {
+        accumulator = 0;
+        droppedSeconds = 0;
+    }
+}
@@ -0,0 +1,82 @@
+package de.codesourcery.robosim.motor;
+
+/**
+ * Numerical integration scheme used to advance a motor's angle and angular velocity.
+ *
+ * @see Motor#setIntegrator(Integrator)
+ */
+public interface Integrator
+{
+    /**
+     * The equations of motion being integrated.
+     */
+    interface Dynamics
+    {
+        /**
+         * Returns the rate of change of the angle.
+         *
+         * @param angularVelocity angular velocity in rad/s
+         * @return angle change in rad/s
+         */
+        double angleRate(double angularVelocity);
+
+        /**
+         * Returns the angular acceleration for a given state.
+         *
+         * @param angle angle in rad
+         * @param angularVelocity angular velocity in rad/s
+         * @return angular acceleration in rad/s²
+         */
+        double angularAcceleration(double angle, double angularVelocity);
+
+        /**
+         * Applies velocity limits, schemes must call this for every velocity before using it
+         * to advance the angle.
+         *
+         * @param angularVelocity angular velocity in rad/s
+         * @return limited angular velocity in rad/s
+         */
+        default double limitVelocity(double angularVelocity) {
+            return angularVelocity;
+        }
+    }
+
+    /**
+     * Mutable integration state.
+     */
+    final class State
+    {
+        public double angle;
+        public double angularVelocity;
+
+        public State set(double angle, double angularVelocity)
+        {
+            this.angle = angle;
+            this.angularVelocity = angularVelocity;
+            return this;
+        }
+    }
+
+    /**
+     * Advances the state by one time step.
+     *
+     * @param dynamics equations of motion
+     * @param state state to advance (MUTATED in place)
+     * @param initialAcceleration angular acceleration at the start of the step, as sampled by the
+     *                            motor's controller. Schemes use this instead of evaluating
+     *                            <code>dynamics</code> at the initial state
+     * @param dt time step in seconds
+     */
+    void integrate(Dynamics dynamics, State state, double initialAcceleration, double dt);
+
+    /**
+     * Returns a new instance of this integrator for use by another motor.
+     *
+     * <p>Stateless schemes may return themselves.</p>
+     *
+     * @return integrator
+     */
+    default Integrator newInstance() {
+        return this;
+    }
+}
@@ -0,0 +1,53 @@
+package de.codesourcery.robosim.motor;
+
+import java.util.List;
+
+/**
+ * Compares accuracy and cost of the available integrators against a
+ * fine-grained RK4 reference solution.
+ */
+public class IntegratorComparison
+{
+    private static final double SIMULATED_SECONDS = 60;
+    private static final double TARGET_ANGLE = Math.PI / 2;
+
+    private static double[] simulate(Integrator integrator, double dt)
+    {
+        final Motor motor = new Motor( "test" );
+        motor.breakOnOverTemperature = false;
+        motor.setIntegrator( integrator );
+        motor.setDesiredAngle( TARGET_ANGLE );
+
+        final FixedStepAccumulator clock = new FixedStepAccumulator( dt, Integer.MAX_VALUE );
+        final int steps = clock.advance( SIMULATED_SECONDS );
+        final long start = System.nanoTime();
+        for ( int i = 0; i < steps; i++ )
+        {
+            motor.tick( clock.fixedStep() );
+        }
+        final long elapsed = System.nanoTime() - start;
+        return new double[]{ motor.currentAngle, elapsed / 1_000_000d };
+    }
+
+    static void main()
+    {
+        final double reference = simulate( RungeKutta4Integrator.INSTANCE, 0.0005 )[0];
+        System.out.printf( "Reference angle after %.0f s: %.9f rad%n", SIMULATED_SECONDS, reference );
+
+        final List<Integrator> integrators = List.of(
+            SemiImplicitEulerIntegrator.INSTANCE,
+            RungeKutta4Integrator.INSTANCE,
+            new AdaptiveRungeKuttaIntegrator( 1e-6 ) );
+
+        for ( double dt : new double[]{ 0.3, 0.1, 0.01, 0.001 } )
+        {
+            for ( Integrator integrator : integrators )
+            {
+                simulate( integrator, dt ); // warm-up
+                final double[] result = simulate( integrator, dt );
+                System.out.printf( "dt=%-6s %-35s error: %.3e rad, time: %.2f ms%n",
+                    dt, integrator, Math.abs( result[0] - reference ), result[1] );
+            }
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package de.codesourcery.robosim.motor;
 
+import org.apache.commons.lang3.Validate;
 import de.codesourcery.robosim.Utils;
+import de.codesourcery.robosim.metrics.Instrumentation;
 
 public class Motor
 {
-    private final Pid pid = new Pid();
+    private final Pid pid;
 
     public enum MotorState {
         BROKEN_MAX_TORQUE_EXCEEDED,
@@ -64,6 +66,12 @@ public class Motor
     /** ambient temperature in degrees */
     public double ambientTemperature = 20;
 
+    /** Whether this motor may go to sleep once it has settled at its desired angle */
+    public boolean sleepingEnabled = true;
+
+    /** How many seconds the motor needs to have been settled before it goes to sleep */
+    public double sleepThreshold = 1.0;
+
     /* ------------------------------
      * Transient simulation properties
      * ------------------------------
@@ -87,6 +95,9 @@ public class Motor
      */
     public double externalTorque;
 
+    /** Net torque (motor torque minus external torque) in kg*cm during the last tick */
+    public double currentTorque;
+
     /** Current motor state. */
     public MotorState motorState = MotorState.OPERATIONAL;
 
@@ -105,9 +116,67 @@ public class Motor
     /** Total over-temperature time in seconds since reset() */
     public double totalOvertemperatureTime;
 
+    /* ------------------------------
+     * Sleeping
+     * ------------------------------
+     */
+    private boolean sleeping;
+
+    // seconds this motor has been at its desired angle without interruption
+    private double settledTime;
+
+    // external torque when the motor went to sleep, any change wakes it up again
+    private double sleepExternalTorque;
+
+    // seconds spent sleeping that have not been applied to the thermal model yet
+    private double pendingSleepSeconds;
+
+    /* ------------------------------
+     * Numerical integration
+     * ------------------------------
+     */
+    private Integrator integrator = SemiImplicitEulerIntegrator.INSTANCE;
+
+    private final Integrator.State integrationState = new Integrator.State();
+
+    // max. torque during the current tick, needed when evaluating the dynamics
+    private double stepMaxTorque;
+
+    private final Integrator.Dynamics dynamics = new Integrator.Dynamics()
+    {
+        @Override
+        public double angleRate(double angularVelocity)
+        {
+            return angularVelocity / gearRatioDenominator;
+        }
+
+        @Override
+        public double angularAcceleration(double angle, double angularVelocity)
+        {
+            final double error = desiredAngle - angle;
+            final double errorRate = -angleRate( angularVelocity );
+            final double motorTorque = pid.evaluate( error, errorRate ) * stepMaxTorque * frictionFactor;
+            return (motorTorque - externalTorque) / systemInertia;
+        }
+
+        @Override
+        public double limitVelocity(double angularVelocity)
+        {
+            final double maxVelocity = maxRPM * 2 * Math.PI * 60;
+            return Utils.clamp( angularVelocity, -maxVelocity, maxVelocity );
+        }
+    };
+
     public Motor(String name)
     {
+        this( name, new Pid() );
+    }
+
+    public Motor(String name, Pid pid)
+    {
+        Validate.notNull( pid, "pid must not be null" );
         this.name = name;
+        this.pid = pid;
         reset();
     }
 
@@ -152,9 +221,25 @@ public class Motor
      * @param clampToMinMaxAngles
      */
     public void tick(double elapsedSeconds, double minAngleInclusive, double maxAngleInclusive, boolean clampToMinMaxAngles)
+    {
+        final long start = Instrumentation.start();
+        doTick( elapsedSeconds, minAngleInclusive, maxAngleInclusive, clampToMinMaxAngles );
+        Instrumentation.stop( Instrumentation.Stage.MOTOR_TICK, start );
+    }
+
+    private void doTick(double elapsedSeconds, double minAngleInclusive, double maxAngleInclusive, boolean clampToMinMaxAngles)
     {
         this.elapsedSeconds += elapsedSeconds;
 
+        if ( sleeping )
+        {
+            if ( externalTorque == sleepExternalTorque ) {
+                pendingSleepSeconds += elapsedSeconds;
+                return;
+            }
+            wakeUp();
+        }
+
         if ( breakOnOverload && Math.abs( externalTorque ) > stallTorque ) {
             markBroken(MotorState.BROKEN_MAX_TORQUE_EXCEEDED);
         }
@@ -189,22 +274,26 @@ public class Motor
         }
 
         if ( isBroken() ) {
+            this.currentTorque = 0;
             return;
         }
 
         final double motorTorque = pidTorque * this.frictionFactor;
         final double netTorque = motorTorque - this.externalTorque;
+        this.currentTorque = netTorque;
 
         if ( Math.abs( netTorque ) > stallTorque ) {
             markBroken(MotorState.BROKEN_MAX_TORQUE_EXCEEDED);
         }
 
         final double angularAcceleration = netTorque / this.systemInertia;
-        final double speedDelta = angularAcceleration*elapsedSeconds;
-        double newAngularVelocity = this.currentAngularVelocity + speedDelta;
-        double rpm = Math.min( maxRPM, (newAngularVelocity/(2*Math.PI*60)));
-        newAngularVelocity = rpm*2*Math.PI*60;
-        double newAngle = currentAngle + (newAngularVelocity * elapsedSeconds) / gearRatioDenominator;
+        this.stepMaxTorque = maxTorque;
+        integrationState.set( currentAngle, currentAngularVelocity );
+        integrator.integrate( dynamics, integrationState, angularAcceleration, elapsedSeconds );
+
+        // integrators limit the velocity before advancing the angle
+        final double newAngularVelocity = integrationState.angularVelocity;
+        final double newAngle = integrationState.angle;
 
         final boolean stalled =
             clampToMinMaxAngles && (newAngle < minAngleInclusive || newAngle > maxAngleInclusive);
@@ -221,16 +310,85 @@ public class Motor
             this.currentAngularVelocity = newAngularVelocity;
             this.currentAngle = newAngle;
         }
+
+        if ( sleepingEnabled && ! stalled && currentTemperature <= maxTemperature && hasArrivedAtDestinationAngle() )
+        {
+            settledTime += elapsedSeconds;
+            if ( settledTime >= sleepThreshold ) {
+                goToSleep();
+            }
+        } else {
+            settledTime = 0;
+        }
+    }
+
+    private void goToSleep()
+    {
+        this.sleeping = true;
+        this.sleepExternalTorque = externalTorque;
+        this.currentAngularVelocity = 0;
+        this.currentTorque = 0;
+        this.pendingSleepSeconds = 0;
+    }
+
+    /**
+     * Returns whether this motor is sleeping.
+     *
+     * <p>A sleeping motor has settled at its desired angle and skips all simulation
+     * work in {@link #tick(double, double, double, boolean)} except for accumulating the elapsed
+     * time. It wakes up when the desired angle or the external torque changes.</p>
+     *
+     * @return <code>true</code> if sleeping
+     */
+    public boolean isSleeping()
+    {
+        return sleeping;
+    }
+
+    /**
+     * Wakes up this motor (if sleeping).
+     */
+    public void wakeUp()
+    {
+        if ( sleeping )
+        {
+            catchUpSleepTime();
+            sleeping = false;
+            settledTime = 0;
+        }
+    }
+
+    /**
+     * Applies the cool-down that happened while this motor was sleeping to
+     * {@link #currentTemperature}.
+     *
+     * <p>Sleeping motors generate no heat, so the temperature decays exponentially towards the ambient
+     * temperature and gets updated in O(1) regardless of how long the motor has been sleeping.
+     * Call this before reading the temperature of a sleeping motor.</p>
+     */
+    public void catchUpSleepTime()
+    {
+        if ( pendingSleepSeconds > 0 )
+        {
+            final double decay = Math.exp( -500 * pendingSleepSeconds / thermalMass );
+            currentTemperature = ambientTemperature + (currentTemperature - ambientTemperature) * decay;
+            pendingSleepSeconds = 0;
+        }
     }
 
     public void reset()
     {
         this.pid.reset();
 
+        this.sleeping = false;
+        this.settledTime = 0;
+        this.pendingSleepSeconds = 0;
+
         this.externalTorque = 0;
         this.motorState = MotorState.OPERATIONAL;
         this.currentAngle = 0;
         this.currentAngularVelocity = 0;
+        this.currentTorque = 0;
         this.currentTemperature = ambientTemperature;
         this.elapsedSeconds = 0;
 
@@ -241,6 +399,22 @@ public class Motor
         this.totalOvertemperatureTime = 0;
     }
 
+    public Integrator getIntegrator()
+    {
+        return integrator;
+    }
+
+    /**
+     * Sets the numerical integration scheme used by {@link #tick(double, double, double, boolean)}.
+     *
+     * @param integrator integrator, stateful integrators get {@link Integrator#newInstance() copied}
+     */
+    public void setIntegrator(Integrator integrator)
+    {
+        Validate.notNull( integrator, "integrator must not be null" );
+        this.integrator = integrator.newInstance();
+    }
+
     public double getDesiredAngle()
     {
         return desiredAngle;
@@ -248,12 +422,37 @@ public class Motor
 
     public void setDesiredAngle(double desiredAngle)
     {
-        while( desiredAngle < 0 ) {
-            desiredAngle += 2*Math.PI;
-        }
-        while( desiredAngle > 2*Math.PI ) {
-            desiredAngle -= 2*Math.PI;
+        setDesiredAngleExact( normalizeAngle( desiredAngle ) );
+    }
+
+    /**
+     * Sets the desired angle as is, without normalizing it to [0,2*PI].
+     *
+     * <p>Needed when the motor must end up at a specific representative of an angle, e.g. a negative
+     * angle within a joint's limits.</p>
+     *
+     * @param desiredAngle angle in rad
+     */
+    public void setDesiredAngleExact(double desiredAngle)
+    {
+        if ( desiredAngle != this.desiredAngle ) {
+            wakeUp();
         }
         this.desiredAngle = desiredAngle;
     }
+
+    Pid pid() {
+        return pid;
+    }
+
+    static double normalizeAngle(double angle)
+    {
+        while( angle < 0 ) {
+            angle += 2*Math.PI;
+        }
+        while( angle > 2*Math.PI ) {
+            angle -= 2*Math.PI;
+        }
+        return angle;
+    }
 }
\ No newline at end of file
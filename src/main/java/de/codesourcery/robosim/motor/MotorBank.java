@@ -0,0 +1,614 @@
+package de.codesourcery.robosim.motor;
+
+import java.util.Arrays;
+import org.apache.commons.lang3.Validate;
+import de.codesourcery.robosim.Utils;
+
+/**
+ * Structure-of-arrays storage for many motors that get advanced in a single pass.
+ *
+ * <p>Every motor property and every bit of PID state lives in a primitive column indexed
+ * by the motor's slot number, so {@link #tick(double)} walks a handful of contiguous arrays
+ * without touching any {@link Motor} or {@link Pid} object and without allocating.</p>
+ *
+ * <p>The simulation produces the same results as {@link Motor#tick(double, double, double, boolean)}
+ * (up to floating-point rounding, divisors are pre-computed as reciprocals). Motors may be {@link #add(Motor) bound} to a bank,
+ * {@link #copyToMotors()} then writes the simulated state back so existing code that reads
+ * {@code Joint.motor} keeps working; {@link #view(int)} offers direct accessor-style access
+ * to a single slot.</p>
+ *
+ * <p>The bank always integrates with the {@link SemiImplicitEulerIntegrator semi-implicit Euler} scheme,
+ * regardless of the {@link Motor#getIntegrator() integrator} configured on a motor, and motors in a bank
+ * never {@link Motor#isSleeping() go to sleep}.</p>
+ *
+ * <p>Instances are not thread-safe.</p>
+ */
+public final class MotorBank
+{
+    private static final double TWO_PI_TIMES_60 = 2 * Math.PI * 60;
+    private static final double INVERSE_TWO_PI_TIMES_60 = 1.0 / TWO_PI_TIMES_60;
+
+    private static final byte OPERATIONAL = (byte) Motor.MotorState.OPERATIONAL.ordinal();
+    private static final byte BROKEN_MAX_TORQUE_EXCEEDED = (byte) Motor.MotorState.BROKEN_MAX_TORQUE_EXCEEDED.ordinal();
+    private static final byte BROKEN_MAX_TEMPERATURE_EXCEEDED = (byte) Motor.MotorState.BROKEN_MAX_TEMPERATURE_EXCEEDED.ordinal();
+
+    private static final Motor.MotorState[] STATES = Motor.MotorState.values();
+
+    private int size;
+
+    // motors bound to slots (may contain NULL entries)
+    private Motor[] motors;
+
+    // physical properties (divisors are stored as reciprocals)
+    private double[] stallTorque;
+    private double[] ratedTorque;
+    private double[] inverseGearRatioDenominator;
+    private double[] maxRPM;
+    private double[] maxTemperature;
+    private double[] maxOvertemperatureTime;
+    private double[] frictionFactor;
+    private double[] inverseSystemInertia;
+    private double[] inverseThermalMass;
+    private double[] ambientTemperature;
+    private boolean[] breakOnOverTemperature;
+    private boolean[] breakOnOverload;
+
+    // angle limits
+    private double[] minAngle;
+    private double[] maxAngle;
+    private boolean[] clampToMinMaxAngles;
+
+    // PID gains & state
+    private double[] kp;
+    private double[] ki;
+    private double[] kd;
+    private double[] integral;
+    private double[] lastError;
+
+    // transient simulation state
+    private double[] currentAngle;
+    private double[] desiredAngle;
+    private double[] currentAngularVelocity;
+    private double[] elapsedSeconds;
+    private double[] externalTorque;
+    private double[] stallTime;
+    private double[] totalStallTime;
+    private double[] currentTemperature;
+    private double[] overtemperatureTime;
+    private double[] totalOvertemperatureTime;
+    private byte[] motorState;
+
+    // scratch column, torque requested by the PID controller during the current tick
+    private double[] pidTorque;
+
+    public MotorBank(int initialCapacity)
+    {
+        Validate.isTrue( initialCapacity > 0, "capacity must be > 0" );
+        allocate( initialCapacity );
+    }
+
+    private void allocate(int capacity)
+    {
+        motors = new Motor[capacity];
+
+        stallTorque = new double[capacity];
+        ratedTorque = new double[capacity];
+        inverseGearRatioDenominator = new double[capacity];
+        maxRPM = new double[capacity];
+        maxTemperature = new double[capacity];
+        maxOvertemperatureTime = new double[capacity];
+        frictionFactor = new double[capacity];
+        inverseSystemInertia = new double[capacity];
+        inverseThermalMass = new double[capacity];
+        ambientTemperature = new double[capacity];
+        breakOnOverTemperature = new boolean[capacity];
+        breakOnOverload = new boolean[capacity];
+
+        minAngle = new double[capacity];
+        maxAngle = new double[capacity];
+        clampToMinMaxAngles = new boolean[capacity];
+
+        kp = new double[capacity];
+        ki = new double[capacity];
+        kd = new double[capacity];
+        integral = new double[capacity];
+        lastError = new double[capacity];
+
+        currentAngle = new double[capacity];
+        desiredAngle = new double[capacity];
+        currentAngularVelocity = new double[capacity];
+        elapsedSeconds = new double[capacity];
+        externalTorque = new double[capacity];
+        stallTime = new double[capacity];
+        totalStallTime = new double[capacity];
+        currentTemperature = new double[capacity];
+        overtemperatureTime = new double[capacity];
+        totalOvertemperatureTime = new double[capacity];
+        motorState = new byte[capacity];
+        pidTorque = new double[capacity];
+    }
+
+    private void ensureCapacity(int required)
+    {
+        final int capacity = motors.length;
+        if ( required <= capacity ) {
+            return;
+        }
+        final int newCapacity = Math.max( required, capacity * 2 );
+
+        motors = Arrays.copyOf( motors, newCapacity );
+
+        stallTorque = Arrays.copyOf( stallTorque, newCapacity );
+        ratedTorque = Arrays.copyOf( ratedTorque, newCapacity );
+        inverseGearRatioDenominator = Arrays.copyOf( inverseGearRatioDenominator, newCapacity );
+        maxRPM = Arrays.copyOf( maxRPM, newCapacity );
+        maxTemperature = Arrays.copyOf( maxTemperature, newCapacity );
+        maxOvertemperatureTime = Arrays.copyOf( maxOvertemperatureTime, newCapacity );
+        frictionFactor = Arrays.copyOf( frictionFactor, newCapacity );
+        inverseSystemInertia = Arrays.copyOf( inverseSystemInertia, newCapacity );
+        inverseThermalMass = Arrays.copyOf( inverseThermalMass, newCapacity );
+        ambientTemperature = Arrays.copyOf( ambientTemperature, newCapacity );
+        breakOnOverTemperature = Arrays.copyOf( breakOnOverTemperature, newCapacity );
+        breakOnOverload = Arrays.copyOf( breakOnOverload, newCapacity );
+
+        minAngle = Arrays.copyOf( minAngle, newCapacity );
+        maxAngle = Arrays.copyOf( maxAngle, newCapacity );
+        clampToMinMaxAngles = Arrays.copyOf( clampToMinMaxAngles, newCapacity );
+
+        kp = Arrays.copyOf( kp, newCapacity );
+        ki = Arrays.copyOf( ki, newCapacity );
+        kd = Arrays.copyOf( kd, newCapacity );
+        integral = Arrays.copyOf( integral, newCapacity );
+        lastError = Arrays.copyOf( lastError, newCapacity );
+
+        currentAngle = Arrays.copyOf( currentAngle, newCapacity );
+        desiredAngle = Arrays.copyOf( desiredAngle, newCapacity );
+        currentAngularVelocity = Arrays.copyOf( currentAngularVelocity, newCapacity );
+        elapsedSeconds = Arrays.copyOf( elapsedSeconds, newCapacity );
+        externalTorque = Arrays.copyOf( externalTorque, newCapacity );
+        stallTime = Arrays.copyOf( stallTime, newCapacity );
+        totalStallTime = Arrays.copyOf( totalStallTime, newCapacity );
+        currentTemperature = Arrays.copyOf( currentTemperature, newCapacity );
+        overtemperatureTime = Arrays.copyOf( overtemperatureTime, newCapacity );
+        totalOvertemperatureTime = Arrays.copyOf( totalOvertemperatureTime, newCapacity );
+        motorState = Arrays.copyOf( motorState, newCapacity );
+        pidTorque = new double[newCapacity];
+    }
+
+    /**
+     * Adds a motor to this bank, copying its configuration and current state.
+     *
+     * @param motor motor to add, stays bound to the returned slot
+     * @return slot index of the motor
+     * @see #copyToMotors()
+     */
+    public int add(Motor motor)
+    {
+        return add( motor, 0, 0, false );
+    }
+
+    /**
+     * Adds a motor to this bank, copying its configuration and current state.
+     *
+     * @param motor motor to add, stays bound to the returned slot
+     * @param minAngleInclusive min. angle in rad
+     * @param maxAngleInclusive max. angle in rad
+     * @param clampToMinMaxAngles whether to clamp the motor angle to the min/max angle
+     * @return slot index of the motor
+     */
+    public int add(Motor motor, double minAngleInclusive, double maxAngleInclusive, boolean clampToMinMaxAngles)
+    {
+        Validate.notNull( motor, "motor must not be null" );
+        ensureCapacity( size + 1 );
+        final int idx = size++;
+        motors[idx] = motor;
+        copyFromMotor( idx );
+        setAngleLimits( idx, minAngleInclusive, maxAngleInclusive, clampToMinMaxAngles );
+        return idx;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void setAngleLimits(int idx, double minAngleInclusive, double maxAngleInclusive, boolean clamp)
+    {
+        checkIndex( idx );
+        this.minAngle[idx] = minAngleInclusive;
+        this.maxAngle[idx] = maxAngleInclusive;
+        this.clampToMinMaxAngles[idx] = clamp;
+    }
+
+    /**
+     * (Re-)reads configuration and state of the motor bound to a slot.
+     *
+     * @param idx slot index
+     */
+    public void copyFromMotor(int idx)
+    {
+        checkIndex( idx );
+        final Motor m = motors[idx];
+        Validate.notNull( m, "No motor bound to slot " + idx );
+
+        stallTorque[idx] = m.stallTorque;
+        ratedTorque[idx] = m.ratedTorque;
+        inverseGearRatioDenominator[idx] = 1.0 / m.gearRatioDenominator;
+        maxRPM[idx] = m.maxRPM;
+        maxTemperature[idx] = m.maxTemperature;
+        maxOvertemperatureTime[idx] = m.maxOvertemperatureTime;
+        frictionFactor[idx] = m.frictionFactor;
+        inverseSystemInertia[idx] = 1.0 / m.systemInertia;
+        inverseThermalMass[idx] = 1.0 / m.thermalMass;
+        ambientTemperature[idx] = m.ambientTemperature;
+        breakOnOverTemperature[idx] = m.breakOnOverTemperature;
+        breakOnOverload[idx] = m.breakOnOverload;
+
+        final Pid pid = m.pid();
+        kp[idx] = pid.kp();
+        ki[idx] = pid.ki();
+        kd[idx] = pid.kd();
+        integral[idx] = pid.integral();
+        lastError[idx] = pid.lastError();
+
+        currentAngle[idx] = m.currentAngle;
+        desiredAngle[idx] = m.getDesiredAngle();
+        currentAngularVelocity[idx] = m.currentAngularVelocity;
+        elapsedSeconds[idx] = m.elapsedSeconds;
+        externalTorque[idx] = m.externalTorque;
+        stallTime[idx] = m.stallTime;
+        totalStallTime[idx] = m.totalStallTime;
+        currentTemperature[idx] = m.currentTemperature;
+        overtemperatureTime[idx] = m.overtemperatureTime;
+        totalOvertemperatureTime[idx] = m.totalOvertemperatureTime;
+        motorState[idx] = (byte) m.motorState.ordinal();
+    }
+
+    /**
+     * Writes the transient simulation state of a slot back to the motor bound to it.
+     *
+     * @param idx slot index
+     */
+    public void copyToMotor(int idx)
+    {
+        checkIndex( idx );
+        final Motor m = motors[idx];
+        if ( m == null ) {
+            return;
+        }
+        m.pid().setState( integral[idx], lastError[idx] );
+        m.currentAngle = currentAngle[idx];
+        m.setDesiredAngle( desiredAngle[idx] );
+        m.currentAngularVelocity = currentAngularVelocity[idx];
+        m.elapsedSeconds = elapsedSeconds[idx];
+        m.externalTorque = externalTorque[idx];
+        m.stallTime = stallTime[idx];
+        m.totalStallTime = totalStallTime[idx];
+        m.currentTemperature = currentTemperature[idx];
+        m.overtemperatureTime = overtemperatureTime[idx];
+        m.totalOvertemperatureTime = totalOvertemperatureTime[idx];
+        m.motorState = STATES[motorState[idx]];
+    }
+
+    /**
+     * Writes the transient simulation state of all slots back to their bound motors.
+     */
+    public void copyToMotors()
+    {
+        for ( int i = 0; i < size; i++ )
+        {
+            copyToMotor( i );
+        }
+    }
+
+    /**
+     * Advances all motors in this bank by one time step.
+     *
+     * <p>The step is split into three passes (controller, thermal model, dynamics) that each
+     * touch only a few columns, which keeps the loops short enough for the JIT to unroll
+     * and hoist bounds checks.</p>
+     *
+     * @param dt elapsed time in seconds
+     * @see Motor#tick(double, double, double, boolean)
+     */
+    public void tick(double dt)
+    {
+        final int n = size;
+        tickController( n, dt );
+        tickThermals( n, dt );
+        tickDynamics( n, dt );
+    }
+
+    /*
+     * Overload check + PID controller (same as Pid#step()), leaves the torque
+     * requested by the controller in the pidTorque column.
+     */
+    private void tickController(int n, double dt)
+    {
+        final double[] elapsedSeconds = this.elapsedSeconds;
+        final double[] externalTorque = this.externalTorque;
+        final double[] stallTorque = this.stallTorque;
+        final double[] ratedTorque = this.ratedTorque;
+        final double[] currentAngle = this.currentAngle;
+        final double[] desiredAngle = this.desiredAngle;
+        final double[] kp = this.kp;
+        final double[] ki = this.ki;
+        final double[] kd = this.kd;
+        final double inverseDt = 1.0 / dt;
+        final double[] integral = this.integral;
+        final double[] lastError = this.lastError;
+        final double[] pidTorque = this.pidTorque;
+        final byte[] motorState = this.motorState;
+
+        for ( int i = 0; i < n; i++ )
+        {
+            elapsedSeconds[i] += dt;
+
+            final double absExtTorque = Math.abs( externalTorque[i] );
+            if ( absExtTorque > stallTorque[i] && breakOnOverload[i] ) {
+                markBroken( i, BROKEN_MAX_TORQUE_EXCEEDED );
+            }
+
+            double torqueFactor = 0;
+            if ( motorState[i] == OPERATIONAL && dt > 0.0 )
+            {
+                final double error = desiredAngle[i] - currentAngle[i];
+                final double pTerm = kp[i] * error;
+                final double dTerm = kd[i] * ((error - lastError[i]) * inverseDt);
+
+                final double potentialIntegral = integral[i] + error * dt;
+                final double potentialOutput = pTerm + ki[i] * potentialIntegral + dTerm;
+                // non-short-circuit operators so the JIT can emit conditional moves instead of branches
+                final boolean isWindupPrevented = (potentialOutput > 1.0 & error > 0) |
+                                                  (potentialOutput < -1.0 & error < 0);
+                final double newIntegral = isWindupPrevented ? integral[i] : potentialIntegral;
+                integral[i] = newIntegral;
+                lastError[i] = error;
+
+                final double output = pTerm + ki[i] * newIntegral + dTerm;
+                torqueFactor = output > 1.0 ? 1.0 : (output < -1.0 ? -1.0 : output);
+            }
+            final double maxTorque = Math.max( ratedTorque[i], Math.min( absExtTorque, stallTorque[i] ) );
+            pidTorque[i] = torqueFactor * maxTorque;
+        }
+    }
+
+    private void tickThermals(int n, double dt)
+    {
+        final double clampedDt = Math.max( 0.000000001, dt );
+        final double inverseClampedDt = 1.0 / clampedDt;
+        final double[] pidTorque = this.pidTorque;
+        final double[] currentTemperature = this.currentTemperature;
+        final double[] ambientTemperature = this.ambientTemperature;
+        final double[] inverseThermalMass = this.inverseThermalMass;
+        final double[] maxTemperature = this.maxTemperature;
+        final double[] overtemperatureTime = this.overtemperatureTime;
+
+        for ( int i = 0; i < n; i++ )
+        {
+            final double torque = pidTorque[i];
+            final double generatedHeat = (torque * torque) * inverseClampedDt;
+            final double dissipatedHeat = (currentTemperature[i] - ambientTemperature[i]) * 500 * clampedDt;
+            final double newTemperature = currentTemperature[i] + (generatedHeat - dissipatedHeat) * inverseThermalMass[i];
+            currentTemperature[i] = newTemperature;
+            if ( newTemperature > maxTemperature[i] )
+            {
+                overtemperatureTime[i] += dt;
+                totalOvertemperatureTime[i] += dt;
+                if ( breakOnOverTemperature[i] && overtemperatureTime[i] > maxOvertemperatureTime[i] ) {
+                    markBroken( i, BROKEN_MAX_TEMPERATURE_EXCEEDED );
+                }
+            } else {
+                overtemperatureTime[i] = 0;
+            }
+        }
+    }
+
+    private void tickDynamics(int n, double dt)
+    {
+        final double[] pidTorque = this.pidTorque;
+        final double[] frictionFactor = this.frictionFactor;
+        final double[] externalTorque = this.externalTorque;
+        final double[] stallTorque = this.stallTorque;
+        final double[] inverseSystemInertia = this.inverseSystemInertia;
+        final double[] maxRPM = this.maxRPM;
+        final double[] inverseGearRatioDenominator = this.inverseGearRatioDenominator;
+        final double[] currentAngularVelocity = this.currentAngularVelocity;
+        final double[] currentAngle = this.currentAngle;
+        final byte[] motorState = this.motorState;
+
+        for ( int i = 0; i < n; i++ )
+        {
+            if ( motorState[i] != OPERATIONAL ) {
+                continue;
+            }
+
+            final double netTorque = pidTorque[i] * frictionFactor[i] - externalTorque[i];
+            if ( Math.abs( netTorque ) > stallTorque[i] ) {
+                markBroken( i, BROKEN_MAX_TORQUE_EXCEEDED );
+            }
+
+            final double angularAcceleration = netTorque * inverseSystemInertia[i];
+            final double rpm = Utils.clamp( (currentAngularVelocity[i] + angularAcceleration * dt) * INVERSE_TWO_PI_TIMES_60, -maxRPM[i], maxRPM[i] );
+            final double newAngularVelocity = rpm * TWO_PI_TIMES_60;
+            final double newAngle = currentAngle[i] + (newAngularVelocity * dt) * inverseGearRatioDenominator[i];
+
+            if ( clampToMinMaxAngles[i] && (newAngle < minAngle[i] || newAngle > maxAngle[i]) )
+            {
+                stallTime[i] += dt;
+                totalStallTime[i] += dt;
+                currentAngularVelocity[i] = 0;
+                currentAngle[i] = Utils.clamp( newAngle, minAngle[i], maxAngle[i] );
+            }
+            else
+            {
+                stallTime[i] = 0;
+                currentAngularVelocity[i] = newAngularVelocity;
+                currentAngle[i] = newAngle;
+            }
+        }
+    }
+
+    private void markBroken(int idx, byte state)
+    {
+        if ( motorState[idx] == OPERATIONAL ) {
+            System.out.println( "*** Broken: " + STATES[state] );
+            motorState[idx] = state;
+        }
+    }
+
+    private void checkIndex(int idx)
+    {
+        if ( idx < 0 || idx >= size ) {
+            throw new IndexOutOfBoundsException( "Slot index " + idx + " out of range [0," + size + ")" );
+        }
+    }
+
+    /**
+     * Returns a view of a single slot.
+     *
+     * @param idx slot index
+     * @return view
+     */
+    public MotorView view(int idx)
+    {
+        checkIndex( idx );
+        return new MotorView( idx );
+    }
+
+    /**
+     * Accessor-style view of a single motor slot.
+     *
+     * <p>Reads and writes go straight to the bank's columns.</p>
+     */
+    public final class MotorView
+    {
+        public final int index;
+
+        private MotorView(int index)
+        {
+            this.index = index;
+        }
+
+        public Motor motor() {
+            return motors[index];
+        }
+
+        public double currentAngle() {
+            return currentAngle[index];
+        }
+
+        public double currentAngularVelocity() {
+            return currentAngularVelocity[index];
+        }
+
+        public double currentTemperature() {
+            return currentTemperature[index];
+        }
+
+        public double elapsedSeconds() {
+            return elapsedSeconds[index];
+        }
+
+        public double stallTime() {
+            return stallTime[index];
+        }
+
+        public double getDesiredAngle() {
+            return desiredAngle[index];
+        }
+
+        public void setDesiredAngle(double angle) {
+            desiredAngle[index] = Motor.normalizeAngle( angle );
+        }
+
+        public double getExternalTorque() {
+            return externalTorque[index];
+        }
+
+        public void setExternalTorque(double torque) {
+            externalTorque[index] = torque;
+        }
+
+        public Motor.MotorState motorState() {
+            return STATES[motorState[index]];
+        }
+
+        public boolean isBroken() {
+            return motorState().isBroken();
+        }
+
+        public boolean isMoving() {
+            return Math.abs( currentAngularVelocity[index] ) > 0.0001;
+        }
+
+        public boolean hasArrivedAtDestinationAngle() {
+            return ! isMoving() && Math.abs( currentAngle[index] - desiredAngle[index] ) < 0.001;
+        }
+
+        @Override
+        public String toString()
+        {
+            final Motor m = motors[index];
+            return "MotorView #" + index + (m != null ? " (" + m.name + ")" : "");
+        }
+    }
+
+    // Simple self-check that compares the bank against individually ticked motors
+    static void main()
+    {
+        final int count = 10_000;
+        final java.util.Random rnd = new java.util.Random( 0xdeadbeef );
+        final Motor[] reference = new Motor[count];
+        final MotorBank bank = new MotorBank( 16 );
+        for ( int i = 0; i < count; i++ )
+        {
+            final Motor m = new Motor( "motor #" + i );
+            m.breakOnOverTemperature = false;
+            m.sleepingEnabled = false;
+            m.setDesiredAngle( rnd.nextDouble() * 2 * Math.PI );
+            reference[i] = m;
+
+            final Motor copy = new Motor( "copy #" + i );
+            copy.breakOnOverTemperature = false;
+            copy.setDesiredAngle( m.getDesiredAngle() );
+            bank.add( copy );
+        }
+
+        final int rounds = 10;
+        final int ticksPerRound = 200;
+        final double dt = 0.3;
+
+        long objectNanos = Long.MAX_VALUE;
+        long bankNanos = Long.MAX_VALUE;
+        for ( int round = 0; round < rounds; round++ )
+        {
+            long start = System.nanoTime();
+            for ( int t = 0; t < ticksPerRound; t++ )
+            {
+                for ( Motor m : reference )
+                {
+                    m.tick( dt );
+                }
+            }
+            objectNanos = Math.min( objectNanos, System.nanoTime() - start );
+
+            start = System.nanoTime();
+            for ( int t = 0; t < ticksPerRound; t++ )
+            {
+                bank.tick( dt );
+            }
+            bankNanos = Math.min( bankNanos, System.nanoTime() - start );
+        }
+
+        double maxDelta = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            maxDelta = Math.max( maxDelta, Math.abs( reference[i].currentAngle - bank.currentAngle[i] ) );
+            maxDelta = Math.max( maxDelta, Math.abs( reference[i].currentTemperature - bank.currentTemperature[i] ) );
+        }
+        final double ticks = (double) count * ticksPerRound;
+        System.out.printf( "Motor.tick(): %.1f ns/motor, MotorBank.tick(): %.1f ns/motor, max. deviation: %e%n",
+            objectNanos / ticks, bankNanos / ticks, maxDelta );
+    }
+}
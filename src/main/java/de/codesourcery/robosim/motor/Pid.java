@@ -29,6 +29,12 @@ public class Pid {
         this(0.708, 0.00, 9.496);
     }
 
+    @Override
+    public String toString()
+    {
+        return "PID(Kp=%.4f, Ki=%.4f, Kd=%.4f)".formatted( Kp, Ki, Kd );
+    }
+
     /**
      * Calculates the control output based on the current value, desired value, and time elapsed.
      *
@@ -95,12 +101,56 @@ public class Pid {
         return output;
     }
 
+    /**
+     * Evaluates the control output for a given error without updating any state.
+     *
+     * Uses the analytic rate of change of the error for the derivative term and the
+     * current integral, this is what integrators use to evaluate the controller in between
+     * two {@link #step(double, double, double)} invocations.
+     *
+     * @param error desired value minus current value
+     * @param errorRate rate of change of the error per second
+     * @return The control signal, clamped between -1.0 and 1.0.
+     */
+    public double evaluate(double error, double errorRate) {
+        final double output = Kp * error + Ki * integral + Kd * errorRate;
+        if (output > 1.0) {
+            return 1.0;
+        }
+        return Math.max( output, -1.0 );
+    }
+
     // Optional: Reset integral term if the system changes state dramatically
     public void reset() {
         this.integral = 0.0;
         this.lastError = 0.0;
     }
 
+    double kp() {
+        return Kp;
+    }
+
+    double ki() {
+        return Ki;
+    }
+
+    double kd() {
+        return Kd;
+    }
+
+    double integral() {
+        return integral;
+    }
+
+    double lastError() {
+        return lastError;
+    }
+
+    void setState(double integral, double lastError) {
+        this.integral = integral;
+        this.lastError = lastError;
+    }
+
     // Optional: Simple main method for demonstration
     static void main(String[] args) throws InterruptedException
     {
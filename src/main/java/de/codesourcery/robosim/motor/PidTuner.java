@@ -0,0 +1,436 @@
+package de.codesourcery.robosim.motor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Headless PID gain tuner.
+ *
+ * <p>Every candidate set of gains is scored by running an isolated {@link Motor} simulation of a
+ * step response. The score combines settle time, overshoot and peak temperature (lower is better).
+ * Candidates get simulated in parallel on a {@link ForkJoinPool}, a simulation is aborted as soon
+ * as its score can no longer beat the best score found so far.</p>
+ *
+ * <p>Tuning does a coarse grid search first and then refines the best grid point
+ * with a Nelder-Mead simplex search.</p>
+ */
+public class PidTuner
+{
+    /**
+     * Result of simulating one set of gains.
+     *
+     * @param kp proportional gain
+     * @param ki integral gain
+     * @param kd derivative gain
+     * @param score combined score, lower is better ({@link Double#POSITIVE_INFINITY} if pruned)
+     * @param settleTime time in seconds after which the motor stayed at the target angle
+     * @param overshoot max. overshoot in rad
+     * @param peakTemperature max. motor temperature in degrees celsius
+     * @param settled whether the motor settled within the simulated time
+     * @param pruned whether the simulation got aborted early
+     */
+    public record Candidate(double kp, double ki, double kd, double score,
+                            double settleTime, double overshoot, double peakTemperature,
+                            boolean settled, boolean pruned)
+    {
+        @Override
+        public String toString()
+        {
+            if ( pruned ) {
+                return "Kp=%.4f Ki=%.4f Kd=%.4f => pruned".formatted( kp, ki, kd );
+            }
+            return "Kp=%.4f Ki=%.4f Kd=%.4f => score %.3f (settle time: %s, overshoot: %.5f rad, peak temp.: %.2f °C)"
+                .formatted( kp, ki, kd, score, settled ? "%.2f s".formatted( settleTime ) : "never", overshoot, peakTemperature );
+        }
+    }
+
+    // configuration
+    private Function<Pid, Motor> motorFactory = pid -> {
+        final Motor m = new Motor( "tuning", pid );
+        m.breakOnOverTemperature = false;
+        return m;
+    };
+    private double targetAngle = Math.PI / 2;
+    private double simulatedSeconds = 120;
+    private double stepSeconds = 0.3;
+    private double overshootWeight = 1000;
+    private double temperatureWeight = 1;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    // state
+    private final AtomicLong bestScoreBits = new AtomicLong( Double.doubleToLongBits( Double.POSITIVE_INFINITY ) );
+    private final AtomicLong simulations = new AtomicLong();
+    private final AtomicLong prunedSimulations = new AtomicLong();
+
+    public PidTuner motorFactory(Function<Pid, Motor> factory)
+    {
+        Validate.notNull( factory, "factory must not be null" );
+        this.motorFactory = factory;
+        return this;
+    }
+
+    public PidTuner targetAngle(double angleInRad)
+    {
+        this.targetAngle = Motor.normalizeAngle( angleInRad );
+        return this;
+    }
+
+    public PidTuner simulatedSeconds(double seconds)
+    {
+        Validate.isTrue( seconds > 0, "seconds must be > 0" );
+        this.simulatedSeconds = seconds;
+        return this;
+    }
+
+    public PidTuner stepSeconds(double seconds)
+    {
+        Validate.isTrue( seconds > 0, "seconds must be > 0" );
+        this.stepSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * Sets the weights of overshoot and peak temperature relative to
+     * the settle time (which has a weight of 1 per second).
+     *
+     * @param overshootWeight score per rad of overshoot
+     * @param temperatureWeight score per degree above ambient temperature
+     * @return this instance (for chaining)
+     */
+    public PidTuner weights(double overshootWeight, double temperatureWeight)
+    {
+        this.overshootWeight = overshootWeight;
+        this.temperatureWeight = temperatureWeight;
+        return this;
+    }
+
+    public PidTuner pool(ForkJoinPool pool)
+    {
+        Validate.notNull( pool, "pool must not be null" );
+        this.pool = pool;
+        return this;
+    }
+
+    /*
+     * Forgets the best score and the statistics of the previous search, its score may stem from
+     * a different objective (target angle, weights, ...) and must not prune the new candidates.
+     */
+    private void startSearch()
+    {
+        bestScoreBits.set( Double.doubleToLongBits( Double.POSITIVE_INFINITY ) );
+        simulations.set( 0 );
+        prunedSimulations.set( 0 );
+    }
+
+    private double bestScore()
+    {
+        return Double.longBitsToDouble( bestScoreBits.get() );
+    }
+
+    private void offerScore(double score)
+    {
+        while ( true )
+        {
+            final long current = bestScoreBits.get();
+            if ( score >= Double.longBitsToDouble( current ) ||
+                 bestScoreBits.compareAndSet( current, Double.doubleToLongBits( score ) ) )
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Simulates a step response and scores it.
+     *
+     * @param kp proportional gain
+     * @param ki integral gain
+     * @param kd derivative gain
+     * @param prune whether to abort the simulation once it can't beat the best score anymore
+     * @return result
+     */
+    public Candidate evaluate(double kp, double ki, double kd, boolean prune)
+    {
+        simulations.incrementAndGet();
+
+        final Motor motor = motorFactory.apply( new Pid( kp, ki, kd ) );
+        final double startAngle = motor.currentAngle;
+        motor.setDesiredAngle( targetAngle );
+        final double direction = Math.signum( motor.getDesiredAngle() - startAngle );
+
+        final int steps = (int) Math.ceil( simulatedSeconds / stepSeconds );
+        double time = 0;
+        double overshoot = 0;
+        double peakTemperature = motor.currentTemperature;
+        double settleTime = 0;
+        boolean atTarget = false;
+        for ( int i = 0; i < steps && ! motor.isBroken(); i++ )
+        {
+            motor.tick( stepSeconds );
+            time += stepSeconds;
+
+            overshoot = Math.max( overshoot, direction * (motor.currentAngle - motor.getDesiredAngle()) );
+            peakTemperature = Math.max( peakTemperature, motor.currentTemperature );
+
+            final boolean arrived = motor.hasArrivedAtDestinationAngle();
+            if ( arrived && ! atTarget ) {
+                settleTime = time;
+            }
+            atTarget = arrived;
+
+            // settle time can't get any smaller than the current time if we're not at the target,
+            // overshoot and peak temperature never decrease
+            if ( prune && (i & 15) == 0 )
+            {
+                final double lowerBound = score( atTarget ? settleTime : time, overshoot, peakTemperature, motor );
+                if ( lowerBound > bestScore() )
+                {
+                    prunedSimulations.incrementAndGet();
+                    return new Candidate( kp, ki, kd, Double.POSITIVE_INFINITY, time, overshoot, peakTemperature, false, true );
+                }
+            }
+        }
+
+        final boolean settled = atTarget && ! motor.isBroken();
+        // never settling is penalized with twice the simulated time
+        final double score = score( settled ? settleTime : 2 * simulatedSeconds, overshoot, peakTemperature, motor );
+        offerScore( score );
+        return new Candidate( kp, ki, kd, score, settleTime, overshoot, peakTemperature, settled, false );
+    }
+
+    private double score(double settleTime, double overshoot, double peakTemperature, Motor motor)
+    {
+        return settleTime +
+               overshootWeight * overshoot +
+               temperatureWeight * Math.max( 0, peakTemperature - motor.ambientTemperature );
+    }
+
+    private final class EvaluateRange extends RecursiveAction
+    {
+        private static final int THRESHOLD = 8;
+
+        private final double[][] gains;
+        private final Candidate[] results;
+        private final int start, end;
+
+        private EvaluateRange(double[][] gains, Candidate[] results, int start, int end)
+        {
+            this.gains = gains;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( end - start <= THRESHOLD )
+            {
+                for ( int i = start; i < end; i++ )
+                {
+                    results[i] = evaluate( gains[i][0], gains[i][1], gains[i][2], true );
+                }
+                return;
+            }
+            final int mid = (start + end) >>> 1;
+            invokeAll( new EvaluateRange( gains, results, start, mid ), new EvaluateRange( gains, results, mid, end ) );
+        }
+    }
+
+    /**
+     * Evaluates a regular grid of gains in parallel.
+     *
+     * @param kp min./max. proportional gain
+     * @param ki min./max. integral gain
+     * @param kd min./max. derivative gain
+     * @param stepsPerAxis number of grid points per axis
+     * @return all candidates, best first
+     */
+    public List<Candidate> gridSearch(double[] kp, double[] ki, double[] kd, int stepsPerAxis)
+    {
+        Validate.isTrue( kp.length == 2 && ki.length == 2 && kd.length == 2, "ranges must be [min,max]" );
+        Validate.isTrue( stepsPerAxis > 0, "steps per axis must be > 0" );
+        startSearch();
+
+        final double[][] gains = new double[stepsPerAxis * stepsPerAxis * stepsPerAxis][];
+        int idx = 0;
+        for ( int p = 0; p < stepsPerAxis; p++ )
+        {
+            for ( int i = 0; i < stepsPerAxis; i++ )
+            {
+                for ( int d = 0; d < stepsPerAxis; d++ )
+                {
+                    gains[idx++] = new double[]{ lerp( kp, p, stepsPerAxis ), lerp( ki, i, stepsPerAxis ), lerp( kd, d, stepsPerAxis ) };
+                }
+            }
+        }
+        final Candidate[] results = new Candidate[gains.length];
+        pool.invoke( new EvaluateRange( gains, results, 0, gains.length ) );
+
+        final List<Candidate> list = new ArrayList<>( List.of( results ) );
+        list.sort( Comparator.comparingDouble( Candidate::score ) );
+        return list;
+    }
+
+    private static double lerp(double[] range, int step, int steps)
+    {
+        return steps == 1 ? range[0] : range[0] + (range[1] - range[0]) * step / (steps - 1);
+    }
+
+    /**
+     * Refines a set of gains using a Nelder-Mead simplex search.
+     *
+     * @param start gains to start with
+     * @param initialStep relative size of the initial simplex
+     * @param maxIterations max. number of iterations
+     * @return best candidate found
+     */
+    public Candidate refine(Candidate start, double initialStep, int maxIterations)
+    {
+        startSearch();
+        final int n = 3;
+        final double[][] simplex = new double[n + 1][];
+        final Candidate[] values = new Candidate[n + 1];
+        simplex[0] = new double[]{ start.kp(), start.ki(), start.kd() };
+        for ( int i = 1; i <= n; i++ )
+        {
+            simplex[i] = simplex[0].clone();
+            simplex[i][i - 1] += simplex[i][i - 1] != 0 ? simplex[i][i - 1] * initialStep : initialStep;
+        }
+        for ( int i = 0; i <= n; i++ ) {
+            values[i] = evaluateUnpruned( simplex[i] );
+        }
+
+        for ( int iteration = 0; iteration < maxIterations; iteration++ )
+        {
+            // sort vertices, best first
+            for ( int i = 1; i <= n; i++ )
+            {
+                for ( int j = i; j > 0 && values[j].score() < values[j - 1].score(); j-- )
+                {
+                    final Candidate tmpValue = values[j]; values[j] = values[j - 1]; values[j - 1] = tmpValue;
+                    final double[] tmpPoint = simplex[j]; simplex[j] = simplex[j - 1]; simplex[j - 1] = tmpPoint;
+                }
+            }
+            if ( Math.abs( values[n].score() - values[0].score() ) < 1e-6 ) {
+                break;
+            }
+
+            final double[] centroid = new double[n];
+            for ( int i = 0; i < n; i++ ) {
+                for ( int k = 0; k < n; k++ ) {
+                    centroid[k] += simplex[i][k] / n;
+                }
+            }
+
+            final double[] reflected = affine( centroid, simplex[n], -1 );
+            final Candidate reflectedValue = evaluateUnpruned( reflected );
+            if ( reflectedValue.score() < values[0].score() )
+            {
+                final double[] expanded = affine( centroid, simplex[n], -2 );
+                final Candidate expandedValue = evaluateUnpruned( expanded );
+                if ( expandedValue.score() < reflectedValue.score() ) {
+                    simplex[n] = expanded; values[n] = expandedValue;
+                } else {
+                    simplex[n] = reflected; values[n] = reflectedValue;
+                }
+            }
+            else if ( reflectedValue.score() < values[n - 1].score() )
+            {
+                simplex[n] = reflected; values[n] = reflectedValue;
+            }
+            else
+            {
+                final double[] contracted = affine( centroid, simplex[n], 0.5 );
+                final Candidate contractedValue = evaluateUnpruned( contracted );
+                if ( contractedValue.score() < values[n].score() )
+                {
+                    simplex[n] = contracted; values[n] = contractedValue;
+                }
+                else
+                {
+                    // shrink towards best vertex
+                    for ( int i = 1; i <= n; i++ )
+                    {
+                        simplex[i] = affine( simplex[0], simplex[i], 0.5 );
+                        values[i] = evaluateUnpruned( simplex[i] );
+                    }
+                }
+            }
+        }
+
+        Candidate best = values[0];
+        for ( Candidate c : values ) {
+            if ( c.score() < best.score() ) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // centroid + factor * (point - centroid), gains are kept non-negative
+    private static double[] affine(double[] centroid, double[] point, double factor)
+    {
+        final double[] result = new double[centroid.length];
+        for ( int i = 0; i < result.length; i++ ) {
+            result[i] = Math.max( 0, centroid[i] + factor * (point[i] - centroid[i]) );
+        }
+        return result;
+    }
+
+    private Candidate evaluateUnpruned(double[] gains)
+    {
+        return evaluate( gains[0], gains[1], gains[2], false );
+    }
+
+    /**
+     * Returns the number of simulations run by the current (or last) search.
+     *
+     * @return count
+     */
+    public long simulationCount()
+    {
+        return simulations.get();
+    }
+
+    /**
+     * Returns the number of simulations the current (or last) search aborted early.
+     *
+     * @return count
+     */
+    public long prunedSimulationCount()
+    {
+        return prunedSimulations.get();
+    }
+
+    static void main()
+    {
+        final PidTuner tuner = new PidTuner();
+        final long start = System.nanoTime();
+
+        final List<Candidate> grid = tuner.gridSearch(
+            new double[]{ 0.1, 2.0 },
+            new double[]{ 0.0, 0.02 },
+            new double[]{ 1.0, 20.0 }, 16 );
+        final long gridSimulations = tuner.simulationCount();
+        final long gridPruned = tuner.prunedSimulationCount();
+        final Candidate refined = tuner.refine( grid.getFirst(), 0.1, 200 );
+        final long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println( "Default gains: " + tuner.evaluate( 0.708, 0.00, 9.496, false ) );
+        System.out.println();
+        System.out.println( "Best grid candidates:" );
+        grid.stream().filter( c -> ! c.pruned() ).limit( 10 ).forEach( c -> System.out.println( "  " + c ) );
+        System.out.println();
+        System.out.println( "Refined: " + refined );
+        System.out.println();
+        System.out.printf( "grid: %d simulations (%d pruned early), refine: %d simulations, on %d threads in %d ms%n",
+            gridSimulations, gridPruned, tuner.simulationCount(), tuner.pool.getParallelism(), elapsedMillis );
+    }
+}
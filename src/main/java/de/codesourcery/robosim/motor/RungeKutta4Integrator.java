@@ -0,0 +1,51 @@
+package de.codesourcery.robosim.motor;
+
+/**
+ * Classic fourth-order Runge-Kutta.
+ *
+ * <p>Evaluates the dynamics four times per step.</p>
+ */
+public final class RungeKutta4Integrator implements Integrator
+{
+    public static final RungeKutta4Integrator INSTANCE = new RungeKutta4Integrator();
+
+    private RungeKutta4Integrator() {
+    }
+
+    @Override
+    public void integrate(Dynamics dynamics, State state, double initialAcceleration, double dt)
+    {
+        step( dynamics, state, initialAcceleration, dt );
+    }
+
+    static void step(Dynamics dynamics, State state, double initialAcceleration, double dt)
+    {
+        final double angle = state.angle;
+        final double velocity = state.angularVelocity;
+        final double halfDt = dt / 2;
+
+        final double k1Angle = dynamics.angleRate( velocity );
+        final double k1Velocity = initialAcceleration;
+
+        final double v2 = dynamics.limitVelocity( velocity + halfDt * k1Velocity );
+        final double k2Angle = dynamics.angleRate( v2 );
+        final double k2Velocity = dynamics.angularAcceleration( angle + halfDt * k1Angle, v2 );
+
+        final double v3 = dynamics.limitVelocity( velocity + halfDt * k2Velocity );
+        final double k3Angle = dynamics.angleRate( v3 );
+        final double k3Velocity = dynamics.angularAcceleration( angle + halfDt * k2Angle, v3 );
+
+        final double v4 = dynamics.limitVelocity( velocity + dt * k3Velocity );
+        final double k4Angle = dynamics.angleRate( v4 );
+        final double k4Velocity = dynamics.angularAcceleration( angle + dt * k3Angle, v4 );
+
+        state.angle = angle + (dt / 6) * (k1Angle + 2 * k2Angle + 2 * k3Angle + k4Angle);
+        state.angularVelocity = dynamics.limitVelocity( velocity + (dt / 6) * (k1Velocity + 2 * k2Velocity + 2 * k3Velocity + k4Velocity) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RK4";
+    }
+}
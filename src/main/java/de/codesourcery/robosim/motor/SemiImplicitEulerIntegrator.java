@@ -0,0 +1,29 @@
+package de.codesourcery.robosim.motor;
+
+/**
+ * Semi-implicit (symplectic) Euler: updates the velocity first and then the angle
+ * using the new velocity.
+ *
+ * <p>Cheapest scheme, only uses the acceleration sampled at the start of the step.
+ * This is what {@link Motor} always used.</p>
+ */
+public final class SemiImplicitEulerIntegrator implements Integrator
+{
+    public static final SemiImplicitEulerIntegrator INSTANCE = new SemiImplicitEulerIntegrator();
+
+    private SemiImplicitEulerIntegrator() {
+    }
+
+    @Override
+    public void integrate(Dynamics dynamics, State state, double initialAcceleration, double dt)
+    {
+        state.angularVelocity = dynamics.limitVelocity( state.angularVelocity + initialAcceleration * dt );
+        state.angle += dynamics.angleRate( state.angularVelocity ) * dt;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "semi-implicit Euler";
+    }
+}
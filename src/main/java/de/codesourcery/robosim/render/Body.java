@@ -10,6 +10,7 @@ import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.math.collision.BoundingBox;
+import de.codesourcery.robosim.metrics.Instrumentation;
 
 public class Body
 {
@@ -32,32 +33,81 @@ public class Body
     private final Matrix4 absoluteMatrix = new Matrix4();
 
     private final BoundingBox initialBoundingBox;
+    // world-space AABB, valid unless boundsDirty is set
     private final BoundingBox boundingBox = new BoundingBox();
+    private boolean boundsDirty = true;
     public final int bodyId = nextBodyId++;
 
     public Color outlineColor;
 
     private final Mesh mesh;
+    // cache the mesh was acquired from, null if this body owns its mesh
+    private final MeshCache meshCache;
+    private boolean disposed;
+
+    // meshes for each level of detail (finest first, level 0 is the mesh), null if there's only one
+    private Mesh[] levelsOfDetail;
+    // level used in the last frame, -1 if none yet (render thread only)
+    private int lodLevel = -1;
+
+    /*
+     * Set when this body's world transform needs to be recomputed. Invariant: if a body is dirty,
+     * all of its descendants are dirty as well, so marking a subtree can stop at the first dirty body.
+     */
+    private boolean worldDirty = true;
 
-    private boolean thisInstanceChanged = true;
+    // number of times the world transform got recomputed
+    private long worldUpdates;
 
     private Body parent;
     private final List<Body> children = new ArrayList<>();
 
+    // scene graph node this body writes its local transform to, if any
+    private SceneGraph sceneGraph;
+    private int sceneGraphNode;
+
     public Body(Mesh mesh)
     {
         this( mesh, null );
     }
 
     public Body(Mesh mesh, String debugName)
+    {
+        this( mesh, debugName, null );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param mesh mesh
+     * @param debugName name, may be <code>null</code>
+     * @param meshCache cache the mesh was acquired from, <code>null</code> if the body owns the mesh
+     */
+    public Body(Mesh mesh, String debugName, MeshCache meshCache)
     {
         this.debugName = debugName;
         Validate.isTrue( bodyId > 0 );
         Validate.notNull( mesh, "mesh must not be null" );
         this.mesh = mesh;
+        this.meshCache = meshCache;
         this.initialBoundingBox = mesh.calculateBoundingBox();
     }
 
+    /**
+     * Create a body without a mesh (headless simulations, benchmarks), such bodies cannot be rendered.
+     *
+     * @param initialBoundingBox bounding box in local coordinate space
+     * @param debugName name, may be <code>null</code>
+     */
+    public Body(BoundingBox initialBoundingBox, String debugName)
+    {
+        Validate.notNull( initialBoundingBox, "initialBoundingBox must not be null" );
+        this.debugName = debugName;
+        this.mesh = null;
+        this.meshCache = null;
+        this.initialBoundingBox = new BoundingBox( initialBoundingBox );
+    }
+
     /**
      * Returns this body's UNTRANSFORMED bounding box in local coordinate space.
      *
@@ -68,11 +118,106 @@ public class Body
         return initialBoundingBox;
     }
 
+    /**
+     * Returns this body's axis-aligned bounding box in world space (the
+     * {@link #getInitialBoundingBox() local bounding box} transformed by {@link #getAbsoluteMatrix()}).
+     *
+     * @return bounding box, must not be modified
+     */
+    public BoundingBox getWorldBoundingBox()
+    {
+        updateWorld();
+        if ( boundsDirty )
+        {
+            boundingBox.set( initialBoundingBox ).mul( absoluteMatrix );
+            boundsDirty = false;
+        }
+        return boundingBox;
+    }
+
+    /**
+     * Returns this body's mesh.
+     *
+     * @return mesh, <code>null</code> for headless bodies
+     */
     public Mesh getMesh()
     {
         return mesh;
     }
 
+    /**
+     * Sets coarser variants of this body's mesh, owned like the mesh itself (acquired from the same cache or owned by this body).
+     *
+     * @param coarser meshes, finest first
+     * @see LevelOfDetail
+     */
+    public void setLevelsOfDetail(Mesh... coarser)
+    {
+        Validate.notNull( coarser, "coarser must not be null" );
+        Validate.isTrue( mesh != null, "headless bodies have no levels of detail" );
+        Validate.noNullElements( coarser, "coarser must not contain null elements" );
+        final Mesh[] levels = new Mesh[coarser.length + 1];
+        levels[0] = mesh;
+        System.arraycopy( coarser, 0, levels, 1, coarser.length );
+        this.levelsOfDetail = levels;
+        this.lodLevel = -1;
+    }
+
+    /**
+     * Returns the number of levels of detail.
+     *
+     * @return count, 1 if there is only {@link #getMesh() the mesh}
+     */
+    public int getLevelCount()
+    {
+        return levelsOfDetail == null ? 1 : levelsOfDetail.length;
+    }
+
+    /**
+     * Returns the mesh for a level of detail.
+     *
+     * @param level level, 0 is the finest
+     * @return mesh
+     */
+    public Mesh getMesh(int level)
+    {
+        return levelsOfDetail == null ? mesh : levelsOfDetail[level];
+    }
+
+    /**
+     * Returns the level of detail the renderer used in the last frame.
+     *
+     * @return level, -1 if none yet
+     */
+    public int getLodLevel()
+    {
+        return lodLevel;
+    }
+
+    public void setLodLevel(int level)
+    {
+        this.lodLevel = level;
+    }
+
+    /**
+     * Releases this body's meshes, disposing them if the body owns them. Calling this more than once has no effect.
+     */
+    public void dispose()
+    {
+        if ( disposed || mesh == null ) {
+            return;
+        }
+        disposed = true;
+        for ( int i = 0, len = getLevelCount(); i < len; i++ )
+        {
+            if ( meshCache != null ) {
+                meshCache.release( getMesh( i ) );
+            } else {
+                getMesh( i ).dispose();
+            }
+        }
+    }
+
     /**
      * Visit this body and all children.
      *
@@ -84,6 +229,23 @@ public class Body
         children.forEach( child -> child.visit( visitor ) );
     }
 
+    void visitChildren(Consumer<Body> visitor)
+    {
+        for ( int i = 0, len = children.size(); i < len; i++ ) {
+            visitor.accept( children.get( i ) );
+        }
+    }
+
+    /*
+     * Makes this body write its local transform through to a scene graph node.
+     */
+    void bindTo(SceneGraph graph, int node)
+    {
+        this.sceneGraph = graph;
+        this.sceneGraphNode = node;
+        graph.setLocalTransform( node, relPosition, relRotation );
+    }
+
     public void addChild(Body child)
     {
         Validate.notNull( child, "child must not be null" );
@@ -104,12 +266,26 @@ public class Body
     public void setParent(Body parent)
     {
         this.parent = parent;
-        this.thisInstanceChanged = true;
+        markDirty();
     }
 
+    /**
+     * Marks this body's world transform (and those of all its descendants) as outdated.
+     */
     public void setParentChanged()
     {
-        this.thisInstanceChanged = true;
+        markDirty();
+    }
+
+    private void markDirty()
+    {
+        if ( worldDirty ) {
+            return;
+        }
+        worldDirty = true;
+        for ( int i = 0, len = children.size(); i < len; i++ ) {
+            children.get( i ).markDirty();
+        }
     }
 
     public Body getParent()
@@ -129,6 +305,7 @@ public class Body
 
     public Matrix4 absoluteRotation()
     {
+        updateWorld();
         return hasParent() ? absoluteRotation : relRotation;
     }
 
@@ -139,60 +316,93 @@ public class Body
 
     public Vector3 absolutePosition()
     {
+        updateWorld();
         return hasParent() ? absolutePosition : relPosition;
     }
 
     public void setPosition(float x, float y, float z)
     {
         relPosition.set( x, y, z );
-        thisInstanceChanged = true;
-        children.forEach( Body::setParentChanged );
+        markDirty();
+        if ( sceneGraph != null ) {
+            sceneGraph.setLocalTransform( sceneGraphNode, relPosition, relRotation );
+        }
     }
 
     public void setRotation(Matrix4 m)
     {
         relRotation.set( m );
-        thisInstanceChanged = true;
-        children.forEach( Body::setParentChanged );
+        markDirty();
+        if ( sceneGraph != null ) {
+            sceneGraph.setLocalTransform( sceneGraphNode, relPosition, relRotation );
+        }
     }
 
-    private Matrix4 getLocalMatrix()
+    /**
+     * Brings the world transforms of this body and all its descendants up-to-date.
+     *
+     * <p>Only bodies whose own or whose ancestors' transforms changed since they were last computed get
+     * recomputed, calling this repeatedly is cheap.</p>
+     */
+    public void recalculate()
     {
-        if ( thisInstanceChanged )
-        {
-            recalculate();
+        updateWorld();
+        for ( int i = 0, len = children.size(); i < len; i++ ) {
+            children.get( i ).recalculate();
         }
-        return this.relativeMatrix;
     }
 
-    public void recalculate()
+    /*
+     * Recomputes this body's world transform if it is dirty, after updating its ancestors.
+     */
+    private void updateWorld()
     {
-        final Matrix4 t = new Matrix4().setTranslation( relPosition );
-        relativeMatrix.set( t ).mul( relRotation );
-        this.thisInstanceChanged = false;
+        if ( worldDirty )
+        {
+            // timed here and not in recomputeWorld(), which recurses into outdated ancestors
+            final long start = Instrumentation.start();
+            recomputeWorld();
+            Instrumentation.stop( Instrumentation.Stage.WORLD_TRANSFORMS, start );
+        }
+    }
 
+    private void recomputeWorld()
+    {
+        relativeMatrix.idt().setTranslation( relPosition ).mul( relRotation );
         if ( hasParent() )
         {
-            this.absoluteMatrix.set( parent.getAbsoluteMatrix() );
-            this.absoluteMatrix.mul( getLocalMatrix() );
+            if ( parent.worldDirty ) {
+                parent.recomputeWorld();
+            }
+            absoluteMatrix.set( parent.absoluteMatrix ).mul( relativeMatrix );
 
-            this.absolutePosition.set( this.relPosition );
-            this.absolutePosition.add( parent.absolutePosition() );
+            absolutePosition.set( relPosition ).add( parent.hasParent() ? parent.absolutePosition : parent.relPosition );
 
-            this.absoluteRotation.set( parent.absoluteRotation() );
-            this.absoluteRotation.mul( this.relRotation );
+            absoluteRotation.set( parent.hasParent() ? parent.absoluteRotation : parent.relRotation ).mul( relRotation );
         }
-
-        children.forEach( Body::recalculate );
+        else
+        {
+            absoluteMatrix.set( relativeMatrix );
+        }
+        worldDirty = false;
+        boundsDirty = true;
+        worldUpdates++;
     }
 
     public Matrix4 getAbsoluteMatrix()
     {
-        if ( thisInstanceChanged )
-        {
-            recalculate();
-        }
-        return hasParent() ? absoluteMatrix : getLocalMatrix();
+        updateWorld();
+        return absoluteMatrix;
+    }
+
+    /**
+     * Returns how often this body's world transform got recomputed.
+     *
+     * @return count
+     */
+    public long getWorldUpdateCount()
+    {
+        return worldUpdates;
     }
 
     @Override
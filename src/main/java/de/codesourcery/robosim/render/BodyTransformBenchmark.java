@@ -0,0 +1,101 @@
+package de.codesourcery.robosim.render;
+
+import java.lang.management.ManagementFactory;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+
+/**
+ * Measures world transform propagation in a chain of headless {@link Body bodies}: time, recomputed world
+ * matrices and bytes allocated per frame, where a frame changes some bodies and then reads every body's world
+ * matrix like {@link MeshRenderer} does.
+ */
+public class BodyTransformBenchmark
+{
+    private static final int BODY_COUNT = 100;
+    private static final int FRAMES = 200_000;
+
+    private interface Frame
+    {
+        void change(Body[] bodies, int frame);
+    }
+
+    private static final Matrix4[] ROTATIONS = {
+        new Matrix4().rotate( Vector3.Z, 1 ),
+        new Matrix4().rotate( Vector3.Z, -1 )
+    };
+
+    private static Body[] createChain()
+    {
+        final BoundingBox bb = new BoundingBox( new Vector3( -5, -5, -5 ), new Vector3( 5, 5, 5 ) );
+        final Body[] bodies = new Body[BODY_COUNT];
+        for ( int i = 0; i < BODY_COUNT; i++ )
+        {
+            bodies[i] = new Body( bb, "body #" + i );
+            if ( i > 0 )
+            {
+                bodies[i - 1].addChild( bodies[i] );
+                bodies[i].setPosition( 0, 10, 0 );
+            }
+        }
+        return bodies;
+    }
+
+    private static long updateCount(Body[] bodies)
+    {
+        long sum = 0;
+        for ( Body body : bodies ) {
+            sum += body.getWorldUpdateCount();
+        }
+        return sum;
+    }
+
+    private static long allocatedBytes()
+    {
+        if ( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean mx ) {
+            return mx.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private static void run(String name, Frame frame)
+    {
+        final Body[] bodies = createChain();
+        double checksum = 0;
+        for ( int round = 0; round < 3; round++ )
+        {
+            final long updatesBefore = updateCount( bodies );
+            final long allocatedBefore = allocatedBytes();
+            final long start = System.nanoTime();
+            for ( int f = 0; f < FRAMES; f++ )
+            {
+                frame.change( bodies, f );
+                for ( Body body : bodies ) {
+                    checksum += body.getAbsoluteMatrix().val[Matrix4.M13];
+                }
+            }
+            final long elapsed = System.nanoTime() - start;
+            final long allocated = allocatedBytes() - allocatedBefore;
+            if ( round == 2 )
+            {
+                System.out.printf( "%-28s %,8.0f ns/frame, %6.1f world updates/frame, %6.2f bytes allocated/frame (checksum %.0f)%n",
+                    name, elapsed / (double) FRAMES, (updateCount( bodies ) - updatesBefore) / (double) FRAMES,
+                    allocated / (double) FRAMES, checksum );
+            }
+        }
+    }
+
+    static void main()
+    {
+        System.out.printf( "%d bodies, %,d frames%n", BODY_COUNT, FRAMES );
+        run( "nothing changed", (_, _) -> {} );
+        run( "tip rotated", (bodies, f) -> bodies[BODY_COUNT - 1].setRotation( ROTATIONS[f & 1] ) );
+        run( "middle rotated", (bodies, f) -> bodies[BODY_COUNT / 2].setRotation( ROTATIONS[f & 1] ) );
+        run( "base rotated", (bodies, f) -> bodies[0].setRotation( ROTATIONS[f & 1] ) );
+        run( "every body rotated", (bodies, f) -> {
+            for ( Body body : bodies ) {
+                body.setRotation( ROTATIONS[f & 1] );
+            }
+        } );
+    }
+}
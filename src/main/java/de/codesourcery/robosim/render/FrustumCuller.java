@@ -0,0 +1,232 @@
+package de.codesourcery.robosim.render;
+
+import java.util.Locale;
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.math.Frustum;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Plane;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+/**
+ * Tests axis-aligned bounding boxes against a view frustum so bodies outside of it can skip
+ * their draw calls and uniform uploads.
+ *
+ * <p>Uses nothing but {@link Frustum} planes, so it works (and can be tested) without a GL context. Boxes that
+ * intersect the frustum count as visible, the test is conservative: a box near a frustum corner may be
+ * reported visible although it is not.</p>
+ *
+ * <p>Keeps statistics for the current frame (see {@link #beginFrame()}) and totals.</p>
+ */
+public final class FrustumCuller
+{
+    private boolean enabled = true;
+
+    // statistics
+    private int frameTested;
+    private int frameCulled;
+    private long frames;
+    private long totalTested;
+    private long totalCulled;
+
+    /**
+     * Enables or disables culling, when disabled everything is visible.
+     *
+     * @param enabled whether to cull
+     * @return this instance (for chaining)
+     */
+    public FrustumCuller enabled(boolean enabled)
+    {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Resets the per-frame statistics, call before testing a frame's bodies.
+     */
+    public void beginFrame()
+    {
+        frames++;
+        frameTested = 0;
+        frameCulled = 0;
+    }
+
+    /**
+     * Tests a bounding box.
+     *
+     * @param frustum view frustum
+     * @param box bounding box in world space
+     * @return <code>true</code> if the box (potentially) intersects the frustum
+     */
+    public boolean isVisible(Frustum frustum, BoundingBox box)
+    {
+        return count( ! enabled || intersects( frustum, box.min.x, box.min.y, box.min.z, box.max.x, box.max.y, box.max.z ) );
+    }
+
+    /**
+     * Tests a bounding box stored in an array.
+     *
+     * @param frustum view frustum
+     * @param bounds array holding (minX,minY,minZ,maxX,maxY,maxZ) in world space
+     * @param offset offset of minX
+     * @return <code>true</code> if the box (potentially) intersects the frustum
+     * @see SceneGraph#worldBounds()
+     */
+    public boolean isVisible(Frustum frustum, float[] bounds, int offset)
+    {
+        return count( ! enabled || intersects( frustum, bounds[offset], bounds[offset + 1], bounds[offset + 2],
+            bounds[offset + 3], bounds[offset + 4], bounds[offset + 5] ) );
+    }
+
+    private boolean count(boolean visible)
+    {
+        frameTested++;
+        totalTested++;
+        if ( ! visible )
+        {
+            frameCulled++;
+            totalCulled++;
+        }
+        return visible;
+    }
+
+    /**
+     * Tests whether an axis-aligned box intersects a frustum.
+     *
+     * <p>For every plane, only the box corner furthest along the plane's normal gets tested: if that corner is
+     * behind the plane, the whole box is.</p>
+     *
+     * @return <code>false</code> if the box is completely outside the frustum
+     */
+    public static boolean intersects(Frustum frustum, float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+    {
+        for ( final Plane plane : frustum.planes )
+        {
+            final Vector3 n = plane.normal;
+            final float x = n.x >= 0 ? maxX : minX;
+            final float y = n.y >= 0 ? maxY : minY;
+            final float z = n.z >= 0 ? maxZ : minZ;
+            if ( n.x * x + n.y * y + n.z * z + plane.d < 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of boxes tested since the last call to {@link #beginFrame()}.
+     *
+     * @return count
+     */
+    public int frameTested()
+    {
+        return frameTested;
+    }
+
+    /**
+     * Returns the number of boxes culled since the last call to {@link #beginFrame()}.
+     *
+     * @return count
+     */
+    public int frameCulled()
+    {
+        return frameCulled;
+    }
+
+    public long totalTested()
+    {
+        return totalTested;
+    }
+
+    public long totalCulled()
+    {
+        return totalCulled;
+    }
+
+    /**
+     * Returns the fraction of all tested boxes that got culled.
+     *
+     * @return ratio in range [0,1]
+     */
+    public double cullRate()
+    {
+        return totalTested == 0 ? 0 : totalCulled / (double) totalTested;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( Locale.ROOT, "frame: %d/%d culled, total: %d frames, %.1f%% culled%s",
+            frameCulled, frameTested, frames, cullRate() * 100, enabled ? "" : " (disabled)" );
+    }
+
+    static void main()
+    {
+        // Frustum uses native matrix code, but no GL context is needed
+        GdxNativesLoader.load();
+
+        // 100x100 grid of boxes on the XZ plane, camera in the middle looking down the -Z axis
+        final SceneGraph graph = new SceneGraph( 10_000 );
+        final BoundingBox box = new BoundingBox( new Vector3( -5, -5, -5 ), new Vector3( 5, 5, 5 ) );
+        final Vector3 position = new Vector3();
+        final Matrix4 rotation = new Matrix4();
+        for ( int x = 0; x < 100; x++ )
+        {
+            for ( int z = 0; z < 100; z++ )
+            {
+                final int node = graph.add( SceneGraph.NO_PARENT, null, box );
+                graph.setLocalTransform( node, position.set( (x - 50) * 20, 0, (z - 50) * 20 ), rotation );
+            }
+        }
+        graph.updateWorldMatrices();
+
+        final PerspectiveCamera camera = new PerspectiveCamera( 67, 800, 600 );
+        camera.position.set( 0, 10, 0 );
+        camera.direction.set( 0, 0, -1 );
+        camera.near = 0.1f;
+        camera.far = 500f;
+        camera.update();
+
+        final FrustumCuller culler = new FrustumCuller();
+        final float[] bounds = graph.worldBounds();
+        int visible = 0;
+        for ( int round = 0; round < 3; round++ )
+        {
+            final int frameCount = 10_000;
+            final long start = System.nanoTime();
+            for ( int frame = 0; frame < frameCount; frame++ )
+            {
+                culler.beginFrame();
+                visible = 0;
+                for ( int i = 0; i < graph.size(); i++ )
+                {
+                    if ( culler.isVisible( camera.frustum, bounds, i * 6 ) ) {
+                        visible++;
+                    }
+                }
+            }
+            final long elapsed = System.nanoTime() - start;
+            System.out.printf( "%d boxes, %d visible, %s, %.1f ns/box%n", graph.size(), visible, culler,
+                elapsed / (double) frameCount / graph.size() );
+        }
+
+        // cross-check against libgdx
+        int expected = 0;
+        final BoundingBox worldBox = new BoundingBox();
+        for ( int i = 0; i < graph.size(); i++ )
+        {
+            worldBox.set( new Vector3( bounds[i * 6], bounds[i * 6 + 1], bounds[i * 6 + 2] ),
+                new Vector3( bounds[i * 6 + 3], bounds[i * 6 + 4], bounds[i * 6 + 5] ) );
+            if ( camera.frustum.boundsInFrustum( worldBox ) ) {
+                expected++;
+            }
+        }
+        System.out.printf( "Frustum#boundsInFrustum(): %d visible%n", expected );
+    }
+}
@@ -0,0 +1,214 @@
+package de.codesourcery.robosim.render;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.lang3.Validate;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Chooses a level of detail (0 = finest) from the size a body is projected to on screen.
+ *
+ * <p>Level <code>i</code> gets used while the projected size is at least <code>thresholds[i]</code> pixels, the
+ * coarsest level below the last threshold. To keep bodies near a threshold from switching back and forth
+ * (flickering), a body only moves to a coarser level once its size dropped <code>hysteresis</code> (relative)
+ * below the threshold and only moves to a finer level once it grew that much above it.</p>
+ *
+ * <p>{@link #select(float, int, float[], float)} and the <code>projectedSize</code> methods are pure functions
+ * that need neither a GL context nor a camera.</p>
+ */
+public final class LevelOfDetail
+{
+    /** segments of the cylinder meshes for each level, finest first */
+    public static final int[] CYLINDER_DIVISIONS = { MeshCache.CYLINDER_DIVISIONS, 24, 8 };
+
+    /** default thresholds (projected size in pixels) for {@link #CYLINDER_DIVISIONS} */
+    public static final float[] DEFAULT_THRESHOLDS = { 150, 40 };
+
+    public static final float DEFAULT_HYSTERESIS = 0.15f;
+
+    private final float[] thresholds;
+    private final float hysteresis;
+
+    // statistics
+    private final int[] frameCounts;
+    private long switches;
+
+    public LevelOfDetail()
+    {
+        this( DEFAULT_HYSTERESIS, DEFAULT_THRESHOLDS );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param hysteresis relative hysteresis in range [0,1)
+     * @param thresholds min. projected size in pixels for every level but the coarsest, strictly decreasing
+     */
+    public LevelOfDetail(float hysteresis, float... thresholds)
+    {
+        Validate.isTrue( hysteresis >= 0 && hysteresis < 1, "hysteresis must be in range [0,1)" );
+        Validate.notNull( thresholds, "thresholds must not be null" );
+        for ( int i = 1; i < thresholds.length; i++ ) {
+            Validate.isTrue( thresholds[i] < thresholds[i - 1], "thresholds must be strictly decreasing" );
+        }
+        this.hysteresis = hysteresis;
+        this.thresholds = thresholds.clone();
+        this.frameCounts = new int[thresholds.length + 1];
+    }
+
+    public int levels()
+    {
+        return thresholds.length + 1;
+    }
+
+    /**
+     * Resets the per-frame statistics.
+     */
+    public void beginFrame()
+    {
+        Arrays.fill( frameCounts, 0 );
+    }
+
+    /**
+     * Chooses a level and records it in the statistics.
+     *
+     * @param projectedSize projected size in pixels
+     * @param currentLevel level used in the previous frame, negative if none
+     * @param levelCount number of levels available for the body, levels beyond get clamped
+     * @return level
+     */
+    public int select(float projectedSize, int currentLevel, int levelCount)
+    {
+        final int level = Math.min( select( projectedSize, currentLevel, thresholds, hysteresis ), levelCount - 1 );
+        frameCounts[level]++;
+        if ( currentLevel >= 0 && level != currentLevel ) {
+            switches++;
+        }
+        return level;
+    }
+
+    /**
+     * Chooses a level of detail.
+     *
+     * @param projectedSize projected size in pixels
+     * @param currentLevel level used in the previous frame, negative if none (no hysteresis then)
+     * @param thresholds min. projected size for every level but the coarsest, strictly decreasing
+     * @param hysteresis relative hysteresis
+     * @return level in range [0,thresholds.length]
+     */
+    public static int select(float projectedSize, int currentLevel, float[] thresholds, float hysteresis)
+    {
+        final int coarsest = thresholds.length;
+        if ( currentLevel < 0 )
+        {
+            int level = 0;
+            while ( level < coarsest && projectedSize < thresholds[level] ) {
+                level++;
+            }
+            return level;
+        }
+        int level = Math.min( currentLevel, coarsest );
+        while ( level > 0 && projectedSize >= thresholds[level - 1] * (1 + hysteresis) ) {
+            level--;
+        }
+        while ( level < coarsest && projectedSize < thresholds[level] * (1 - hysteresis) ) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Returns the size of a sphere on screen.
+     *
+     * @param radius radius
+     * @param distance distance between camera and sphere center
+     * @param fieldOfViewY vertical field of view in degrees
+     * @param viewportHeight viewport height in pixels
+     * @return diameter in pixels
+     */
+    public static float projectedSize(float radius, float distance, float fieldOfViewY, float viewportHeight)
+    {
+        if ( distance <= radius ) {
+            return Float.MAX_VALUE; // camera inside
+        }
+        final double halfFov = Math.toRadians( fieldOfViewY ) / 2;
+        return (float) (radius / (distance * Math.tan( halfFov )) * viewportHeight);
+    }
+
+    /**
+     * Returns the size of an axis-aligned box (its bounding sphere) on screen.
+     *
+     * @param bounds array holding (minX,minY,minZ,maxX,maxY,maxZ)
+     * @param offset offset of minX
+     * @param cameraPosition camera position
+     * @param fieldOfViewY vertical field of view in degrees
+     * @param viewportHeight viewport height in pixels
+     * @return diameter in pixels
+     */
+    public static float projectedSize(float[] bounds, int offset, Vector3 cameraPosition, float fieldOfViewY, float viewportHeight)
+    {
+        return projectedSize( bounds[offset], bounds[offset + 1], bounds[offset + 2],
+            bounds[offset + 3], bounds[offset + 4], bounds[offset + 5], cameraPosition, fieldOfViewY, viewportHeight );
+    }
+
+    /**
+     * Returns the size of an axis-aligned box (its bounding sphere) on screen.
+     *
+     * @return diameter in pixels
+     */
+    public static float projectedSize(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+                                      Vector3 cameraPosition, float fieldOfViewY, float viewportHeight)
+    {
+        final float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        final float radius = (float) Math.sqrt( dx * dx + dy * dy + dz * dz ) / 2;
+        final float distance = cameraPosition.dst( (minX + maxX) / 2, (minY + maxY) / 2, (minZ + maxZ) / 2 );
+        return projectedSize( radius, distance, fieldOfViewY, viewportHeight );
+    }
+
+    /**
+     * Returns the number of bodies that got a level assigned since the last {@link #beginFrame()}.
+     *
+     * @param level level
+     * @return count
+     */
+    public int frameCount(int level)
+    {
+        return frameCounts[level];
+    }
+
+    /**
+     * Returns the number of times a body switched levels.
+     *
+     * @return count
+     */
+    public long switches()
+    {
+        return switches;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LOD: bodies per level " + Arrays.toString( frameCounts ) + ", " + switches + " switches";
+    }
+
+    static void main()
+    {
+        // body with 10 units radius, camera moving away and back with jitter
+        final LevelOfDetail lod = new LevelOfDetail();
+        final LevelOfDetail noHysteresis = new LevelOfDetail( 0, DEFAULT_THRESHOLDS );
+        final Random rnd = new Random( 42 );
+        int level = -1, levelNoHysteresis = -1;
+        for ( int frame = 0; frame < 2000; frame++ )
+        {
+            final float distance = 50 + 950 * (float) Math.abs( Math.sin( frame / 300d ) ) + rnd.nextFloat() * 20;
+            final float size = projectedSize( 10, distance, 67, 600 );
+            level = lod.select( size, level, CYLINDER_DIVISIONS.length );
+            levelNoHysteresis = noHysteresis.select( size, levelNoHysteresis, CYLINDER_DIVISIONS.length );
+            if ( frame % 100 == 0 ) {
+                System.out.printf( "distance %4.0f, %5.1f px: level %d (%d segments)%n", distance, size, level, CYLINDER_DIVISIONS[level] );
+            }
+        }
+        System.out.printf( "switches with hysteresis: %d, without: %d%n", lod.switches(), noHysteresis.switches() );
+    }
+}
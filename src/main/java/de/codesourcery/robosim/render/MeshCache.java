@@ -0,0 +1,310 @@
+package de.codesourcery.robosim.render;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.g3d.utils.MeshBuilder;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Reference-counted cache of primitive meshes.
+ *
+ * <p>Meshes are keyed by primitive type, dimensions, colour, vertex transform and number of segments, so identical
+ * parts (of the same or of different robots) share a single {@link Mesh} (and a single upload to the GPU). Every
+ * <code>acquire</code> call must be balanced by a call to {@link #release(Mesh)}, a mesh gets disposed when
+ * its last reference is released.</p>
+ *
+ * <p>Must only be used on the GL thread.</p>
+ */
+public final class MeshCache
+{
+    /** number of segments cylinders get built from */
+    public static final int CYLINDER_DIVISIONS = 64;
+
+    public enum Shape
+    {
+        BOX,
+        CYLINDER
+    }
+
+    /**
+     * Identifies a mesh.
+     *
+     * @param shape primitive type
+     * @param width width (cylinders: diameter)
+     * @param height height (cylinders: length)
+     * @param depth depth (cylinders: diameter)
+     * @param rgba colour as RGBA8888
+     * @param transform vertex transform (column-major)
+     * @param divisions number of segments (cylinders only, 0 for boxes)
+     */
+    public record Key(Shape shape, float width, float height, float depth, int rgba, float[] transform, int divisions)
+    {
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Key other && shape == other.shape &&
+                Float.compare( width, other.width ) == 0 &&
+                Float.compare( height, other.height ) == 0 &&
+                Float.compare( depth, other.depth ) == 0 &&
+                rgba == other.rgba &&
+                divisions == other.divisions &&
+                Arrays.equals( transform, other.transform );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = shape.hashCode();
+            result = 31 * result + Float.hashCode( width );
+            result = 31 * result + Float.hashCode( height );
+            result = 31 * result + Float.hashCode( depth );
+            result = 31 * result + rgba;
+            result = 31 * result + divisions;
+            return 31 * result + Arrays.hashCode( transform );
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%s %sx%sx%s, color %08x, %d divisions".formatted( shape, width, height, depth, rgba, divisions );
+        }
+    }
+
+    private static final class Entry
+    {
+        final Key key;
+        final Mesh mesh;
+        int refCount;
+
+        private Entry(Key key, Mesh mesh)
+        {
+            this.key = key;
+            this.mesh = mesh;
+        }
+    }
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private final Map<Mesh, Entry> byMesh = new IdentityHashMap<>();
+
+    // statistics
+    private long hits;
+    private long misses;
+
+    /**
+     * Acquires a box mesh.
+     *
+     * @param width width
+     * @param height height
+     * @param depth depth
+     * @param color colour
+     * @return mesh, must be {@link #release(Mesh) released} when no longer needed
+     */
+    public Mesh acquireBox(float width, float height, float depth, Color color)
+    {
+        Validate.notNull( color, "color must not be null" );
+        return acquire( new Key( Shape.BOX, width, height, depth, Color.rgba8888( color ), new Matrix4().val.clone(), 0 ) );
+    }
+
+    /**
+     * Acquires a cylinder mesh along the X axis.
+     *
+     * @param length length
+     * @param diameter diameter
+     * @param color colour
+     * @param transform additional transform applied to all vertices
+     * @return mesh, must be {@link #release(Mesh) released} when no longer needed
+     */
+    public Mesh acquireCylinder(float length, float diameter, Color color, Matrix4 transform)
+    {
+        return acquireCylinder( length, diameter, color, transform, CYLINDER_DIVISIONS );
+    }
+
+    /**
+     * Acquires a cylinder mesh along the X axis.
+     *
+     * @param length length
+     * @param diameter diameter
+     * @param color colour
+     * @param transform additional transform applied to all vertices
+     * @param divisions number of segments
+     * @return mesh, must be {@link #release(Mesh) released} when no longer needed
+     */
+    public Mesh acquireCylinder(float length, float diameter, Color color, Matrix4 transform, int divisions)
+    {
+        Validate.notNull( color, "color must not be null" );
+        Validate.notNull( transform, "transform must not be null" );
+        Validate.isTrue( divisions >= 3, "divisions must be >= 3" );
+        return acquire( new Key( Shape.CYLINDER, diameter, length, diameter, Color.rgba8888( color ), transform.val.clone(), divisions ) );
+    }
+
+    private Mesh acquire(Key key)
+    {
+        Entry entry = entries.get( key );
+        if ( entry == null )
+        {
+            misses++;
+            entry = new Entry( key, build( key ) );
+            entries.put( key, entry );
+            byMesh.put( entry.mesh, entry );
+        }
+        else
+        {
+            hits++;
+        }
+        entry.refCount++;
+        return entry.mesh;
+    }
+
+    /**
+     * Releases a mesh, disposing it when this was the last reference.
+     *
+     * @param mesh mesh obtained from this cache
+     * @throws IllegalArgumentException if the mesh was not obtained from this cache or already got disposed
+     */
+    public void release(Mesh mesh)
+    {
+        Validate.notNull( mesh, "mesh must not be null" );
+        final Entry entry = byMesh.get( mesh );
+        Validate.isTrue( entry != null, "mesh not managed by this cache (or already disposed)" );
+        if ( --entry.refCount == 0 )
+        {
+            entries.remove( entry.key );
+            byMesh.remove( mesh );
+            mesh.dispose();
+        }
+    }
+
+    /**
+     * Returns the number of references to a mesh.
+     *
+     * @param mesh mesh
+     * @return reference count, 0 if the mesh is not managed by this cache
+     */
+    public int refCount(Mesh mesh)
+    {
+        final Entry entry = byMesh.get( mesh );
+        return entry == null ? 0 : entry.refCount;
+    }
+
+    /**
+     * Returns the number of distinct meshes currently cached.
+     *
+     * @return count
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public long hits()
+    {
+        return hits;
+    }
+
+    public long misses()
+    {
+        return misses;
+    }
+
+    /**
+     * Disposes all cached meshes regardless of their reference counts.
+     */
+    public void dispose()
+    {
+        byMesh.keySet().forEach( Mesh::dispose );
+        byMesh.clear();
+        entries.clear();
+    }
+
+    private static Mesh build(Key key)
+    {
+        final Color color = new Color( key.rgba() );
+        return switch( key.shape() ) {
+            case BOX -> createBoxMesh( key.width(), key.height(), key.depth(), color );
+            case CYLINDER -> createCylinderMesh( key.height(), key.width(), color, new Matrix4( key.transform() ), key.divisions() );
+        };
+    }
+
+    private static VertexAttributes vertexAttributes()
+    {
+        return new VertexAttributes(
+            new VertexAttribute( VertexAttributes.Usage.Position, 3, ShaderProgram.POSITION_ATTRIBUTE ),
+            new VertexAttribute( VertexAttributes.Usage.Normal, 3, ShaderProgram.NORMAL_ATTRIBUTE ),
+            new VertexAttribute( VertexAttributes.Usage.ColorUnpacked, 4, ShaderProgram.COLOR_ATTRIBUTE )
+        );
+    }
+
+    /**
+     * Builds a new (uncached) cylinder mesh along the X axis.
+     *
+     * @param length length
+     * @param diameter diameter
+     * @param color colour
+     * @param transform additional transform applied to all vertices
+     * @return mesh, owned by the caller
+     */
+    public static Mesh createCylinderMesh(float length, float diameter, Color color, Matrix4 transform)
+    {
+        return createCylinderMesh( length, diameter, color, transform, CYLINDER_DIVISIONS );
+    }
+
+    /**
+     * Builds a new (uncached) cylinder mesh along the X axis.
+     *
+     * @param length length
+     * @param diameter diameter
+     * @param color colour
+     * @param transform additional transform applied to all vertices
+     * @param divisions number of segments
+     * @return mesh, owned by the caller
+     */
+    public static Mesh createCylinderMesh(float length, float diameter, Color color, Matrix4 transform, int divisions)
+    {
+        final MeshBuilder builder = new MeshBuilder();
+        builder.begin( vertexAttributes(), GL20.GL_TRIANGLES );
+        builder.setColor( color );
+
+        final Matrix4 initialRot = new Matrix4().setToRotation( new Vector3( 0, 0, 1 ), 90 );
+        initialRot.mul( transform );
+
+        builder.setVertexTransformationEnabled( true );
+        builder.setVertexTransform( initialRot );
+
+        builder.cylinder( diameter, length, diameter, divisions );
+        return builder.end();
+    }
+
+    /**
+     * Builds a new (uncached) box mesh.
+     *
+     * @param width width
+     * @param height height
+     * @param depth depth
+     * @param color colour
+     * @return mesh, owned by the caller
+     */
+    public static Mesh createBoxMesh(float width, float height, float depth, Color color)
+    {
+        final MeshBuilder builder = new MeshBuilder();
+        builder.begin( vertexAttributes(), GL20.GL_TRIANGLES );
+        builder.setColor( color );
+        builder.box( width, height, depth );
+        return builder.end();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "%d meshes, %d hits, %d misses".formatted( size(), hits, misses );
+    }
+}
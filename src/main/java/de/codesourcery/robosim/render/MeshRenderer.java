@@ -6,13 +6,16 @@ import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.PerspectiveCamera;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g3d.utils.FirstPersonCameraController;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
 import de.codesourcery.robosim.ITickListener;
+import de.codesourcery.robosim.metrics.Instrumentation;
 
 public class MeshRenderer extends ApplicationAdapter
 {
@@ -67,18 +70,52 @@ public class MeshRenderer extends ApplicationAdapter
     private PerspectiveCamera camera;
     private List<Body> bodies;
     private final Supplier<List<Body>> bodySupplier;
+    private SceneGraph sceneGraph;
+    private final Supplier<SceneGraph> sceneGraphSupplier;
 
     private SpriteBatch batch;
     private BitmapFont font;
 
     private final ITickListener beforeRenderingFrame;
 
+    private final FrustumCuller culler = new FrustumCuller();
+    private final RenderCommandList commands = new RenderCommandList();
+    private final UniformCache uniforms = new UniformCache();
+    private final LevelOfDetail lod = new LevelOfDetail();
+
+    // uniform locations, looked up once after compiling the shader
+    private int projTransLocation;
+    private int worldTransLocation;
+    private int meshTransLocation;
+    private int lightPositionLocation;
+    private int lightColorLocation;
+    private int ambientColorLocation;
+
     public MeshRenderer(Supplier<List<Body>> bodySupplier, ITickListener beforeRenderingFrame)
+    {
+        this( bodySupplier, null, beforeRenderingFrame );
+    }
+
+    private MeshRenderer(Supplier<List<Body>> bodySupplier, Supplier<SceneGraph> sceneGraphSupplier, ITickListener beforeRenderingFrame)
     {
         this.bodySupplier = bodySupplier;
+        this.sceneGraphSupplier = sceneGraphSupplier;
         this.beforeRenderingFrame = beforeRenderingFrame;
     }
 
+    /**
+     * Creates a renderer that draws all nodes of a {@link SceneGraph} that have a mesh, reading
+     * world matrices straight from the scene graph's arrays.
+     *
+     * @param sceneGraphSupplier provides the scene graph, invoked once the GL context is available
+     * @param beforeRenderingFrame invoked before every frame
+     * @return renderer
+     */
+    public static MeshRenderer forSceneGraph(Supplier<SceneGraph> sceneGraphSupplier, ITickListener beforeRenderingFrame)
+    {
+        return new MeshRenderer( null, sceneGraphSupplier, beforeRenderingFrame );
+    }
+
     @Override
     public void create()
     {
@@ -90,13 +127,23 @@ public class MeshRenderer extends ApplicationAdapter
         font.setColor( Color.WHITE);
 
         //
-        this.bodies = bodySupplier.get();
+        if ( sceneGraphSupplier != null ) {
+            this.sceneGraph = sceneGraphSupplier.get();
+        } else {
+            this.bodies = bodySupplier.get();
+        }
         shader = new ShaderProgram( VERTEX_SHADER, FRAGMENT_SHADER );
         if ( !shader.isCompiled() )
         {
             Gdx.app.error( "Shader Error", shader.getLog() );
             throw new IllegalStateException( "Shader failed to compile." );
         }
+        projTransLocation = shader.fetchUniformLocation( "u_projTrans", false );
+        worldTransLocation = shader.fetchUniformLocation( "u_worldTrans", false );
+        meshTransLocation = shader.fetchUniformLocation( "u_meshTrans", false );
+        lightPositionLocation = shader.fetchUniformLocation( "u_lightPosition", false );
+        lightColorLocation = shader.fetchUniformLocation( "u_lightColor", false );
+        ambientColorLocation = shader.fetchUniformLocation( "u_ambientColor", false );
         camera = new PerspectiveCamera(67, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
         camera.position.set(300, 170f, 155f);
         camera.direction.set( new Vector3( -0.8998152f, -0.08207582f, -0.42848226f ) );
@@ -127,22 +174,63 @@ public class MeshRenderer extends ApplicationAdapter
 
         cameraController.update(Gdx.graphics.getDeltaTime());
 
+        // the tick listener runs the simulation, that is timed by its own stages
+        final long start = Instrumentation.start();
+
         Gdx.gl.glClearColor(0.2f, 0.2f, 0.2f, 1);
         Gdx.gl.glViewport(0, 0, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT | GL20.GL_DEPTH_BUFFER_BIT);
         Gdx.gl.glEnable(GL20.GL_DEPTH_TEST);
 
         shader.bind();
-        shader.setUniformMatrix("u_projTrans", camera.combined);
-        shader.setUniformMatrix("u_worldTrans", camera.view);
-        shader.setUniformf("u_lightPosition", lightPosition);
-        shader.setUniformf("u_lightColor", lightColor);
-        shader.setUniformf("u_ambientColor", ambientColor);
-        for ( final Body body : bodies )
+        // only uploaded when the camera moved
+        final GL20 gl = Gdx.gl20;
+        uniforms.setMatrix4( gl, projTransLocation, camera.combined.val );
+        uniforms.setMatrix4( gl, worldTransLocation, camera.view.val );
+        uniforms.setVector3( gl, lightPositionLocation, lightPosition );
+        uniforms.setVector3( gl, lightColorLocation, lightColor );
+        uniforms.setVector3( gl, ambientColorLocation, ambientColor );
+
+        commands.clear();
+        culler.beginFrame();
+        lod.beginFrame();
+        final float viewportHeight = Gdx.graphics.getHeight();
+        if ( sceneGraph != null )
+        {
+            sceneGraph.updateWorldMatrices();
+            final float[] worldMatrices = sceneGraph.worldMatrices();
+            final float[] worldBounds = sceneGraph.worldBounds();
+            for ( int i = 0, len = sceneGraph.size(); i < len; i++ )
+            {
+                if ( sceneGraph.mesh( i ) != null && culler.isVisible( camera.frustum, worldBounds, i * 6 ) )
+                {
+                    final float size = LevelOfDetail.projectedSize( worldBounds, i * 6, camera.position, camera.fieldOfView, viewportHeight );
+                    final int level = lod.select( size, sceneGraph.lodLevel( i ), sceneGraph.levelCount( i ) );
+                    sceneGraph.setLodLevel( i, level );
+                    commands.add( sceneGraph.mesh( i, level ), worldMatrices, i * 16 );
+                }
+            }
+        }
+        else
         {
-            shader.setUniformMatrix("u_meshTrans", body.getAbsoluteMatrix());
-            body.getMesh().render( shader, GL20.GL_TRIANGLES);
+            for ( int i = 0, len = bodies.size(); i < len; i++ )
+            {
+                final Body body = bodies.get( i );
+                final BoundingBox bb = body.getWorldBoundingBox();
+                if ( culler.isVisible( camera.frustum, bb ) )
+                {
+                    final float size = LevelOfDetail.projectedSize( bb.min.x, bb.min.y, bb.min.z, bb.max.x, bb.max.y, bb.max.z,
+                        camera.position, camera.fieldOfView, viewportHeight );
+                    final int level = lod.select( size, body.getLodLevel(), body.getLevelCount() );
+                    body.setLodLevel( level );
+                    commands.add( body.getMesh( level ), body.getAbsoluteMatrix() );
+                }
+            }
         }
+        // draw bodies sharing a mesh back-to-back
+        commands.sort();
+        commands.execute( gl, shader, meshTransLocation, GL20.GL_TRIANGLES );
+        Instrumentation.stop( Instrumentation.Stage.MESH_RENDER, start );
 
 //        batch.begin();
 //        font.draw(batch, "Camera pos: "+camera.position, 100, 100);
@@ -151,10 +239,52 @@ public class MeshRenderer extends ApplicationAdapter
 //        batch.end();
     }
 
+    /**
+     * Returns the culler that decides which bodies get drawn.
+     *
+     * @return culler, use it to read statistics or to disable culling
+     */
+    public FrustumCuller getCuller()
+    {
+        return culler;
+    }
+
+    /**
+     * Returns the command list of the last frame.
+     *
+     * @return command list, use it to read draw call statistics
+     */
+    public RenderCommandList getCommands()
+    {
+        return commands;
+    }
+
+    /**
+     * Returns the level of detail selection.
+     *
+     * @return level of detail selection, use it to read statistics
+     */
+    public LevelOfDetail getLevelOfDetail()
+    {
+        return lod;
+    }
+
+    public UniformCache getUniforms()
+    {
+        return uniforms;
+    }
+
     @Override
     public void dispose()
     {
-        bodies.forEach( body -> body.getMesh().dispose() );
+        // bodies release shared meshes through their cache
+        if ( sceneGraph != null ) {
+            sceneGraph.dispose();
+        } else {
+            bodies.forEach( Body::dispose );
+        }
+        commands.clear();
+        commands.forgetMeshes();
         shader.dispose();
         batch.dispose();
     }
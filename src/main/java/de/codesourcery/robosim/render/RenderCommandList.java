@@ -0,0 +1,193 @@
+package de.codesourcery.robosim.render;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+
+/**
+ * Per-frame list of draw commands (mesh plus world matrix).
+ *
+ * <p>Commands get {@link #sort() sorted} by mesh so that every mesh is bound once per frame and all bodies
+ * sharing it (see {@link MeshCache}) are drawn back-to-back, only the world matrix uniform changes in between.
+ * There is only a single shader program, so sorting by program is not needed.</p>
+ *
+ * <p>Draw calls and uniform uploads go through the {@link GL20} instance passed to
+ * {@link #execute(GL20, ShaderProgram, int, int)}, so a recording stub can count them without a GPU. Commands are
+ * stored in preallocated arrays, building and executing a frame does not allocate once the arrays have grown to
+ * the scene size.</p>
+ */
+public final class RenderCommandList
+{
+    private int size;
+    private Mesh[] meshes = new Mesh[64];
+    private float[] matrices = new float[64 * 16];
+    // (meshId << 32) | command index
+    private long[] sortKeys = new long[64];
+    private boolean sorted = true;
+
+    // stable per-mesh sort key, in order of first appearance
+    private final Map<Mesh, Integer> meshIds = new IdentityHashMap<>();
+
+    // statistics of the last execute()
+    private int drawCalls;
+    private int meshBinds;
+
+    /**
+     * Removes all commands.
+     */
+    public void clear()
+    {
+        size = 0;
+        sorted = true;
+    }
+
+    /**
+     * Adds a command.
+     *
+     * @param mesh mesh to draw
+     * @param matrix array holding the world matrix (column-major), gets copied
+     * @param offset offset of the matrix in <code>matrix</code>
+     */
+    public void add(Mesh mesh, float[] matrix, int offset)
+    {
+        if ( mesh == null ) {
+            throw new NullPointerException( "mesh must not be null" );
+        }
+        if ( size == meshes.length ) {
+            grow();
+        }
+        Integer id = meshIds.get( mesh );
+        if ( id == null ) {
+            id = meshIds.size();
+            meshIds.put( mesh, id );
+        }
+        meshes[size] = mesh;
+        System.arraycopy( matrix, offset, matrices, size * 16, 16 );
+        sortKeys[size] = ((long) id << 32) | size;
+        if ( size > 0 && sortKeys[size - 1] > sortKeys[size] ) {
+            sorted = false;
+        }
+        size++;
+    }
+
+    /**
+     * Adds a command.
+     *
+     * @param mesh mesh to draw
+     * @param matrix world matrix, gets copied
+     */
+    public void add(Mesh mesh, Matrix4 matrix)
+    {
+        add( mesh, matrix.val, 0 );
+    }
+
+    private void grow()
+    {
+        final int newCapacity = meshes.length * 2;
+        meshes = Arrays.copyOf( meshes, newCapacity );
+        matrices = Arrays.copyOf( matrices, newCapacity * 16 );
+        sortKeys = Arrays.copyOf( sortKeys, newCapacity );
+    }
+
+    /**
+     * Sorts commands by mesh, commands using the same mesh keep the order they were added in.
+     */
+    public void sort()
+    {
+        if ( ! sorted )
+        {
+            Arrays.sort( sortKeys, 0, size );
+            sorted = true;
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Forgets meshes that are no longer used, call after meshes got disposed. Requires the list to be empty.
+     */
+    public void forgetMeshes()
+    {
+        Validate.isTrue( size == 0, "command list must be empty" );
+        meshIds.clear();
+    }
+
+    /**
+     * Issues all commands in sort order.
+     *
+     * <p>Meshes get bound only when the mesh changes between consecutive commands, the world matrix gets uploaded
+     * for every command.</p>
+     *
+     * @param gl GL to issue uniform uploads and draw calls through
+     * @param shader bound shader program
+     * @param meshTransLocation location of the world matrix uniform
+     * @param primitiveType primitive type to draw, e.g. {@link GL20#GL_TRIANGLES}
+     * @return number of draw calls
+     */
+    public int execute(GL20 gl, ShaderProgram shader, int meshTransLocation, int primitiveType)
+    {
+        drawCalls = 0;
+        meshBinds = 0;
+        Mesh current = null;
+        for ( int i = 0; i < size; i++ )
+        {
+            final int cmd = (int) sortKeys[i];
+            final Mesh mesh = meshes[cmd];
+            if ( mesh != current )
+            {
+                if ( current != null ) {
+                    current.unbind( shader );
+                }
+                mesh.bind( shader );
+                meshBinds++;
+                current = mesh;
+            }
+            gl.glUniformMatrix4fv( meshTransLocation, 1, false, matrices, cmd * 16 );
+            // same as Mesh#render() for buffer object meshes, but through our GL instance
+            if ( mesh.getNumIndices() > 0 ) {
+                gl.glDrawElements( primitiveType, mesh.getNumIndices(), GL20.GL_UNSIGNED_SHORT, 0 );
+            } else {
+                gl.glDrawArrays( primitiveType, 0, mesh.getNumVertices() );
+            }
+            drawCalls++;
+        }
+        if ( current != null ) {
+            current.unbind( shader );
+        }
+        return drawCalls;
+    }
+
+    /**
+     * Returns the number of draw calls issued by the last {@link #execute(GL20, ShaderProgram, int, int)}.
+     *
+     * @return count
+     */
+    public int drawCalls()
+    {
+        return drawCalls;
+    }
+
+    /**
+     * Returns the number of mesh binds done by the last {@link #execute(GL20, ShaderProgram, int, int)}.
+     *
+     * @return count
+     */
+    public int meshBinds()
+    {
+        return meshBinds;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "%d commands, %d draw calls, %d mesh binds".formatted( size, drawCalls, meshBinds );
+    }
+}
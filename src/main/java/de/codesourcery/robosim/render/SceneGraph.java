@@ -0,0 +1,523 @@
+package de.codesourcery.robosim.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import de.codesourcery.robosim.metrics.Instrumentation;
+
+/**
+ * Flat scene store for large numbers of bodies.
+ *
+ * <p>Nodes are kept in topological order (a parent always has a smaller index than its children) in
+ * structure-of-arrays form: local and world matrices live in contiguous <code>float[]</code> blocks of 16 floats
+ * per node (column-major, like {@link Matrix4#val}), parents in an <code>int[]</code>. Updating all world
+ * matrices is a single linear pass over these arrays, only nodes whose local matrix or one of whose ancestors
+ * changed get recomputed, along with their world-space axis-aligned bounding boxes.</p>
+ *
+ * <p>{@link Body bodies} can be {@link #of(List) copied} into a scene graph, they then write transform changes
+ * through to their node.</p>
+ *
+ * <p>Instances are not thread-safe.</p>
+ */
+public final class SceneGraph
+{
+    /** parent index of root nodes */
+    public static final int NO_PARENT = -1;
+
+    private int size;
+    private int[] parents;
+    private float[] localMatrices;
+    private float[] worldMatrices;
+    // set when a node's world matrix needs to be recomputed
+    private boolean[] dirty;
+    private Mesh[] meshes;
+    // meshes per level of detail (finest first), null entries for nodes with only one
+    private Mesh[][] levelsOfDetail;
+    // level used in the last frame, -1 if none yet
+    private int[] lodLevels;
+    // AABBs as (minX,minY,minZ,maxX,maxY,maxZ) per node
+    private float[] localBounds;
+    private float[] worldBounds;
+    // bodies this scene graph was created from
+    private final List<Body> bodies = new ArrayList<>();
+
+    // statistics
+    private long worldUpdates;
+
+    public SceneGraph()
+    {
+        this( 16 );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param initialCapacity number of nodes to allocate space for
+     */
+    public SceneGraph(int initialCapacity)
+    {
+        Validate.isTrue( initialCapacity > 0, "initialCapacity must be > 0" );
+        parents = new int[initialCapacity];
+        localMatrices = new float[initialCapacity * 16];
+        worldMatrices = new float[initialCapacity * 16];
+        dirty = new boolean[initialCapacity];
+        meshes = new Mesh[initialCapacity];
+        levelsOfDetail = new Mesh[initialCapacity][];
+        lodLevels = new int[initialCapacity];
+        localBounds = new float[initialCapacity * 6];
+        worldBounds = new float[initialCapacity * 6];
+    }
+
+    /**
+     * Creates a scene graph from body hierarchies.
+     *
+     * <p>Bodies get bound to their nodes, subsequent calls to {@link Body#setPosition(float, float, float)}
+     * and {@link Body#setRotation(Matrix4)} update the scene graph as well.</p>
+     *
+     * @param roots top-level bodies
+     * @return scene graph, nodes are in depth-first order
+     */
+    public static SceneGraph of(List<Body> roots)
+    {
+        Validate.notNull( roots, "roots must not be null" );
+        final List<Body> all = new ArrayList<>();
+        roots.forEach( root -> root.visit( all::add ) );
+        final SceneGraph result = new SceneGraph( Math.max( 1, all.size() ) );
+        for ( Body root : roots ) {
+            result.addBody( root, NO_PARENT );
+        }
+        return result;
+    }
+
+    private void addBody(Body body, int parent)
+    {
+        final int node = add( parent, body.getMesh(), body.getInitialBoundingBox() );
+        body.bindTo( this, node );
+        if ( body.getLevelCount() > 1 )
+        {
+            final Mesh[] levels = new Mesh[body.getLevelCount()];
+            Arrays.setAll( levels, body::getMesh );
+            levelsOfDetail[node] = levels;
+        }
+        bodies.add( body );
+        body.visitChildren( child -> addBody( child, node ) );
+    }
+
+    /**
+     * Adds a node with an identity local matrix.
+     *
+     * @param parent index of the parent node or {@link #NO_PARENT}
+     * @param mesh mesh to render, may be <code>null</code>
+     * @return node index
+     */
+    public int add(int parent, Mesh mesh)
+    {
+        return add( parent, mesh, mesh == null ? null : mesh.calculateBoundingBox() );
+    }
+
+    /**
+     * Adds a node with an identity local matrix.
+     *
+     * @param parent index of the parent node or {@link #NO_PARENT}
+     * @param mesh mesh to render, may be <code>null</code>
+     * @param localBounds bounding box in local coordinate space, <code>null</code> for a point at the origin
+     * @return node index
+     */
+    public int add(int parent, Mesh mesh, BoundingBox localBounds)
+    {
+        Validate.isTrue( parent >= NO_PARENT && parent < size, "parent must be an existing node or NO_PARENT" );
+        if ( size == parents.length ) {
+            grow();
+        }
+        final int node = size++;
+        parents[node] = parent;
+        meshes[node] = mesh;
+        levelsOfDetail[node] = null;
+        lodLevels[node] = -1;
+        setIdentity( localMatrices, node * 16 );
+        if ( localBounds != null ) {
+            setLocalBounds( node, localBounds );
+        } else {
+            Arrays.fill( this.localBounds, node * 6, node * 6 + 6, 0 );
+        }
+        dirty[node] = true;
+        return node;
+    }
+
+    private void grow()
+    {
+        final int newCapacity = parents.length * 2;
+        parents = Arrays.copyOf( parents, newCapacity );
+        localMatrices = Arrays.copyOf( localMatrices, newCapacity * 16 );
+        worldMatrices = Arrays.copyOf( worldMatrices, newCapacity * 16 );
+        dirty = Arrays.copyOf( dirty, newCapacity );
+        meshes = Arrays.copyOf( meshes, newCapacity );
+        levelsOfDetail = Arrays.copyOf( levelsOfDetail, newCapacity );
+        lodLevels = Arrays.copyOf( lodLevels, newCapacity );
+        localBounds = Arrays.copyOf( localBounds, newCapacity * 6 );
+        worldBounds = Arrays.copyOf( worldBounds, newCapacity * 6 );
+    }
+
+    private static void setIdentity(float[] m, int offset)
+    {
+        Arrays.fill( m, offset, offset + 16, 0 );
+        m[offset + Matrix4.M00] = m[offset + Matrix4.M11] = m[offset + Matrix4.M22] = m[offset + Matrix4.M33] = 1;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int parent(int node)
+    {
+        checkNode( node );
+        return parents[node];
+    }
+
+    public Mesh mesh(int node)
+    {
+        checkNode( node );
+        return meshes[node];
+    }
+
+    /**
+     * Sets the meshes for each level of detail.
+     *
+     * @param node node index
+     * @param levels meshes, finest first, <code>null</code> to only use {@link #mesh(int) the node's mesh}
+     * @see LevelOfDetail
+     */
+    public void setLevelsOfDetail(int node, Mesh[] levels)
+    {
+        checkNode( node );
+        levelsOfDetail[node] = levels == null ? null : levels.clone();
+        lodLevels[node] = -1;
+    }
+
+    public int levelCount(int node)
+    {
+        checkNode( node );
+        return levelsOfDetail[node] == null ? 1 : levelsOfDetail[node].length;
+    }
+
+    /**
+     * Returns a node's mesh for a level of detail.
+     *
+     * @param node node index
+     * @param level level, 0 is the finest
+     * @return mesh, may be <code>null</code>
+     */
+    public Mesh mesh(int node, int level)
+    {
+        checkNode( node );
+        return levelsOfDetail[node] == null ? meshes[node] : levelsOfDetail[node][level];
+    }
+
+    /**
+     * Returns the level of detail the renderer used in the last frame.
+     *
+     * @param node node index
+     * @return level, -1 if none yet
+     */
+    public int lodLevel(int node)
+    {
+        checkNode( node );
+        return lodLevels[node];
+    }
+
+    public void setLodLevel(int node, int level)
+    {
+        checkNode( node );
+        lodLevels[node] = level;
+    }
+
+    /**
+     * Sets a node's local matrix.
+     *
+     * @param node node index
+     * @param m local matrix
+     */
+    public void setLocalTransform(int node, Matrix4 m)
+    {
+        checkNode( node );
+        System.arraycopy( m.val, 0, localMatrices, node * 16, 16 );
+        dirty[node] = true;
+    }
+
+    /**
+     * Sets a node's local matrix to <code>translation * rotation</code> (like {@link Body} does), without allocating.
+     *
+     * @param node node index
+     * @param translation translation
+     * @param rotation rotation
+     */
+    public void setLocalTransform(int node, Vector3 translation, Matrix4 rotation)
+    {
+        checkNode( node );
+        final float[] r = rotation.val;
+        final float[] m = localMatrices;
+        final int o = node * 16;
+        for ( int col = 0; col < 4; col++ )
+        {
+            final int c = col * 4;
+            final float w = r[c + 3];
+            m[o + c] = r[c] + translation.x * w;
+            m[o + c + 1] = r[c + 1] + translation.y * w;
+            m[o + c + 2] = r[c + 2] + translation.z * w;
+            m[o + c + 3] = w;
+        }
+        dirty[node] = true;
+    }
+
+    /**
+     * Sets a node's bounding box in local coordinate space.
+     *
+     * @param node node index
+     * @param bounds bounding box
+     */
+    public void setLocalBounds(int node, BoundingBox bounds)
+    {
+        checkNode( node );
+        final int o = node * 6;
+        localBounds[o] = bounds.min.x;
+        localBounds[o + 1] = bounds.min.y;
+        localBounds[o + 2] = bounds.min.z;
+        localBounds[o + 3] = bounds.max.x;
+        localBounds[o + 4] = bounds.max.y;
+        localBounds[o + 5] = bounds.max.z;
+        dirty[node] = true;
+    }
+
+    // no Validate here, building the message would allocate on every call
+    private void checkNode(int node)
+    {
+        if ( node < 0 || node >= size ) {
+            throw new IndexOutOfBoundsException( "node index out of range: " + node );
+        }
+    }
+
+    /**
+     * Recomputes the world matrices of all nodes whose local matrix or one of whose ancestors' local matrices changed.
+     *
+     * @return number of recomputed world matrices
+     */
+    public int updateWorldMatrices()
+    {
+        final long start = Instrumentation.start();
+        final int[] parents = this.parents;
+        final float[] local = this.localMatrices;
+        final float[] world = this.worldMatrices;
+        final boolean[] dirty = this.dirty;
+        int updated = 0;
+        for ( int i = 0; i < size; i++ )
+        {
+            final int p = parents[i];
+            // parents come first, so their flag already includes all their ancestors
+            if ( p != NO_PARENT && dirty[p] ) {
+                dirty[i] = true;
+            }
+            if ( dirty[i] )
+            {
+                if ( p == NO_PARENT ) {
+                    System.arraycopy( local, i * 16, world, i * 16, 16 );
+                } else {
+                    mul( world, p * 16, local, i * 16, world, i * 16 );
+                }
+                transformBounds( world, i * 16, localBounds, worldBounds, i * 6 );
+                updated++;
+            }
+        }
+        if ( updated > 0 ) {
+            Arrays.fill( dirty, 0, size, false );
+        }
+        worldUpdates += updated;
+        Instrumentation.stop( Instrumentation.Stage.WORLD_TRANSFORMS, start );
+        return updated;
+    }
+
+    /*
+     * Transforms an AABB by transforming its center and summing the absolute values of the matrix times the
+     * half extents (J. Arvo, "Transforming Axis-Aligned Bounding Boxes"), cheaper than transforming 8 corners.
+     */
+    private static void transformBounds(float[] m, int mo, float[] in, float[] out, int o)
+    {
+        final float cx = (in[o] + in[o + 3]) * 0.5f, cy = (in[o + 1] + in[o + 4]) * 0.5f, cz = (in[o + 2] + in[o + 5]) * 0.5f;
+        final float ex = (in[o + 3] - in[o]) * 0.5f, ey = (in[o + 4] - in[o + 1]) * 0.5f, ez = (in[o + 5] - in[o + 2]) * 0.5f;
+        for ( int row = 0; row < 3; row++ )
+        {
+            final float m0 = m[mo + row], m1 = m[mo + 4 + row], m2 = m[mo + 8 + row];
+            final float center = m0 * cx + m1 * cy + m2 * cz + m[mo + 12 + row];
+            final float extent = Math.abs( m0 ) * ex + Math.abs( m1 ) * ey + Math.abs( m2 ) * ez;
+            out[o + row] = center - extent;
+            out[o + 3 + row] = center + extent;
+        }
+    }
+
+    /*
+     * result = a * b (column-major 4x4), result must not overlap b.
+     */
+    private static void mul(float[] a, int ao, float[] b, int bo, float[] result, int ro)
+    {
+        for ( int col = 0; col < 4; col++ )
+        {
+            final int c = bo + col * 4;
+            final float b0 = b[c], b1 = b[c + 1], b2 = b[c + 2], b3 = b[c + 3];
+            for ( int row = 0; row < 4; row++ )
+            {
+                result[ro + col * 4 + row] = a[ao + row] * b0 + a[ao + 4 + row] * b1 + a[ao + 8 + row] * b2 + a[ao + 12 + row] * b3;
+            }
+        }
+    }
+
+    /**
+     * Returns the world matrices of all nodes as of the last call to {@link #updateWorldMatrices()}.
+     *
+     * @return array holding 16 floats per node (column-major), node <code>i</code> starts at offset <code>i*16</code>.
+     * Must not be modified. The array gets replaced when nodes are added.
+     */
+    public float[] worldMatrices()
+    {
+        return worldMatrices;
+    }
+
+    /**
+     * Returns the world-space AABBs of all nodes as of the last call to {@link #updateWorldMatrices()}.
+     *
+     * @return array holding (minX,minY,minZ,maxX,maxY,maxZ) per node, node <code>i</code> starts at offset
+     * <code>i*6</code>. Must not be modified. The array gets replaced when nodes are added.
+     */
+    public float[] worldBounds()
+    {
+        return worldBounds;
+    }
+
+    /**
+     * Copies a node's world matrix.
+     *
+     * @param node node index
+     * @param result receives the world matrix
+     * @return <code>result</code>
+     */
+    public Matrix4 getWorldMatrix(int node, Matrix4 result)
+    {
+        checkNode( node );
+        System.arraycopy( worldMatrices, node * 16, result.val, 0, 16 );
+        return result;
+    }
+
+    /**
+     * {@link Body#dispose() Disposes} the bodies this scene graph was {@link #of(List) created from}.
+     *
+     * <p>Meshes of nodes added through {@link #add(int, Mesh)} are owned by the caller.</p>
+     */
+    public void dispose()
+    {
+        bodies.forEach( Body::dispose );
+    }
+
+    /**
+     * Returns the total number of world matrices recomputed so far.
+     *
+     * @return count
+     */
+    public long worldUpdateCount()
+    {
+        return worldUpdates;
+    }
+
+    private static List<Body> createArms(int robots)
+    {
+        final BoundingBox bb = new BoundingBox( new Vector3( -5, -5, -5 ), new Vector3( 5, 5, 5 ) );
+        final List<Body> roots = new ArrayList<>();
+        for ( int r = 0; r < robots; r++ )
+        {
+            Body previous = null;
+            for ( int i = 0; i < 13; i++ )
+            {
+                final Body body = new Body( bb, null );
+                if ( previous == null ) {
+                    roots.add( body );
+                    body.setPosition( r * 20, 0, 0 );
+                } else {
+                    previous.addChild( body );
+                    body.setPosition( 0, 10, 0 );
+                }
+                previous = body;
+            }
+        }
+        return roots;
+    }
+
+    static void main()
+    {
+        final int robots = 1000;
+        final int frames = 2000;
+        final Matrix4[] rotations = { new Matrix4().rotate( Vector3.Z, 1 ), new Matrix4().rotate( Vector3.X, -1 ) };
+
+        final List<Body> treeRoots = createArms( robots );
+        final List<Body> tree = new ArrayList<>();
+        treeRoots.forEach( root -> root.visit( tree::add ) );
+
+        final List<Body> graphRoots = createArms( robots );
+        final List<Body> bound = new ArrayList<>();
+        graphRoots.forEach( root -> root.visit( bound::add ) );
+        final SceneGraph graph = SceneGraph.of( graphRoots );
+        final Vector3[] positions = bound.stream().map( b -> new Vector3( b.relativePosition() ) ).toArray( Vector3[]::new );
+
+        // sanity check, bound bodies write through to the graph
+        for ( int i = 0; i < bound.size(); i++ ) {
+            bound.get( i ).setRotation( rotations[i & 1] );
+        }
+        graph.updateWorldMatrices();
+        final Matrix4 tmp = new Matrix4();
+        float maxError = 0;
+        for ( int i = 0; i < bound.size(); i++ )
+        {
+            final float[] expected = bound.get( i ).getAbsoluteMatrix().val;
+            final float[] actual = graph.getWorldMatrix( i, tmp ).val;
+            for ( int j = 0; j < 16; j++ ) {
+                maxError = Math.max( maxError, Math.abs( expected[j] - actual[j] ) );
+            }
+        }
+        System.out.printf( "%d bodies, max. deviation from Body: %g%n", bound.size(), maxError );
+
+        // every body changes every frame, worst case for both
+        for ( int round = 0; round < 3; round++ )
+        {
+            double checksum = 0;
+            long start = System.nanoTime();
+            for ( int f = 0; f < frames; f++ )
+            {
+                for ( Body body : tree ) {
+                    body.setRotation( rotations[f & 1] );
+                }
+                for ( Body body : tree ) {
+                    checksum += body.getAbsoluteMatrix().val[Matrix4.M03];
+                }
+            }
+            final long treeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for ( int f = 0; f < frames; f++ )
+            {
+                for ( int i = 0; i < graph.size(); i++ ) {
+                    graph.setLocalTransform( i, positions[i], rotations[f & 1] );
+                }
+                graph.updateWorldMatrices();
+                final float[] world = graph.worldMatrices();
+                for ( int i = 0; i < graph.size(); i++ ) {
+                    checksum += world[i * 16 + Matrix4.M03];
+                }
+            }
+            final long flatNanos = System.nanoTime() - start;
+            System.out.printf( "Body tree: %,.1f us/frame, scene graph: %,.1f us/frame (checksum %.0f)%n",
+                treeNanos / 1000d / frames, flatNanos / 1000d / frames, checksum );
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package de.codesourcery.robosim.render;
+
+import java.util.Arrays;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Remembers the last values uploaded to uniforms of a shader program and skips uploads that would not change anything.
+ *
+ * <p>Uniform values are part of the program object's state and survive binding other programs, so a cache is
+ * only valid for a single program. {@link #invalidate() Invalidate} it after the program got re-linked
+ * (context loss).</p>
+ */
+public final class UniformCache
+{
+    // last uploaded values, indexed by uniform location
+    private float[][] values = new float[16][];
+
+    // statistics
+    private long uploads;
+    private long skipped;
+
+    /**
+     * Uploads a 4x4 matrix unless the uniform already holds it.
+     *
+     * @param gl GL to upload through
+     * @param location uniform location, negative locations (uniform not found) are ignored
+     * @param matrix 16 floats (column-major)
+     */
+    public void setMatrix4(GL20 gl, int location, float[] matrix)
+    {
+        if ( location < 0 ) {
+            return;
+        }
+        final float[] last = last( location, 16 );
+        if ( Arrays.equals( last, 0, 16, matrix, 0, 16 ) )
+        {
+            skipped++;
+            return;
+        }
+        System.arraycopy( matrix, 0, last, 0, 16 );
+        gl.glUniformMatrix4fv( location, 1, false, matrix, 0 );
+        uploads++;
+    }
+
+    /**
+     * Uploads a 3-component vector unless the uniform already holds it.
+     *
+     * @param gl GL to upload through
+     * @param location uniform location, negative locations (uniform not found) are ignored
+     * @param v vector
+     */
+    public void setVector3(GL20 gl, int location, Vector3 v)
+    {
+        if ( location < 0 ) {
+            return;
+        }
+        final float[] last = last( location, 3 );
+        if ( last[0] == v.x && last[1] == v.y && last[2] == v.z )
+        {
+            skipped++;
+            return;
+        }
+        last[0] = v.x;
+        last[1] = v.y;
+        last[2] = v.z;
+        gl.glUniform3f( location, v.x, v.y, v.z );
+        uploads++;
+    }
+
+    private float[] last(int location, int length)
+    {
+        if ( location >= values.length ) {
+            values = Arrays.copyOf( values, Math.max( location + 1, values.length * 2 ) );
+        }
+        float[] result = values[location];
+        if ( result == null || result.length != length )
+        {
+            // NaN never equals anything, so the first upload always happens
+            result = new float[length];
+            Arrays.fill( result, Float.NaN );
+            values[location] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Forgets all values, the next upload to every uniform happens unconditionally.
+     */
+    public void invalidate()
+    {
+        Arrays.fill( values, null );
+    }
+
+    public long uploads()
+    {
+        return uploads;
+    }
+
+    /**
+     * Returns the number of uploads skipped because the uniform already held the value.
+     *
+     * @return count
+     */
+    public long skipped()
+    {
+        return skipped;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "uniforms: %d uploads, %d skipped".formatted( uploads, skipped );
+    }
+}
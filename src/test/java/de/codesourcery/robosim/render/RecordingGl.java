@@ -0,0 +1,53 @@
+package de.codesourcery.robosim.render;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.IntBuffer;
+import java.util.Map;
+import com.badlogic.gdx.graphics.GL20;
+
+/**
+ * GL20 (and Application) stub that counts calls by method name and fakes just enough state for meshes and
+ * shader programs to be created.
+ */
+final class RecordingGl
+{
+    private RecordingGl()
+    {
+    }
+
+    /**
+     * Creates a stub.
+     *
+     * @param type interface to implement, e.g. {@link GL20}
+     * @param calls gets the number of calls per method name added
+     * @return stub, methods return 1, <code>false</code>, an empty string or <code>null</code> depending on their type
+     */
+    static <T> T stub(Class<T> type, Map<String, Integer> calls)
+    {
+        final InvocationHandler handler = (proxy, method, args) -> {
+            switch( method.getName() )
+            {
+                case "hashCode": return System.identityHashCode( proxy );
+                case "equals": return proxy == args[0];
+                case "toString": return type.getSimpleName() + " stub";
+                case "glGetShaderiv", "glGetProgramiv":
+                    // compile/link succeeded, no active attributes or uniforms
+                    final int pname = (int) args[1];
+                    ((IntBuffer) args[2]).put( 0, pname == GL20.GL_ACTIVE_ATTRIBUTES || pname == GL20.GL_ACTIVE_UNIFORMS ? 0 : 1 );
+                    break;
+                default:
+            }
+            calls.merge( method.getName(), 1, Integer::sum );
+            final Class<?> rt = method.getReturnType();
+            if ( rt == int.class ) {
+                return 1;
+            }
+            if ( rt == boolean.class ) {
+                return false;
+            }
+            return rt == String.class ? "" : null;
+        };
+        return type.cast( Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[]{ type }, handler ) );
+    }
+}
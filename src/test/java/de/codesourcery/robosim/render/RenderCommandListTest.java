@@ -0,0 +1,152 @@
+package de.codesourcery.robosim.render;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+/**
+ * Counts the GL calls issued by {@link RenderCommandList#execute(GL20, ShaderProgram, int, int)} through a
+ * recording {@link GL20} stub, no GPU required.
+ */
+class RenderCommandListTest
+{
+    private static final int ROBOTS = 100;
+    // cylinder, box, cylinder, box, ..., cylinder
+    private static final int PARTS = 13;
+    private static final int CYLINDERS = ROBOTS * ((PARTS + 1) / 2);
+    private static final int BOXES = ROBOTS * (PARTS / 2);
+    private static final int COMMANDS = ROBOTS * PARTS;
+    // unsorted, the mesh changes with every command except from the last part of a robot to the first of the next
+    private static final int UNSORTED_CYLINDER_BINDS = CYLINDERS - (ROBOTS - 1);
+
+    private static final Map<String, Integer> calls = new TreeMap<>();
+    private static GL20 gl;
+    private static ShaderProgram shader;
+    private static Mesh box;
+    private static Mesh cylinder;
+
+    private RenderCommandList commands;
+
+    @BeforeAll
+    static void setUpGl()
+    {
+        // buffers use native code, but there is no GL context
+        GdxNativesLoader.load();
+        gl = RecordingGl.stub( GL20.class, calls );
+        Gdx.app = RecordingGl.stub( Application.class, new TreeMap<>() );
+        Gdx.gl = Gdx.gl20 = gl;
+
+        shader = new ShaderProgram( "void main() {}", "void main() {}" );
+        box = new Mesh( true, 8, 36, VertexAttribute.Position() );
+        box.setIndices( new short[36] );
+        cylinder = new Mesh( true, 128, 0, VertexAttribute.Position() );
+    }
+
+    @AfterAll
+    static void tearDownGl()
+    {
+        box.dispose();
+        cylinder.dispose();
+        shader.dispose();
+        Gdx.gl = Gdx.gl20 = null;
+        Gdx.app = null;
+    }
+
+    @BeforeEach
+    void setUp()
+    {
+        commands = new RenderCommandList();
+        final Matrix4 m = new Matrix4();
+        for ( int robot = 0; robot < ROBOTS; robot++ )
+        {
+            for ( int part = 0; part < PARTS; part++ ) {
+                commands.add( part % 2 == 0 ? cylinder : box, m.setToTranslation( robot * 20, part * 10, 0 ) );
+            }
+        }
+        // the first bind of a new mesh uploads its buffers, don't count that
+        commands.execute( gl, shader, 1, GL20.GL_TRIANGLES );
+        calls.clear();
+    }
+
+    @Test
+    void unsortedBindsMeshWheneverItChanges()
+    {
+        assertEquals( COMMANDS, commands.execute( gl, shader, 1, GL20.GL_TRIANGLES ) );
+
+        assertEquals( COMMANDS, commands.drawCalls() );
+        assertEquals( UNSORTED_CYLINDER_BINDS + BOXES, commands.meshBinds() );
+        assertEquals( COMMANDS, count( "glUniformMatrix4fv" ) );
+        assertEquals( BOXES, count( "glDrawElements" ) );
+        assertEquals( CYLINDERS, count( "glDrawArrays" ) );
+        assertEquals( bindBufferCalls( UNSORTED_CYLINDER_BINDS, BOXES ), count( "glBindBuffer" ) );
+    }
+
+    @Test
+    void sortedBindsEveryMeshOnce()
+    {
+        commands.sort();
+        assertEquals( COMMANDS, commands.execute( gl, shader, 1, GL20.GL_TRIANGLES ) );
+
+        assertEquals( COMMANDS, commands.drawCalls() );
+        assertEquals( 2, commands.meshBinds() );
+        assertEquals( COMMANDS, count( "glUniformMatrix4fv" ) );
+        assertEquals( BOXES, count( "glDrawElements" ) );
+        assertEquals( CYLINDERS, count( "glDrawArrays" ) );
+        assertEquals( bindBufferCalls( 1, 1 ), count( "glBindBuffer" ) );
+    }
+
+    @Test
+    void sortingKeepsPerMeshOrder()
+    {
+        final RenderCommandList list = new RenderCommandList();
+        final Matrix4 m = new Matrix4();
+        for ( int i = 0; i < 4; i++ ) {
+            list.add( i % 2 == 0 ? cylinder : box, m.setToTranslation( i, 0, 0 ) );
+        }
+        list.sort();
+        final float[] uploadedX = new float[4];
+        final int[] uploads = { 0 };
+        final GL20 recorder = RecordingGl.stub( GL20.class, new TreeMap<>() );
+        final GL20 capturing = (GL20) Proxy.newProxyInstance( GL20.class.getClassLoader(), new Class<?>[]{ GL20.class },
+            (proxy, method, args) -> {
+                if ( method.getName().equals( "glUniformMatrix4fv" ) && args.length == 5 ) {
+                    uploadedX[uploads[0]++] = ((float[]) args[3])[(int) args[4] + Matrix4.M03];
+                }
+                return method.invoke( recorder, args );
+            } );
+        list.execute( capturing, shader, 1, GL20.GL_TRIANGLES );
+
+        assertEquals( 4, uploads[0] );
+        // cylinders (added first) at x=0 and x=2, then boxes at x=1 and x=3
+        assertEquals( 0, uploadedX[0] );
+        assertEquals( 2, uploadedX[1] );
+        assertEquals( 1, uploadedX[2] );
+        assertEquals( 3, uploadedX[3] );
+    }
+
+    /*
+     * Binding and unbinding a mesh binds its vertex buffer and, for indexed meshes, its index buffer.
+     */
+    private static int bindBufferCalls(int cylinderBinds, int boxBinds)
+    {
+        return 2 * cylinderBinds + 4 * boxBinds;
+    }
+
+    private static int count(String method)
+    {
+        return calls.getOrDefault( method, 0 );
+    }
+}
@@ -0,0 +1,104 @@
+package de.codesourcery.robosim.render;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Counts the uniform uploads {@link UniformCache} issues through a recording {@link GL20} stub.
+ */
+class UniformCacheTest
+{
+    private static final int PROJECTION = 0;
+    private static final int VIEW = 1;
+    private static final int LIGHT_POSITION = 2;
+
+    private final Map<String, Integer> calls = new TreeMap<>();
+    private final GL20 gl = RecordingGl.stub( GL20.class, calls );
+    private final UniformCache cache = new UniformCache();
+
+    private final Matrix4 projection = new Matrix4().setToProjection( 1, 1000, 67, 4 / 3f );
+    private final Matrix4 view = new Matrix4().setToLookAt( new Vector3( 0, 0, 100 ), Vector3.Zero, Vector3.Y );
+    private final Vector3 lightPosition = new Vector3( 100, 200, 300 );
+
+    @BeforeEach
+    void uploadOnce()
+    {
+        setAll();
+        assertEquals( 2, count( "glUniformMatrix4fv" ) );
+        assertEquals( 1, count( "glUniform3f" ) );
+        calls.clear();
+    }
+
+    @Test
+    void unchangedValuesAreNotUploaded()
+    {
+        for ( int frame = 0; frame < 10; frame++ ) {
+            setAll();
+        }
+        assertEquals( 0, count( "glUniformMatrix4fv" ) );
+        assertEquals( 0, count( "glUniform3f" ) );
+        assertEquals( 3, cache.uploads() );
+        assertEquals( 30, cache.skipped() );
+    }
+
+    @Test
+    void changedMatrixIsUploadedOnce()
+    {
+        view.translate( 1, 0, 0 );
+        setAll();
+        setAll();
+        assertEquals( 1, count( "glUniformMatrix4fv" ) );
+        assertEquals( 0, count( "glUniform3f" ) );
+    }
+
+    @Test
+    void changedVectorIsUploadedOnce()
+    {
+        lightPosition.x++;
+        setAll();
+        setAll();
+        assertEquals( 0, count( "glUniformMatrix4fv" ) );
+        assertEquals( 1, count( "glUniform3f" ) );
+    }
+
+    @Test
+    void invalidateUploadsEverythingAgain()
+    {
+        cache.invalidate();
+        setAll();
+        assertEquals( 2, count( "glUniformMatrix4fv" ) );
+        assertEquals( 1, count( "glUniform3f" ) );
+
+        calls.clear();
+        setAll();
+        assertEquals( 0, count( "glUniformMatrix4fv" ) );
+        assertEquals( 0, count( "glUniform3f" ) );
+    }
+
+    @Test
+    void missingUniformsAreIgnored()
+    {
+        cache.setMatrix4( gl, -1, view.val );
+        cache.setVector3( gl, -1, lightPosition );
+        assertEquals( 0, count( "glUniformMatrix4fv" ) );
+        assertEquals( 0, count( "glUniform3f" ) );
+    }
+
+    private void setAll()
+    {
+        cache.setMatrix4( gl, PROJECTION, projection.val );
+        cache.setMatrix4( gl, VIEW, view.val );
+        cache.setVector3( gl, LIGHT_POSITION, lightPosition );
+    }
+
+    private int count(String method)
+    {
+        return calls.getOrDefault( method, 0 );
+    }
+}